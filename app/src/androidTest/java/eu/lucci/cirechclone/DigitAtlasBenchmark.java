@@ -0,0 +1,118 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Benchmark of the score drawn from the DigitAtlasBitmap against Canvas.drawText, as GameView
+ * did before, for scores from 1 to 10 digits. It draws on a software canvas of the size of a
+ * phone screen, with the text size of GameView; results are in logcat, tag DigitAtlasBenchmark.
+ * Run it with: gradle connectedAndroidTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class DigitAtlasBenchmark {
+
+    private static final String TAG = "DigitAtlasBenchmark";
+
+    private static final int WIDTH = 720;
+
+    private static final int HEIGHT = 1280;
+
+    private static final int DRAWS = 20000;
+
+    private static final int ROUNDS = 3;
+
+    private Bitmap bitmap;
+
+    private Canvas canvas;
+
+    private Paint paint;
+
+    private DigitAtlasBitmap atlas;
+
+    @Before
+    public void setUp() {
+        bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+        paint = new Paint();
+        paint.setTextSize(WIDTH / 15);
+        paint.setColor(Color.WHITE);
+        atlas = new DigitAtlasBitmap(paint);
+    }
+
+    @After
+    public void tearDown() {
+        atlas.recycle();
+        bitmap.recycle();
+    }
+
+    /**
+     * @return the number made of the first digits of 1234567890.
+     */
+    private static int score(int digits) {
+        int score = 0;
+        for (int i = 1; i <= digits; i++) score = score * 10 + i % 10;
+        return score;
+    }
+
+    /**
+     * @return mean time of a draw, in nanoseconds.
+     */
+    private long drawText(int score) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < DRAWS; i++) canvas.drawText("" + score, 0, HEIGHT - 2, paint);
+        return (System.nanoTime() - begin) / DRAWS;
+    }
+
+    /**
+     * @return mean time of a draw, in nanoseconds.
+     */
+    private long drawAtlas(int score) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < DRAWS; i++) atlas.draw(canvas, score, 0, HEIGHT - 2);
+        return (System.nanoTime() - begin) / DRAWS;
+    }
+
+    @Test
+    public void scoreLengths() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Log.i(TAG, "round " + round + ", " + DRAWS + " draws per length");
+            for (int digits = 1; digits <= DigitAtlas.MAX_DIGITS; digits++) {
+                int score = score(digits);
+                long text = drawText(score);
+                long blit = drawAtlas(score);
+                Log.i(TAG, String.format("%2d digits: drawText %6d ns, atlas %6d ns",
+                        digits, text, blit));
+            }
+        }
+    }
+}
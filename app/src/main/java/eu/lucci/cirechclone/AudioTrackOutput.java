@@ -0,0 +1,63 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * Plays the mix on an AudioTrack in streaming mode, with the smallest buffer the device
+ * accepts.
+ */
+public class AudioTrackOutput implements AudioOutput {
+
+    private final AudioTrack track;
+
+    private final int bufferFrames;
+
+    public AudioTrackOutput() {
+        int minBytes = AudioTrack.getMinBufferSize(AudioMixer.SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        // two buffers in the track, so that one plays while the other is mixed
+        bufferFrames = Math.max(256, minBytes / 2 / 2);
+        track = new AudioTrack(AudioManager.STREAM_MUSIC, AudioMixer.SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBytes, bufferFrames * 2 * 2), AudioTrack.MODE_STREAM);
+        track.play();
+    }
+
+    @Override
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    @Override
+    public void write(short[] buffer, int frames) {
+        track.write(buffer, 0, frames);
+    }
+
+    @Override
+    public void close() {
+        track.stop();
+        track.release();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * The ten digits rasterized once in a Bitmap, laid out by a DigitAtlas: numbers are drawn on a
+ * Canvas by copying digit cells, without text layout nor allocations.
+ */
+class DigitAtlasBitmap {
+
+    private final DigitAtlas atlas;
+
+    private final Bitmap bitmap;
+
+    private final int[] digits = new int[DigitAtlas.MAX_DIGITS];
+
+    private final Rect src = new Rect();
+
+    private final RectF dst = new RectF();
+
+    /**
+     * Rasterizes the ten digits.
+     *
+     * @param paint the paint of the digits: text size, color and typeface.
+     */
+    DigitAtlasBitmap(Paint paint) {
+        float[] advances = new float[10];
+        for (int d = 0; d < 10; d++) advances[d] = paint.measureText(Integer.toString(d));
+        atlas = new DigitAtlas(advances, -paint.ascent(), paint.descent());
+        bitmap = Bitmap.createBitmap(Math.max(1, atlas.getWidth()),
+                Math.max(1, atlas.getHeight()), Bitmap.Config.ARGB_8888);
+        Canvas atlasCanvas = new Canvas(bitmap);
+        for (int d = 0; d < 10; d++) {
+            atlasCanvas.drawText(Integer.toString(d), atlas.cellX(d), atlas.getBaseline(), paint);
+        }
+    }
+
+    /**
+     * Draws a number by copying digits from the atlas.
+     *
+     * @param canvas the target canvas
+     * @param number the number to draw, not negative
+     * @param x      left bound of the text
+     * @param y      baseline of the text
+     */
+    void draw(Canvas canvas, int number, float x, float y) {
+        int count = DigitAtlas.layout(number, digits);
+        float top = y - atlas.getBaseline();
+        for (int i = 0; i < count; i++) {
+            int d = digits[i];
+            int cellX = atlas.cellX(d);
+            src.set(cellX, 0, cellX + atlas.getCellWidth(), atlas.getCellHeight());
+            dst.set(x, top, x + atlas.getCellWidth(), top + atlas.getCellHeight());
+            canvas.drawBitmap(bitmap, src, dst, null);
+            x += atlas.advance(d);
+        }
+    }
+
+    /**
+     * Frees the bitmap, the atlas can't be used anymore.
+     */
+    void recycle() {
+        bitmap.recycle();
+    }
+}
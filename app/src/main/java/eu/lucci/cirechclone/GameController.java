@@ -44,12 +44,19 @@ public class GameController implements View.OnTouchListener {
      */
     private CirechGame game;
 
+    /**
+     * Races the game against the best run.
+     */
+    private GhostRun ghostRun;
+
     /**
      * @param view
      * @param game
+     * @param ghostRun the ghost run of the game, started by swiping up.
      */
-    public GameController(View view, CirechGame game) {
+    public GameController(View view, CirechGame game, GhostRun ghostRun) {
         this.game = game;
+        this.ghostRun = ghostRun;
         swipeDetector = new GestureDetector(view.getContext(), new SwipeDetector());
         view.setOnTouchListener(this);
     }
@@ -63,7 +70,14 @@ public class GameController implements View.OnTouchListener {
      */
     @Override
     public boolean onTouch(View view, MotionEvent event) {
-        return swipeDetector.onTouchEvent(event);
+        long cpu = CpuAccounting.begin();
+        Tracer.begin(Tracer.INPUT);
+        try {
+            return swipeDetector.onTouchEvent(event);
+        } finally {
+            Tracer.end(Tracer.INPUT);
+            CpuAccounting.end(CpuAccounting.INPUT, cpu);
+        }
     }
 
     /**
@@ -79,10 +93,15 @@ public class GameController implements View.OnTouchListener {
 
         @Override
         public boolean onDown(MotionEvent e) {
+            // event times are uptimeMillis(), same clock as System.nanoTime()
+            long eventNanos = e.getEventTime() * 1000000L;
             switch (game.getCurrentState()) {
                 case CirechGame.PLAY_STATE:
-                    game.switchColor();
+                    game.switchColorAt(eventNanos);
                     return false;
+                case CirechGame.GAME_OVER_STATE:
+                    // a late tap may still save the game
+                    if (game.switchColorAt(eventNanos)) return false;
             }
             return true;
         }
@@ -121,6 +140,9 @@ public class GameController implements View.OnTouchListener {
                         game.setCurrentState(CirechGame.PLAY_STATE);
                         return false;
                 }
+            } else if (swipeDirection == UP_SWIPE) {
+                // from the menu or after a game over, if there is a best run
+                if (ghostRun.race()) return false;
             }
             return true;
         }
@@ -21,6 +21,7 @@ package eu.lucci.cirechclone;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -47,6 +48,20 @@ public class GameView extends SurfaceView implements GameRenderer {
 
     private static final String TAG = "GameView";
 
+    private static final int OPAQUE = 255;
+
+    /**
+     * Alpha of the ghosts drawn over the game.
+     */
+    public static final int GHOST_ALPHA = 96;
+
+    private static final GameEngine[] NO_GHOSTS = new GameEngine[0];
+
+    /**
+     * How often the CPU overlay text is updated, in nanoseconds.
+     */
+    private static final long CPU_OVERLAY_PERIOD = 500000000L;
+
     /**
      * This is the background color.
      */
@@ -82,8 +97,47 @@ public class GameView extends SurfaceView implements GameRenderer {
      */
     private int color1;
 
+    /**
+     * Screen coordinates of the particles being drawn, grown to the particle budget once.
+     */
+    private float[] particlePoints = new float[0];
+
+    /**
+     * Size of a particle, in pixels.
+     */
+    private float particleSize;
+
     private Random rand;
 
+    /**
+     * Pre-rasterized digits, used to draw the score, built by measure().
+     */
+    private DigitAtlasBitmap digitAtlas;
+
+    /**
+     * If true the CPU load of the subsystems is drawn over the game.
+     */
+    private boolean cpuOverlay;
+
+    private Paint cpuPaint;
+
+    /**
+     * One line per subsystem, rebuilt every CPU_OVERLAY_PERIOD.
+     */
+    private final String[] cpuLines = new String[CpuAccounting.SUBSYSTEMS];
+
+    private long cpuLinesTime;
+
+    /**
+     * Cached text of the menu.
+     */
+    private OverlayCache menuCache;
+
+    /**
+     * Cached full screen layer of the pause and game over screens.
+     */
+    private OverlayCache screenCache;
+
     /**
      * @param context
      */
@@ -122,10 +176,17 @@ public class GameView extends SurfaceView implements GameRenderer {
         barrierDrawable = new BarrierDrawable();
         rand = new Random();
         mPaint = new Paint();
+        cpuPaint = new Paint();
+        cpuPaint.setColor(TEXT_COLOR);
+        cpuPaint.setTextAlign(Paint.Align.RIGHT);
+        menuCache = new OverlayCache(false);
+        screenCache = new OverlayCache(true);
         resetColors();
     }
 
-    public void resetColors() {
+    public synchronized void resetColors() {
+        menuCache.invalidate();
+        screenCache.invalidate();
         color0 = color1 = Color.HSVToColor(generateHSVColor()); //generate game colors
         do {
             color1 = Color.HSVToColor(generateHSVColor());
@@ -153,47 +214,128 @@ public class GameView extends SurfaceView implements GameRenderer {
      * @param game the GameEngine to render.
      */
     public void renderGame(GameEngine game) {
+        if (game instanceof GhostRun) {
+            GhostRun run = (GhostRun) game;
+            renderGame(run.getGame(), run.getGhosts());
+        } else {
+            renderGame(game, NO_GHOSTS);
+        }
+    }
+
+    /**
+     * Draws the specified game on this surface, with its ghosts over it.
+     *
+     * @param game   the GameEngine to render.
+     * @param ghosts the ghosts to render over the game.
+     */
+    public void renderGame(GameEngine game, GameEngine[] ghosts) {
         if (isReady) {
             Canvas c = null;
             try {
+                Tracer.begin(Tracer.LOCK_CANVAS);
                 c = getHolder().lockCanvas();
+                Tracer.end(Tracer.LOCK_CANVAS);
                 synchronized (getHolder()) {
-                    render(c, (CirechGame) game);
+                    render(c, (CirechGame) game, ghosts);
+                    if (cpuOverlay && c != null) drawCpuOverlay(c);
                 }
             } finally {
-                if (c != null) getHolder().unlockCanvasAndPost(c);
+                if (c != null) {
+                    Tracer.begin(Tracer.UNLOCK_CANVAS);
+                    getHolder().unlockCanvasAndPost(c);
+                    Tracer.end(Tracer.UNLOCK_CANVAS);
+                }
             }
         }
     }
 
+    /**
+     * Gives a renderer that draws games like this view, but on a bitmap of the same size
+     * instead of the surface. Only for games in play state: the other states would rebuild
+     * the screen caches of this view.
+     *
+     * @return the offscreen renderer.
+     */
+    GameRenderer offscreenRenderer() {
+        Bitmap bitmap = Bitmap.createBitmap(Math.max(1, getWidth()), Math.max(1, getHeight()),
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        return new GameRenderer() {
+            @Override
+            public void renderGame(GameEngine game) {
+                renderGame(game, NO_GHOSTS);
+            }
+
+            @Override
+            public void renderGame(GameEngine game, GameEngine[] ghosts) {
+                render(canvas, (CirechGame) game, ghosts);
+            }
+        };
+    }
+
     /**
      * @param canvas
      * @param game   the game to be rendered.
+     * @param ghosts the ghosts to be rendered over the game.
      */
-    private synchronized void render(Canvas canvas, CirechGame game) {
+    private synchronized void render(Canvas canvas, CirechGame game, GameEngine[] ghosts) {
         if (canvas == null) return;
         //draw background
         canvas.drawColor(background);
         switch (game.getCurrentState()) {
             case CirechGame.MENU_STATE:     //draw menu state
                 //draw ball
-                drawModels(canvas, game);
+                drawModels(canvas, game, OPAQUE);
                 //text
-                mPaint.setColor(TEXT_COLOR);
-                canvas.drawText("Tap to match the colors.", 0, textSize, mPaint);
-                canvas.drawText("High Score: " + game.highScore, 0, textSize * 2, mPaint);
-                canvas.drawText("Swipe down to start.", 0, textSize * 3, mPaint);
+                canvas.drawBitmap(menuCache.get(
+                        CirechGame.MENU_STATE, 0, game.highScore), 0, 0, null);
                 break;
             case CirechGame.PLAY_STATE:     //draw the game in play state
                 //draw models
-                drawModels(canvas, game);
+                drawModels(canvas, game, OPAQUE);
+                drawGhosts(canvas, ghosts);
+                drawParticles(canvas, game);
                 //draw score
-                mPaint.setColor(TEXT_COLOR);
-                canvas.drawText("" + game.score, 0, getHeight() - 2, mPaint);
+                if (digitAtlas != null) digitAtlas.draw(canvas, game.score, 0, getHeight() - 2);
                 break;
             case CirechGame.PAUSE_STATE:    //draw paused game
-                drawModels(canvas, game);   //draw models as they are
-                //with transparency layer
+                drawModels(canvas, game, OPAQUE);   //draw models as they are
+                drawGhosts(canvas, ghosts);
+                //with transparency layer and text
+                canvas.drawBitmap(screenCache.get(
+                        CirechGame.PAUSE_STATE, 0, 0), 0, 0, null);
+                break;
+            case CirechGame.GAME_OVER_STATE:    //draw game over screen
+                drawModels(canvas, game, OPAQUE);
+                //with transparency layer and text
+                canvas.drawBitmap(screenCache.get(
+                        CirechGame.GAME_OVER_STATE, game.score, game.highScore), 0, 0, null);
+                //the burst over everything
+                drawParticles(canvas, game);
+                break;
+            default:
+        }
+    }
+
+
+    /**
+     * Draws the static parts of a screen, over the game objects.
+     *
+     * @param canvas    the target canvas, transparent
+     * @param state     the game state
+     * @param score     the game score
+     * @param highScore the high score
+     */
+    private void drawOverlay(Canvas canvas, int state, int score, int highScore) {
+        switch (state) {
+            case CirechGame.MENU_STATE:
+                mPaint.setColor(TEXT_COLOR);
+                canvas.drawText("Tap to match the colors.", 0, textSize, mPaint);
+                canvas.drawText("High Score: " + highScore, 0, textSize * 2, mPaint);
+                canvas.drawText("Swipe down to start.", 0, textSize * 3, mPaint);
+                break;
+            case CirechGame.PAUSE_STATE:
+                //transparency layer
                 mPaint.setColor(background);
                 mPaint.setAlpha(191);
                 canvas.drawRect(0, 0, getWidth(), getHeight(), mPaint);
@@ -201,54 +343,144 @@ public class GameView extends SurfaceView implements GameRenderer {
                 mPaint.setColor(TEXT_COLOR);
                 canvas.drawText("Paused game. Tap to resume.", 0, textSize, mPaint);
                 break;
-            case CirechGame.GAME_OVER_STATE:    //draw game over screen
-                drawModels(canvas, game);
-                //with transparency layer
+            case CirechGame.GAME_OVER_STATE:
+                //transparency layer
                 mPaint.setColor(background);
                 mPaint.setAlpha(191);
                 canvas.drawRect(0, 0, getWidth(), getHeight(), mPaint);
                 mPaint.setColor(TEXT_COLOR);
-                canvas.drawText("Game over. Score: " + game.score, 0, textSize, mPaint);
-                canvas.drawText("High Score: " + game.highScore, 0, textSize * 2, mPaint);
+                canvas.drawText("Game over. Score: " + score, 0, textSize, mPaint);
+                canvas.drawText("High Score: " + highScore, 0, textSize * 2, mPaint);
                 canvas.drawText("Swipe down to restart.", 0, textSize * 3, mPaint);
+                canvas.drawText("Swipe up to race your best.", 0, textSize * 4, mPaint);
                 break;
             default:
         }
     }
 
+    /**
+     * Rasterizes the ten digits with the current text size.
+     */
+    private void buildDigitAtlas() {
+        if (digitAtlas != null) digitAtlas.recycle();
+        mPaint.setColor(TEXT_COLOR);
+        digitAtlas = new DigitAtlasBitmap(mPaint);
+    }
+
+    /**
+     * Draws the ghosts in play state, translucent.
+     *
+     * @param canvas the target canvas
+     * @param ghosts the ghosts to draw
+     */
+    private void drawGhosts(Canvas canvas, GameEngine[] ghosts) {
+        for (GameEngine ghost : ghosts) {
+            CirechGame g = (CirechGame) ghost;
+            if (g.getCurrentState() == CirechGame.PLAY_STATE) drawModels(canvas, g, GHOST_ALPHA);
+        }
+    }
+
+    /**
+     * Draws the particles of the game, one batch of points per color.
+     *
+     * @param canvas the target canvas
+     * @param game   the game whose particles are drawn
+     */
+    private void drawParticles(Canvas canvas, CirechGame game) {
+        ParticleSystem particles = game.getParticles();
+        if (particles == null || particles.getCount() == 0) return;
+        if (particlePoints.length < particles.getCapacity() * 2) {
+            particlePoints = new float[particles.getCapacity() * 2];
+        }
+        mPaint.setStrokeWidth(particleSize);
+        for (int c = 0; c < 2; c++) {
+            boolean color = c == 1;
+            int n = particles.fillPoints(color, particlePoints, getWidth(), barrierDrawable.k);
+            if (n == 0) continue;
+            mPaint.setColor(color ? color1 : color0);
+            canvas.drawPoints(particlePoints, 0, n, mPaint);
+        }
+        mPaint.setStrokeWidth(0);
+    }
 
     /**
      * This method draws the game objects.
      *
      * @param canvas the target canvas
      * @param game   the game to draw
+     * @param alpha  the alpha of the objects
      */
-    private void drawModels(Canvas canvas, CirechGame game) {
+    private void drawModels(Canvas canvas, CirechGame game, int alpha) {
         //draw ball
         if (game.currentColor) mPaint.setColor(color1);
         else mPaint.setColor(color0);   //pick the color from the game value
+        mPaint.setAlpha(alpha);
         ballDrawable.draw(canvas, mPaint);      //draw on canvas
-        //draw barriers one by one
-        for (Barrier b : game.barriers) {
-            barrierDrawable.x = b.position * barrierDrawable.k;
-            if (b.color) mPaint.setColor(color1);
-            else mPaint.setColor(color0);
-            barrierDrawable.draw(canvas, mPaint);
+        //draw barriers lane by lane, each lane in its own column
+        Barrier[] barriers = game.barriers;
+        int lanes = game.getLanes();
+        int perLane = game.getBarriersPerLane();
+        for (int lane = 0; lane < lanes; lane++) {
+            barrierDrawable.left = getWidth() * lane / lanes;
+            barrierDrawable.right = getWidth() * (lane + 1) / lanes;
+            //from the front barrier, stop at the first one above the screen: the others follow
+            for (int i = 0; i < perLane; i++) {
+                Barrier b = barriers[game.barrierIndex(lane, i)];
+                barrierDrawable.x = b.position * barrierDrawable.k;
+                if (barrierDrawable.x <= 0) break;
+                if (b.color) mPaint.setColor(color1);
+                else mPaint.setColor(color0);
+                mPaint.setAlpha(alpha);
+                barrierDrawable.draw(canvas, mPaint);
+            }
         }
     }
 
     /**
      * Dynamically sets the size of the models.
      */
-    public void measure() {
+    public synchronized void measure() {
+        menuCache.invalidate();
+        screenCache.invalidate();
         //measure
         ballDrawable.radius = getHeight() / 14;
         ballDrawable.centerX = getWidth() / 2;
         ballDrawable.centerY = getHeight() - ballDrawable.radius;
         barrierDrawable.h = getHeight() / 14;
         barrierDrawable.k = (getHeight() - ballDrawable.radius * 2) / CirechGame.LIMIT;
+        particleSize = Math.max(2, getHeight() / 200);
         textSize = getWidth() / 15;
         mPaint.setTextSize(textSize);
+        cpuPaint.setTextSize(textSize / 2);
+        buildDigitAtlas();
+    }
+
+    /**
+     * Draws the CPU load of each subsystem in the session, in the top right corner, for
+     * debugging. The text is only rebuilt a couple of times per second.
+     *
+     * @param canvas the target canvas.
+     */
+    private void drawCpuOverlay(Canvas canvas) {
+        long now = System.nanoTime();
+        if (cpuLines[0] == null || now - cpuLinesTime > CPU_OVERLAY_PERIOD) {
+            cpuLinesTime = now;
+            for (int i = 0; i < cpuLines.length; i++) {
+                cpuLines[i] = String.format("%s %.1f%%", CpuAccounting.getName(i),
+                        CpuAccounting.getLoad(i) * 100);
+            }
+        }
+        float lineHeight = textSize / 2;
+        for (int i = 0; i < cpuLines.length; i++) {
+            canvas.drawText(cpuLines[i], getWidth(), lineHeight * (i + 1), cpuPaint);
+        }
+    }
+
+    /**
+     * @param enabled true to draw the CPU load of the subsystems over the game.
+     */
+    public void setCpuOverlayEnabled(boolean enabled) {
+        cpuOverlay = enabled;
     }
 
     /**
@@ -297,15 +529,73 @@ public class GameView extends SurfaceView implements GameRenderer {
         float h;    // height
         float x;    // vertical position
         float k;    // vertical bound, max drawable v. position
+        float left;     // lane bounds
+        float right;
 
         void draw(Canvas canvas, Paint paint) {
             canvas.drawRect(
-                    0,          // left
+                    left,       // left
                     x - h,      // top
-                    getWidth(), // right
+                    right,      // right
                     x,          // bottom
                     mPaint      // paint
             );
         }
     }
+
+    /**
+     * An offscreen bitmap holding a pre-rendered overlay, redrawn only when its key
+     * (state, score, high score) changes.
+     */
+    private class OverlayCache {
+        final boolean fullScreen;
+        Bitmap bitmap;
+        Canvas canvas;
+        boolean valid;
+        int state;
+        int score;
+        int highScore;
+
+        /**
+         * @param fullScreen true if the overlay covers the surface, false if it only holds the
+         *                   three lines of text at the top.
+         */
+        OverlayCache(boolean fullScreen) {
+            this.fullScreen = fullScreen;
+        }
+
+        /**
+         * @return the overlay for the given key, drawn if needed.
+         */
+        Bitmap get(int state, int score, int highScore) {
+            if (bitmap == null) {
+                int height = fullScreen
+                        ? getHeight() : (int) Math.ceil(textSize * 3 + mPaint.descent());
+                bitmap = Bitmap.createBitmap(
+                        Math.max(1, getWidth()), Math.max(1, height), Bitmap.Config.ARGB_8888);
+                canvas = new Canvas(bitmap);
+            }
+            if (!valid || this.state != state || this.score != score || this.highScore != highScore) {
+                bitmap.eraseColor(Color.TRANSPARENT);
+                drawOverlay(canvas, state, score, highScore);
+                this.state = state;
+                this.score = score;
+                this.highScore = highScore;
+                valid = true;
+            }
+            return bitmap;
+        }
+
+        /**
+         * Drops the overlay, the bitmap is released since the surface size may have changed.
+         */
+        void invalidate() {
+            valid = false;
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+                canvas = null;
+            }
+        }
+    }
 }
@@ -20,10 +20,14 @@
 package eu.lucci.cirechclone;
 
 import android.app.Activity;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
+import java.util.concurrent.Executor;
+
 /**
  * Main activity of the app.
  */
@@ -39,6 +43,11 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
      */
     private CirechGame mGame;
 
+    /**
+     * Runs the game against the ghost of the best run.
+     */
+    private GhostRun mGhostRun;
+
     /**
      * VIEW
      */
@@ -54,21 +63,87 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
      */
     private GameThread mLoop;
 
+    /**
+     * Calls the game callbacks off the game loop.
+     */
+    private EventDispatcher mDispatcher;
+
+    /**
+     * Statistics of the finished games, saved only once the saved ones have been read.
+     */
+    private final GameStats mStats = new GameStats();
+
+    private boolean mStatsLoaded;
+
+    /**
+     * Warms up the game code while the menu is shown, null if disabled or not started yet.
+     */
+    private WarmUp mWarmUp;
+
+    /**
+     * True once the frames of the first game have been asked to the governor.
+     */
+    private boolean mFirstGameCaptured;
+
+    /**
+     * Mixes the sound cues.
+     */
+    private final AudioMixer mMixer = new AudioMixer();
+
+    private AudioThread mAudio;
+
+    // sound cues
+    private int mSwitchSound;
+
+    private int mPassSound;
+
+    private int mGameOverSound;
+
+    /**
+     * Runs the file tasks, accounting their CPU time to I/O.
+     */
+    private final Executor mIoExecutor =
+            CpuAccounting.wrap(CpuAccounting.IO, AsyncTask.SERIAL_EXECUTOR);
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Tracer.setForwarder(new SystraceForwarder());
+        }
+        Tracer.setEnabled(getResources().getBoolean(R.bool.trace_enabled));
+        CpuAccounting.setClock(new DebugThreadClock());
+        CpuAccounting.setEnabled(getResources().getBoolean(R.bool.cpu_accounting_enabled));
         //init game
-        mGame = new CirechGame();
+        mGame = new CirechGame(true);
         mGame.setCallback(this);
+        mGame.setRollbackEnabled(true);
+        mGame.setParticles(new ParticleSystem(
+                getResources().getInteger(R.integer.particle_budget)));
+        mGhostRun = new GhostRun(mGame);
+        mGhostRun.setGeneratorExecutor(
+                CpuAccounting.wrap(CpuAccounting.SIMULATION, AsyncTask.THREAD_POOL_EXECUTOR));
+        mDispatcher = new EventDispatcher(mGame);
+        mDispatcher.start();
+        mGame.setDispatcher(mDispatcher);
         // read high score from file
-        new ReadScoreTask(this).execute();
+        new ReadScoreTask(this).executeOnExecutor(mIoExecutor);
+        new ReadStatsTask(this).executeOnExecutor(mIoExecutor);
+        new ReadDifficultyTask(this, mGame.getBarriersPerLane()).executeOnExecutor(mIoExecutor);
+        //init sound
+        mSwitchSound = mMixer.addSample(AudioMixer.tone(880, 50, Short.MAX_VALUE / 4));
+        mPassSound = mMixer.addSample(AudioMixer.tone(660, 40, Short.MAX_VALUE / 6));
+        mGameOverSound = mMixer.addSample(AudioMixer.tone(220, 300, Short.MAX_VALUE / 4));
+        startAudio();
         //init view and listeners
         mGameView = new GameView(this);
         mGameView.getHolder().addCallback(this);
+        mGameView.setCpuOverlayEnabled(CpuAccounting.isEnabled()
+                && getResources().getBoolean(R.bool.cpu_overlay_enabled));
         setContentView(mGameView);
-        mController = new GameController(mGameView, mGame);
+        mController = new GameController(mGameView, mGame, mGhostRun);
         //init game loop
-        mLoop = new GameThread(mGameView, mGame);
+        mLoop = new GameThread(mGameView, mGhostRun);
         mLoop.setCallback(this);
         mLoop.start();
         //all ready, reset game state and do the callbacks
@@ -79,7 +154,14 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
     protected void onStop() {
         super.onStop();
         // save high score to file, execute in worker thread
-        new SaveScoreTask(getApplicationContext()).execute(mGame.highScore);
+        new SaveScoreTask(getApplicationContext()).executeOnExecutor(mIoExecutor, mGame.highScore);
+        if (mStatsLoaded) {
+            new SaveStatsTask(getApplicationContext()).executeOnExecutor(mIoExecutor, mStats);
+        }
+        // save the trace of the session, if tracing
+        if (Tracer.isEnabled()) {
+            new SaveTraceTask(getApplicationContext()).executeOnExecutor(mIoExecutor);
+        }
         // pause game
         switch (mGame.getCurrentState()) {
             case CirechGame.MENU_STATE:
@@ -92,6 +174,7 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
             case CirechGame.GAME_OVER_STATE:
                 break;
         }
+        mAudio.shutdown();
         // stop game loop and kill thread
         mLoop.setRunning(false);
         boolean retry = true;
@@ -104,12 +187,33 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
             }
         }
         Log.d(TAG, "game thread stopped");
+        // the mixer takes a single audio thread, wait for the current buffer to be written
+        retry = true;
+        while (retry) {
+            try {
+                mAudio.join();
+                retry = false;
+            } catch (InterruptedException e) {
+                Log.e(TAG, "interrupted");
+            }
+        }
+        Log.d(TAG, "audio thread stopped");
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mWarmUp != null) mWarmUp.cancel();
+        mGame.setDispatcher(null);
+        mDispatcher.shutdown();
     }
 
     @Override
     protected void onRestart() {
         super.onRestart();
-        mLoop = new GameThread(mGameView, mGame);
+        startAudio();
+        mLoop = new GameThread(mGameView, mGhostRun);
+        mLoop.setCallback(this);
         mLoop.start();
     }
 
@@ -150,6 +254,12 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
     public void surfaceCreated(SurfaceHolder holder) {
         mGameView.measure();
         mGameView.setReady(true);
+        if (mWarmUp == null && getResources().getBoolean(R.bool.warmup_enabled)
+                && mGame.getCurrentState() == CirechGame.MENU_STATE) {
+            mWarmUp = new WarmUp(mGameView.offscreenRenderer(), mGame,
+                    getResources().getInteger(R.integer.warmup_ticks));
+            mWarmUp.start();
+        }
     }
 
     @Override
@@ -169,10 +279,14 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
      */
     @Override
     public void stateChanged(int newStatus) {
-        switch (mGame.getCurrentState()) {
+        switch (newStatus) {
             case CirechGame.MENU_STATE:
                 break;
             case CirechGame.PLAY_STATE:
+                if (!mFirstGameCaptured) {
+                    mFirstGameCaptured = true;
+                    mLoop.getGovernor().startCapture();
+                }
                 break;
             case CirechGame.PAUSE_STATE:
                 break;
@@ -181,11 +295,45 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
         }
     }
 
+    /**
+     * Called when a game over is final, a late tap can't undo it anymore.
+     */
+    @Override
+    public void gameEnded(int score, int ticks) {
+        mStats.record(score, ticks);
+        mMixer.play(mGameOverSound, AudioMixer.FULL_VOLUME);
+    }
+
+    /**
+     * Called when the score changes.
+     */
+    @Override
+    public void scoreChanged(int newScore) {
+        if (newScore > 0) mMixer.play(mPassSound, AudioMixer.FULL_VOLUME);
+    }
+
+    /**
+     * Called when the color is switched.
+     */
+    @Override
+    public void colorSwitched(boolean newColor) {
+        mMixer.play(mSwitchSound, AudioMixer.FULL_VOLUME);
+    }
+
+    /**
+     * Starts the audio thread, on an AudioTrack.
+     */
+    private void startAudio() {
+        mAudio = new AudioThread(mMixer, new AudioTrackOutput());
+        mAudio.start();
+    }
+
     /**
      * Things to do when the game loop starts. Executed by the game loop.
      */
     @Override
     public void onStartup() {
+        CpuAccounting.reset();  // a session per run of the game loop
         Log.d(TAG, "game loop started");
     }
 
@@ -194,13 +342,31 @@ public class MainActivity extends Activity implements SurfaceHolder.Callback, Ci
      */
     @Override
     public void onShutdown() {
-        Log.d(TAG, "game loop stopped");
+        Log.d(TAG, "game loop stopped, " + mLoop.getGovernor() + ", "
+                + (mWarmUp != null ? mWarmUp : "no warm-up"));
+        if (CpuAccounting.isEnabled()) Log.d(TAG, CpuAccounting.summary());
     }
 
     public void updateGameHighScore(int newScore) {
         mGame.highScore = newScore;
     }
 
+    /**
+     * @param profile the difficulty profile read from file, used from the next game.
+     */
+    public void updateGameDifficulty(DifficultyProfile profile) {
+        mGame.setDifficulty(profile);
+    }
+
+    /**
+     * @param saved the stats read from file, merged with those of the games played meanwhile.
+     */
+    public void loadStats(GameStats saved) {
+        mStats.merge(saved);
+        mStatsLoaded = true;
+        Log.d(TAG, "stats: " + mStats);
+    }
+
 
 
 }
@@ -0,0 +1,104 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+
+/**
+ * This task reads the difficulty profile and compiles it, without hogging the main UI thread.
+ * The "difficulty" file, if any, replaces the profile shipped in the raw resources, so that
+ * curves can be tried without changing the code.
+ *
+ * @see eu.lucci.cirechclone.DifficultyProfile
+ * @see android.os.AsyncTask
+ */
+public class ReadDifficultyTask extends AsyncTask<Void, Void, DifficultyProfile> {
+
+    /**
+     * Logcat tag for debug.
+     */
+    final static String TAG = "ReadDifficultyTask";
+
+    final static String FILE_NAME = "difficulty";
+
+    WeakReference<MainActivity> weakReference;
+
+    /**
+     * Barriers per lane of the game, to compile the profile for.
+     */
+    final int barriersPerLane;
+
+    public ReadDifficultyTask(MainActivity activity, int barriersPerLane) {
+        this.weakReference = new WeakReference<>(activity);
+        this.barriersPerLane = barriersPerLane;
+    }
+
+    /**
+     * This method performs background operations.
+     *
+     * @param params
+     * @return the profile, null if it cannot be read
+     */
+    @Override
+    protected DifficultyProfile doInBackground(Void... params) {
+        MainActivity activity = weakReference.get();
+        if (activity == null) return null;
+        Context applicationContext = activity.getApplicationContext();
+        InputStream in;
+        try {
+            in = applicationContext.openFileInput(FILE_NAME);
+            Log.d(TAG, "reading the difficulty file");
+        } catch (FileNotFoundException e) {
+            in = applicationContext.getResources().openRawResource(R.raw.difficulty);
+        }
+        DifficultyProfile profile = null;
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            profile = DifficultyProfile.read(reader);
+            reader.close();
+            profile.getTable(barriersPerLane);  // compile it here, not on the game loop
+            Log.d(TAG, "difficulty read successfully: " + profile);
+        } catch (IOException e) {
+            Log.e(TAG, "bad difficulty profile: " + e.getMessage());
+        }
+        return profile;
+    }
+
+    /**
+     * The result of the background computation is passed to this step as a parameter.
+     *
+     * @param profile result of the background computation
+     */
+    @Override
+    protected void onPostExecute(DifficultyProfile profile) {
+        MainActivity activity = weakReference.get();
+        if (activity != null && profile != null) activity.updateGameDifficulty(profile);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+/**
+ * This task reads the game statistics from the "stats" file. The stats are merged into those
+ * of the activity, so games finished while reading are kept.
+ *
+ * @see eu.lucci.cirechclone.SaveStatsTask
+ * @see android.os.AsyncTask
+ */
+public class ReadStatsTask extends AsyncTask<Void, Void, GameStats> {
+
+    /**
+     * Logcat tag for debug.
+     */
+    final static String TAG = "ReadStatsTask";
+
+    WeakReference<MainActivity> weakReference;
+
+    public ReadStatsTask(MainActivity activity) {
+        this.weakReference = new WeakReference<>(activity);
+    }
+
+    /**
+     * This method performs background operations.
+     *
+     * @param params
+     * @return the saved stats, empty if there are none.
+     */
+    @Override
+    protected GameStats doInBackground(Void... params) {
+        MainActivity activity = weakReference.get();
+        if (activity == null) return null;
+        Context applicationContext = activity.getApplicationContext();
+        GameStats stats = new GameStats();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    applicationContext.openFileInput(SaveStatsTask.FILE_NAME)));
+            try {
+                stats = GameStats.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "no stats yet");
+        } catch (IOException e) {
+            Log.e(TAG, "invalid stats file, starting over");
+        }
+        return stats;
+    }
+
+    /**
+     * @param stats result of the background computation
+     */
+    @Override
+    protected void onPostExecute(GameStats stats) {
+        MainActivity activity = weakReference.get();
+        if (activity != null && stats != null) activity.loadStats(stats);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+
+/**
+ * This task writes the game statistics to the "stats" file without hogging the main UI thread.
+ *
+ * @see eu.lucci.cirechclone.ReadStatsTask
+ * @see android.os.AsyncTask
+ */
+public class SaveStatsTask extends AsyncTask<GameStats, Void, Void> {
+
+    /**
+     * Logcat tag for debug.
+     */
+    final static String TAG = "SaveStatsTask";
+
+    final static String FILE_NAME = "stats";
+
+    WeakReference<Context> weakContext;
+
+    public SaveStatsTask(Context applicationContext) {
+        this.weakContext = new WeakReference<>(applicationContext);
+    }
+
+    /**
+     * This method performs background operations.
+     *
+     * @param params the stats to save.
+     * @return result of the background computation
+     */
+    @Override
+    protected Void doInBackground(GameStats... params) {
+        Context applicationContext = weakContext.get();
+        if (applicationContext == null) return null;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    applicationContext.openFileOutput(FILE_NAME, Context.MODE_PRIVATE)));
+            params[0].write(out);
+            out.close();
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "file not found");
+        } catch (IOException e) {
+            Log.e(TAG, "error while writing the stats");
+        }
+        Log.d(TAG, "stats saved successfully");
+        return null;
+    }
+}
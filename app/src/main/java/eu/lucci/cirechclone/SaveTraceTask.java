@@ -0,0 +1,78 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+
+/**
+ * This task writes the recorded trace events to the "trace.json" file, in the Chrome
+ * trace-event format, without hogging the main UI thread.
+ *
+ * @see eu.lucci.cirechclone.Tracer
+ * @see android.os.AsyncTask
+ */
+public class SaveTraceTask extends AsyncTask<Void, Void, Void> {
+
+    /**
+     * Logcat tag for debug.
+     */
+    final static String TAG = "SaveTraceTask";
+
+    final static String FILE_NAME = "trace.json";
+
+    WeakReference<Context> weakContext;
+
+    public SaveTraceTask(Context applicationContext) {
+        this.weakContext = new WeakReference<>(applicationContext);
+    }
+
+    /**
+     * This method performs background operations.
+     *
+     * @param params
+     * @return result of the background computation
+     */
+    @Override
+    protected Void doInBackground(Void... params) {
+        Context applicationContext = weakContext.get();
+        if (applicationContext == null) return null;
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    applicationContext.openFileOutput(FILE_NAME, Context.MODE_PRIVATE), "UTF-8"));
+            Tracer.dump(out);
+            out.close();
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "file not found");
+        } catch (IOException e) {
+            Log.e(TAG, "error while writing the trace");
+        }
+        Log.d(TAG, "trace saved successfully");
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Forwards the Tracer sections to android.os.Trace, to see them in systrace.
+ * Requires Android 4.3.
+ *
+ * @see eu.lucci.cirechclone.Tracer#setForwarder(Tracer.Forwarder)
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class SystraceForwarder implements Tracer.Forwarder {
+
+    @Override
+    public void begin(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void end() {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The recorded corpus of the fixed-point conformance test: fixed-point replays, each followed
+ * by the score, the ticks and a hash of the final state of the game that played it.
+ * Recordings made on a device can be appended to it, a run of the test on the JVM then proves
+ * that both give the same results.
+ * Run it with: java eu.lucci.cirechclone.ConformanceCorpus file [runs]
+ *
+ * @see eu.lucci.cirechclone.FixedPointConformanceTest
+ */
+public class ConformanceCorpus {
+
+    static final String RESOURCE = "/corpus/fixed-point.bin";
+
+    /**
+     * Long enough to get to the high speeds.
+     */
+    private static final int MAX_TICKS = 60 * 60 * 10;
+
+    /**
+     * The result of a recorded game.
+     */
+    static class Entry {
+        final Replay replay;
+        final int score;
+        final int ticks;
+        final int stateHash;
+
+        Entry(Replay replay, int score, int ticks, int stateHash) {
+            this.replay = replay;
+            this.score = score;
+            this.ticks = ticks;
+            this.stateHash = stateHash;
+        }
+
+        static Entry read(DataInput in) throws IOException {
+            return new Entry(Replay.read(in), in.readInt(), in.readInt(), in.readInt());
+        }
+
+        void write(DataOutput out) throws IOException {
+            replay.write(out);
+            out.writeInt(score);
+            out.writeInt(ticks);
+            out.writeInt(stateHash);
+        }
+    }
+
+    /**
+     * @param game a game.
+     * @return a hash of everything the next tick of the game depends on.
+     */
+    static int stateHash(CirechGame game) {
+        int h = game.getCurrentState();
+        h = 31 * h + game.score;
+        h = 31 * h + game.getTick();
+        h = 31 * h + (game.currentColor ? 1 : 0);
+        for (int lane = 0; lane < game.getLanes(); lane++) {
+            for (int rank = 0; rank < game.getBarriersPerLane(); rank++) {
+                Barrier b = game.barriers[game.barrierIndex(lane, rank)];
+                h = 31 * h + b.fixedPosition;
+                h = 31 * h + (b.color ? 1 : 0);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Plays a replay to its end.
+     *
+     * @param replay a fixed-point replay.
+     * @return the result of the game.
+     */
+    static Entry play(Replay replay) {
+        ReplayPlayer player = new ReplayPlayer(replay);
+        player.playToEnd();
+        CirechGame game = player.getGame();
+        return new Entry(replay, game.score, game.getTick(), stateHash(game));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(args[0]));
+        out.writeInt(runs);
+        CirechGame game = new CirechGame(true);
+        for (int i = 0; i < runs; i++) {
+            // from games lost early to games lost at high speed
+            Autopilot bot = new Autopilot(i, 0.2f / (i + 1));
+            play(bot.play(game, 0x5EED0000L + i, MAX_TICKS)).write(out);
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays the recorded corpus of fixed-point games again: every game must end with the recorded
+ * score, ticks and final state.
+ *
+ * @see eu.lucci.cirechclone.ConformanceCorpus
+ */
+public class FixedPointConformanceTest {
+
+    private static List<ConformanceCorpus.Entry> readCorpus() throws IOException {
+        InputStream stream = FixedPointConformanceTest.class
+                .getResourceAsStream(ConformanceCorpus.RESOURCE);
+        assertTrue("corpus not found", stream != null);
+        DataInputStream in = new DataInputStream(stream);
+        try {
+            int count = in.readInt();
+            List<ConformanceCorpus.Entry> corpus = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) corpus.add(ConformanceCorpus.Entry.read(in));
+            return corpus;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void corpusPlaysTheSame() throws IOException {
+        List<ConformanceCorpus.Entry> corpus = readCorpus();
+        assertTrue("empty corpus", !corpus.isEmpty());
+        for (int i = 0; i < corpus.size(); i++) {
+            ConformanceCorpus.Entry recorded = corpus.get(i);
+            assertTrue("not a fixed-point replay: " + i, recorded.replay.isFixedPoint());
+            ConformanceCorpus.Entry played = ConformanceCorpus.play(recorded.replay);
+            assertEquals("score of game " + i, recorded.score, played.score);
+            assertEquals("ticks of game " + i, recorded.ticks, played.ticks);
+            assertEquals("state of game " + i, recorded.stateHash, played.stateHash);
+        }
+    }
+
+    @Test
+    public void replayHeadersMatchTheGames() throws IOException {
+        for (ConformanceCorpus.Entry recorded : readCorpus()) {
+            assertEquals(recorded.replay.getScore(), recorded.score);
+            assertEquals(recorded.replay.getTicks(), recorded.ticks);
+        }
+    }
+
+    @Test
+    public void corpusReachesHighSpeeds() throws IOException {
+        int best = 0;
+        for (ConformanceCorpus.Entry recorded : readCorpus()) best = Math.max(best, recorded.score);
+        assertTrue("the corpus only covers low speeds: " + best, best >= 100);
+    }
+}
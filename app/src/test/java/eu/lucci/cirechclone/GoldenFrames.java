@@ -0,0 +1,117 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The scenes of the SoftwareRenderer golden-image test, and the tool that records their
+ * reference frames. Every scene is a fixed-point game played by the Autopilot from a fixed
+ * seed, so that it is the same on every JVM.
+ * Run it with: java eu.lucci.cirechclone.GoldenFrames directory
+ *
+ * @see eu.lucci.cirechclone.SoftwareRendererGoldenTest
+ */
+public class GoldenFrames {
+
+    static final String RESOURCES = "/golden/";
+
+    static final int WIDTH = 240;
+
+    static final int HEIGHT = 400;
+
+    static final int BACKGROUND = 0xFF000000;
+
+    static final int COLOR0 = 0xFFE53935;
+
+    static final int COLOR1 = 0xFF1E88E5;
+
+    static final String[] SCENES = {"menu", "play", "pause", "game_over", "ghost", "lanes"};
+
+    private static final long SEED = 0x601DL;
+
+    /**
+     * Renders a scene.
+     *
+     * @param scene one of SCENES.
+     * @return the frame, ARGB.
+     */
+    static int[] render(String scene) {
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT, BACKGROUND, COLOR0, COLOR1);
+        CirechGame game = new CirechGame(true);
+        game.highScore = 1234;
+        switch (scene) {
+            case "menu":
+                game.reset(SEED);
+                game.setCurrentState(CirechGame.MENU_STATE);
+                renderer.renderGame(game);
+                break;
+            case "play":
+                play(game, 0, 900);
+                renderer.renderGame(game);
+                break;
+            case "pause":
+                play(game, 0, 900);
+                game.setCurrentState(CirechGame.PAUSE_STATE);
+                renderer.renderGame(game);
+                break;
+            case "game_over":
+                play(game, 1, 100000);
+                renderer.renderGame(game);
+                break;
+            case "ghost":
+                CirechGame ghost = new CirechGame(true);
+                play(game, 0, 900);
+                play(ghost, 0, 870);
+                renderer.renderGame(game, new GameEngine[]{ghost});
+                break;
+            case "lanes":
+                game = new CirechGame(true, 4, 3);
+                play(game, 0, 300);
+                renderer.renderGame(game);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown scene " + scene);
+        }
+        return renderer.getPixels().clone();
+    }
+
+    private static void play(CirechGame game, float missRate, int ticks) {
+        new Autopilot(SEED, missRate).play(game, SEED, ticks);
+    }
+
+    static BufferedImage toImage(int[] frame) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, WIDTH, HEIGHT, frame, 0, WIDTH);
+        return image;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args[0]);
+        for (String scene : SCENES) {
+            ImageIO.write(toImage(render(scene)), "png", new File(directory, scene + ".png"));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LeaderboardTest {
+
+    @Test
+    public void ranksAndQueries() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.insert("a", 10);
+        leaderboard.insert("b", 30);
+        leaderboard.insert("c", 20);
+        leaderboard.insert("d", 20);
+        assertEquals(1, leaderboard.rankOf(30));
+        assertEquals(2, leaderboard.rankOf(20));
+        assertEquals(4, leaderboard.rankOf(10));
+        assertEquals(5, leaderboard.rankOf(0));
+        List<Leaderboard.Entry> top = leaderboard.top(3);
+        assertEquals("b", top.get(0).player);
+        assertEquals("c", top.get(1).player);
+        assertEquals("d", top.get(2).player);
+        List<Leaderboard.Entry> around = leaderboard.around(10, 1);
+        assertEquals(2, around.size());
+        assertEquals("d", around.get(0).player);
+        assertEquals("a", around.get(1).player);
+    }
+
+    @Test
+    public void highestScoreGrowsTheTree() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.insert("a", 5);
+        leaderboard.insert("b", Leaderboard.MAX_SCORE);
+        assertEquals(1, leaderboard.rankOf(Leaderboard.MAX_SCORE));
+        assertEquals(2, leaderboard.rankOf(5));
+        assertEquals("b", leaderboard.top(1).get(0).player);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scoresAboveTheMaximumAreRejected() {
+        new Leaderboard().insert("a", 1 << 30);
+    }
+}
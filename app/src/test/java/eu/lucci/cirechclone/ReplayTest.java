@@ -0,0 +1,133 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ReplayTest {
+
+    private static final int MAX_TICKS = GameThread.PREFERRED_FPS * 60 * 60;
+
+    private static byte[] write(Replay replay) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        replay.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] header(int ticks, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(2);
+        out.writeLong(42);
+        out.writeBoolean(true);
+        out.writeInt(DifficultyProfile.DEFAULT.getId());
+        out.writeInt(0);
+        out.writeInt(ticks);
+        out.writeInt(count);
+        return bytes.toByteArray();
+    }
+
+    private static Replay read(byte[] data, int maxTicks) throws IOException {
+        return Replay.read(new DataInputStream(new ByteArrayInputStream(data)), maxTicks,
+                data.length);
+    }
+
+    private static void assertRejected(byte[] data, int maxTicks) {
+        try {
+            read(data, maxTicks);
+            fail("replay accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Replay replay = new Replay(7, true, 1234, new int[]{3, 3, 90, 1000}, 12, 1200);
+        Replay read = read(write(replay), MAX_TICKS);
+        assertEquals(7, read.getSeed());
+        assertEquals(1234, read.getProfileId());
+        assertEquals(12, read.getScore());
+        assertEquals(1200, read.getTicks());
+        assertArrayEquals(replay.getInputs(), read.getInputs());
+    }
+
+    @Test
+    public void firstVersionIsReadWithTheDefaultProfile() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeLong(42);
+        out.writeBoolean(true);
+        out.writeInt(3);
+        out.writeInt(100);
+        out.writeInt(2);
+        out.writeByte(10);
+        out.writeByte(5);
+        Replay read = read(bytes.toByteArray(), MAX_TICKS);
+        assertEquals(DifficultyProfile.DEFAULT.getId(), read.getProfileId());
+        assertEquals(3, read.getScore());
+        assertArrayEquals(new int[]{10, 15}, read.getInputs());
+    }
+
+    @Test
+    public void manyInputsGrowTheArray() throws IOException {
+        int[] inputs = new int[1000];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = i;
+        Replay read = read(write(new Replay(1, true, inputs, 0, 1000)), MAX_TICKS);
+        assertArrayEquals(inputs, read.getInputs());
+    }
+
+    @Test
+    public void tooLongIsRejectedFromTheHeader() throws IOException {
+        assertRejected(header(MAX_TICKS + 1, 0), MAX_TICKS);
+    }
+
+    @Test
+    public void inputsBeyondTheBodyAreRejected() throws IOException {
+        // a header claiming the most inputs the ticks allow, with no inputs after it
+        assertRejected(header(MAX_TICKS, 2 * MAX_TICKS),
+                MAX_TICKS);
+    }
+
+    @Test
+    public void truncatedInputsAreRejected() throws IOException {
+        byte[] data = write(new Replay(1, true, new int[]{1, 2, 3}, 0, 10));
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        try {
+            Replay.read(new DataInputStream(new ByteArrayInputStream(truncated)));
+            fail("replay accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the frames of SoftwareRenderer with the reference frames in golden/, pixel by pixel.
+ * A frame that differs is written to build/golden/ to be looked at; if the change is wanted,
+ * record the reference frames again with GoldenFrames.
+ *
+ * @see eu.lucci.cirechclone.GoldenFrames
+ */
+public class SoftwareRendererGoldenTest {
+
+    private static void check(String scene) throws IOException {
+        InputStream in = SoftwareRendererGoldenTest.class
+                .getResourceAsStream(GoldenFrames.RESOURCES + scene + ".png");
+        assertTrue("no reference frame for " + scene, in != null);
+        BufferedImage reference;
+        try {
+            reference = ImageIO.read(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(GoldenFrames.WIDTH, reference.getWidth());
+        assertEquals(GoldenFrames.HEIGHT, reference.getHeight());
+        int[] expected = reference.getRGB(0, 0, GoldenFrames.WIDTH, GoldenFrames.HEIGHT, null, 0,
+                GoldenFrames.WIDTH);
+        int[] actual = GoldenFrames.render(scene);
+        int differences = 0;
+        int first = -1;
+        for (int i = 0; i < actual.length; i++) {
+            if (actual[i] != expected[i]) {
+                if (first < 0) first = i;
+                differences++;
+            }
+        }
+        if (differences > 0) {
+            File directory = new File("build/golden");
+            directory.mkdirs();
+            ImageIO.write(GoldenFrames.toImage(actual), "png", new File(directory, scene + ".png"));
+            fail(scene + ": " + differences + " pixels differ, the first at ("
+                    + first % GoldenFrames.WIDTH + ", " + first / GoldenFrames.WIDTH + ")");
+        }
+    }
+
+    @Test
+    public void menu() throws IOException {
+        check("menu");
+    }
+
+    @Test
+    public void play() throws IOException {
+        check("play");
+    }
+
+    @Test
+    public void pause() throws IOException {
+        check("pause");
+    }
+
+    @Test
+    public void gameOver() throws IOException {
+        check("game_over");
+    }
+
+    @Test
+    public void ghost() throws IOException {
+        check("ghost");
+    }
+
+    @Test
+    public void lanes() throws IOException {
+        check("lanes");
+    }
+}
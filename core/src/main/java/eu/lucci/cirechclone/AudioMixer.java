@@ -0,0 +1,278 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Software mixer of short sound cues. Samples are mono 16 bit PCM at SAMPLE_RATE, loaded
+ * before the audio starts. Any thread can ask to play a sample: the request goes into a
+ * bounded lock-free queue (Vyukov's, many producers and one consumer) that never blocks, and
+ * is dropped if the queue is full. The audio thread drains the queue at the start of every
+ * buffer and mixes the playing voices into it, without allocating. When every voice is busy,
+ * the one nearest to its end is stolen.
+ * Pure Java, the output is given by an AudioOutput.
+ */
+public class AudioMixer {
+
+    public static final int SAMPLE_RATE = 22050;
+
+    /**
+     * Full volume, volumes are in [0, FULL_VOLUME].
+     */
+    public static final int FULL_VOLUME = 256;
+
+    private static final int MAX_VOICES = 8;
+
+    private static final int QUEUE_CAPACITY = 256;     // must be a power of two
+
+    private static final int QUEUE_MASK = QUEUE_CAPACITY - 1;
+
+    // Commands, as (op << 56 | sample << 16 | volume)
+    private static final int PLAY = 1;
+    private static final int STOP_ALL = 2;
+    private static final int MASTER_VOLUME = 3;
+
+    private volatile short[][] samples = new short[0][];
+
+    // voices, audio thread only
+    private final short[][] voiceSamples = new short[MAX_VOICES][];
+    private final int[] voicePositions = new int[MAX_VOICES];
+    private final int[] voiceVolumes = new int[MAX_VOICES];
+    private int masterVolume = FULL_VOLUME;
+
+    private int[] accumulator = new int[0];
+
+    // command queue
+    private final long[] commands = new long[QUEUE_CAPACITY];
+
+    /**
+     * For each cell, the position of the command it can take next, or the position + 1 of the
+     * command it holds.
+     */
+    private final AtomicLongArray sequences = new AtomicLongArray(QUEUE_CAPACITY);
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    /**
+     * Next command to read, audio thread only.
+     */
+    private long dequeued;
+
+    // stats
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile long mixedFrames;
+
+    private volatile long stolenVoices;
+
+    private volatile int peakVoices;
+
+    public AudioMixer() {
+        for (int i = 0; i < QUEUE_CAPACITY; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Loads a sample. Better called before the audio starts, it allocates.
+     *
+     * @param pcm mono 16 bit samples at SAMPLE_RATE, not copied.
+     * @return the id of the sample.
+     */
+    public synchronized int addSample(short[] pcm) {
+        short[][] newSamples = Arrays.copyOf(samples, samples.length + 1);
+        newSamples[samples.length] = pcm;
+        samples = newSamples;
+        return samples.length - 1;
+    }
+
+    /**
+     * Plays a sample from its start. Can be called from any thread, never blocks.
+     *
+     * @param sample the id given by addSample().
+     * @param volume the volume, in [0, FULL_VOLUME].
+     * @return false if the queue is full and the request was dropped.
+     */
+    public boolean play(int sample, int volume) {
+        return offer((long) PLAY << 56 | (long) sample << 16 | (volume & 0xFFFF));
+    }
+
+    /**
+     * Stops every voice. Can be called from any thread, never blocks.
+     *
+     * @return false if the queue is full and the request was dropped.
+     */
+    public boolean stopAll() {
+        return offer((long) STOP_ALL << 56);
+    }
+
+    /**
+     * @param volume the volume applied to the mix, in [0, FULL_VOLUME].
+     * @return false if the queue is full and the request was dropped.
+     */
+    public boolean setMasterVolume(int volume) {
+        return offer((long) MASTER_VOLUME << 56 | (volume & 0xFFFF));
+    }
+
+    private boolean offer(long command) {
+        long position = enqueued.get();
+        while (true) {
+            int i = (int) position & QUEUE_MASK;
+            long difference = sequences.get(i) - position;
+            if (difference == 0) {
+                if (enqueued.compareAndSet(position, position + 1)) {
+                    commands[i] = command;
+                    sequences.lazySet(i, position + 1);    // publish
+                    return true;
+                }
+                position = enqueued.get();
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = enqueued.get();
+            }
+        }
+    }
+
+    /**
+     * Mixes the next frames. Audio thread only.
+     *
+     * @param out    the buffer to fill.
+     * @param frames number of frames to mix, at most out.length.
+     */
+    public void mix(short[] out, int frames) {
+        if (accumulator.length < frames) accumulator = new int[frames];   // first buffer only
+        drainCommands();
+        int[] acc = accumulator;
+        Arrays.fill(acc, 0, frames, 0);
+        int playing = 0;
+        for (int v = 0; v < MAX_VOICES; v++) {
+            short[] pcm = voiceSamples[v];
+            if (pcm == null) continue;
+            playing++;
+            int position = voicePositions[v];
+            int volume = voiceVolumes[v];
+            int n = Math.min(frames, pcm.length - position);
+            for (int j = 0; j < n; j++) acc[j] += pcm[position + j] * volume;
+            position += n;
+            if (position >= pcm.length) voiceSamples[v] = null;
+            else voicePositions[v] = position;
+        }
+        int master = masterVolume;
+        for (int j = 0; j < frames; j++) {
+            // volumes are 8 bit fractions, drop both
+            int s = (int) ((long) acc[j] * master >> 16);
+            out[j] = (short) (s > Short.MAX_VALUE ? Short.MAX_VALUE
+                    : s < Short.MIN_VALUE ? Short.MIN_VALUE : s);
+        }
+        if (playing > peakVoices) peakVoices = playing;
+        mixedFrames += frames;
+    }
+
+    private void drainCommands() {
+        short[][] loaded = samples;
+        while (true) {
+            int i = (int) dequeued & QUEUE_MASK;
+            if (sequences.get(i) != dequeued + 1) return;
+            long command = commands[i];
+            sequences.lazySet(i, dequeued + QUEUE_CAPACITY);   // free the cell
+            dequeued++;
+            switch ((int) (command >>> 56)) {
+                case PLAY:
+                    int sample = (int) (command >>> 16) & 0xFFFF;
+                    int volume = Math.min(FULL_VOLUME, (int) command & 0xFFFF);
+                    if (sample < loaded.length) startVoice(loaded[sample], volume);
+                    break;
+                case STOP_ALL:
+                    Arrays.fill(voiceSamples, null);
+                    break;
+                case MASTER_VOLUME:
+                    masterVolume = Math.min(FULL_VOLUME, (int) command & 0xFFFF);
+                    break;
+            }
+        }
+    }
+
+    private void startVoice(short[] pcm, int volume) {
+        int voice = -1;
+        int least = Integer.MAX_VALUE;
+        for (int v = 0; v < MAX_VOICES; v++) {
+            short[] playing = voiceSamples[v];
+            if (playing == null) {
+                voice = v;
+                break;
+            }
+            int left = playing.length - voicePositions[v];
+            if (left < least) {
+                least = left;
+                voice = v;
+            }
+        }
+        if (voiceSamples[voice] != null) stolenVoices++;
+        voiceSamples[voice] = pcm;
+        voicePositions[voice] = 0;
+        voiceVolumes[voice] = volume;
+    }
+
+    /**
+     * @return requests dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getMixedFrames() {
+        return mixedFrames;
+    }
+
+    /**
+     * @return voices cut short to play a new sample.
+     */
+    public long getStolenVoices() {
+        return stolenVoices;
+    }
+
+    /**
+     * @return most voices played in the same buffer.
+     */
+    public int getPeakVoices() {
+        return peakVoices;
+    }
+
+    /**
+     * Synthesizes a cue: a sine wave fading out linearly.
+     *
+     * @param hz     the frequency.
+     * @param millis the duration.
+     * @param volume the peak amplitude, in [0, Short.MAX_VALUE].
+     * @return the samples, for addSample().
+     */
+    public static short[] tone(float hz, int millis, int volume) {
+        short[] pcm = new short[SAMPLE_RATE * millis / 1000];
+        for (int i = 0; i < pcm.length; i++) {
+            float fade = 1f - (float) i / pcm.length;
+            pcm[i] = (short) (Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE) * volume * fade);
+        }
+        return pcm;
+    }
+}
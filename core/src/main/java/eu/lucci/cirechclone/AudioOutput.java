@@ -0,0 +1,42 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.Closeable;
+
+/**
+ * Where the AudioThread writes the mixed buffers: mono 16 bit PCM at AudioMixer.SAMPLE_RATE.
+ */
+public interface AudioOutput extends Closeable {
+
+    /**
+     * @return frames per buffer, the smaller the lower the latency.
+     */
+    int getBufferFrames();
+
+    /**
+     * Writes a buffer, blocking until the device can take it: this paces the audio thread.
+     *
+     * @param buffer the samples.
+     * @param frames number of frames to write.
+     */
+    void write(short[] buffer, int frames);
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+
+/**
+ * Mixes buffer after buffer and writes them to the output, which blocks while the device is
+ * playing the previous ones.
+ */
+public class AudioThread extends Thread {
+
+    private final AudioMixer mixer;
+
+    private final AudioOutput output;
+
+    private final short[] buffer;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param mixer  the mixer.
+     * @param output the output, closed when the thread ends.
+     */
+    public AudioThread(AudioMixer mixer, AudioOutput output) {
+        super("audio");
+        setPriority(MAX_PRIORITY);
+        setDaemon(true);
+        this.mixer = mixer;
+        this.output = output;
+        this.buffer = new short[output.getBufferFrames()];
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long cpu = CpuAccounting.begin();
+                mixer.mix(buffer, buffer.length);
+                output.write(buffer, buffer.length);
+                CpuAccounting.end(CpuAccounting.AUDIO, cpu);
+            }
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Stops the thread after the current buffer, join() it before starting another thread on
+     * the same mixer.
+     */
+    public void shutdown() {
+        running = false;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Random;
+
+/**
+ * A bot that plays CirechGame, used to produce games without a player: load tests,
+ * warm-up, benchmarks. It matches the color of the leading barrier just before it collides,
+ * and sometimes it misses on purpose so that games end.
+ */
+public class Autopilot {
+
+    /**
+     * The bot reacts when the leading barrier is past this fraction of LIMIT.
+     */
+    private static final float REACTION_POSITION = 0.9f * CirechGame.LIMIT;
+
+    private final Random rand;
+
+    /**
+     * Probability of ignoring a barrier.
+     */
+    private final float missRate;
+
+    /**
+     * The barrier the bot decided about, so that it decides once per barrier.
+     */
+    private Barrier decided;
+
+    /**
+     * @param seed     seed of the bot's mistakes.
+     * @param missRate probability of ignoring a barrier, in [0, 1].
+     */
+    public Autopilot(long seed, float missRate) {
+        this.rand = new Random(seed);
+        this.missRate = missRate;
+    }
+
+    /**
+     * Switches the color of the game if needed, watching the first lane. Call it before every
+     * tick.
+     *
+     * @param game the game to play.
+     */
+    public void control(CirechGame game) {
+        if (decide(game)) game.switchColor();
+    }
+
+    /**
+     * Decides whether the color should be switched now, for games whose inputs go through
+     * something else, e.g. a LockstepSession.
+     *
+     * @param game the game to play.
+     * @return true if the color should be switched.
+     */
+    public boolean decide(CirechGame game) {
+        Barrier lead = game.barriers[game.barrierIndex(0, 0)];
+        if (lead.position < REACTION_POSITION || lead == decided) return false;
+        decided = lead;
+        return lead.color != game.currentColor && rand.nextFloat() >= missRate;
+    }
+
+    /**
+     * Plays a whole game headless.
+     *
+     * @param game     the game to play, it is reset with the given seed.
+     * @param seed     the seed of the game.
+     * @param maxTicks the game is stopped after this many ticks.
+     * @return the replay of the game.
+     */
+    public Replay play(CirechGame game, long seed, int maxTicks) {
+        game.reset(seed);
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        decided = null;
+        while (game.getCurrentState() == CirechGame.PLAY_STATE && game.getTick() < maxTicks) {
+            control(game);
+            game.updateGame();
+        }
+        return game.getReplay();
+    }
+}
@@ -29,6 +29,11 @@ public class Barrier {
 
     volatile float position;
 
+    /**
+     * Position in fixed-point, only used by games in fixed-point mode.
+     */
+    int fixedPosition;
+
     public Barrier(boolean color, float position) {
         this.position = position;
         this.color = color;
@@ -44,4 +49,25 @@ public class Barrier {
         position += speed;
     }
 
+    /**
+     * Fixed-point version of move(double), the float position is kept in sync for rendering.
+     * Not an overload of move(), so that an int speed cannot pick the wrong one.
+     *
+     * @param speed the fixed-point distance to add to the position.
+     */
+    public synchronized void moveFixed(int speed) {
+        fixedPosition += speed;
+        position = FixedPoint.toFloat(fixedPosition);
+    }
+
+    /**
+     * Sets the fixed-point position, and the float position accordingly.
+     *
+     * @param fixedPosition the new fixed-point position.
+     */
+    public void setFixedPosition(int fixedPosition) {
+        this.fixedPosition = fixedPosition;
+        this.position = FixedPoint.toFloat(fixedPosition);
+    }
+
 }
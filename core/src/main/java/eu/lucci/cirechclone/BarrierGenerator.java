@@ -0,0 +1,188 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pre-generates barrier spacings and colors ahead of need.
+ * Entries are produced in batches into a ring of packed ints, so the game tick only has to read
+ * an already computed value when a barrier passes. The sequence only depends on the seed, never
+ * on which thread did the filling.
+ * <p>
+ * One thread consumes (the game loop), refills may run on an optional executor.
+ */
+public class BarrierGenerator {
+
+    /**
+     * Spacings are stored as fractions of SPACING_ONE, with the same 24 bits of precision
+     * as Random.nextFloat().
+     */
+    public static final int SPACING_BITS = 24;
+
+    public static final int SPACING_ONE = 1 << SPACING_BITS;
+
+    private static final int SPACING_MASK = SPACING_ONE - 1;
+
+    private static final int COLOR_BIT = 1 << SPACING_BITS;
+
+    private static final int DEFAULT_CAPACITY = 256;   // must be a power of two
+
+    private static final int DEFAULT_BATCH = 64;
+
+    /**
+     * Packed entries: low bits are the spacing fraction, COLOR_BIT is the barrier color.
+     */
+    private final int[] ring;
+
+    private final int mask;
+
+    private final int batchSize;
+
+    /**
+     * When fewer entries than this are left, a refill is requested.
+     */
+    private final int lowWatermark;
+
+    private final Random rand;
+
+    /**
+     * Index of the next entry to read. Written by the consumer only.
+     */
+    private volatile long head;
+
+    /**
+     * Index of the next entry to write. Written by the producer only, under the monitor.
+     */
+    private volatile long tail;
+
+    private Executor executor;
+
+    private final AtomicBoolean refillPending = new AtomicBoolean();
+
+    private final Runnable refillTask = new Runnable() {
+        @Override
+        public void run() {
+            refillPending.set(false);
+            fill();
+        }
+    };
+
+    /**
+     * @param seed the seed of the sequence.
+     */
+    public BarrierGenerator(long seed) {
+        this(seed, DEFAULT_CAPACITY, DEFAULT_BATCH);
+    }
+
+    /**
+     * @param seed      the seed of the sequence.
+     * @param capacity  ring size, must be a power of two.
+     * @param batchSize max number of entries generated by a single refill.
+     */
+    public BarrierGenerator(long seed, int capacity, int batchSize) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        ring = new int[capacity];
+        mask = capacity - 1;
+        this.batchSize = Math.min(batchSize, capacity);
+        lowWatermark = this.batchSize;
+        rand = new Random(seed);
+        fill();
+    }
+
+    /**
+     * Sets the executor that runs refills. If null, refills run on the consumer thread.
+     *
+     * @param executor the refill executor.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Restarts the sequence from the given seed, dropping every pre-generated entry.
+     * Must not be called while the consumer is taking entries.
+     *
+     * @param seed the new seed.
+     */
+    public synchronized void reseed(long seed) {
+        rand.setSeed(seed);
+        head = 0;
+        tail = 0;
+        fill();
+    }
+
+    /**
+     * Takes the next entry of the sequence.
+     *
+     * @return a packed entry, decode it with spacingOf() and colorOf().
+     */
+    public int take() {
+        long h = head;
+        if (h == tail) fill();  // starved, generate in place
+        int entry = ring[(int) h & mask];
+        head = h + 1;
+        if (tail - (h + 1) <= lowWatermark) requestRefill();
+        return entry;
+    }
+
+    /**
+     * @param entry a packed entry.
+     * @return the spacing fraction of the entry, in [0, SPACING_ONE).
+     */
+    public static int spacingOf(int entry) {
+        return entry & SPACING_MASK;
+    }
+
+    /**
+     * @param entry a packed entry.
+     * @return the barrier color of the entry.
+     */
+    public static boolean colorOf(int entry) {
+        return (entry & COLOR_BIT) != 0;
+    }
+
+    private void requestRefill() {
+        Executor e = executor;
+        if (e == null) {
+            fill();
+        } else if (refillPending.compareAndSet(false, true)) {
+            e.execute(refillTask);
+        }
+    }
+
+    /**
+     * Generates up to one batch of entries, without overwriting unread ones.
+     */
+    private synchronized void fill() {
+        long t = tail;
+        int n = (int) Math.min(batchSize, ring.length - (t - head));
+        for (int i = 0; i < n; i++) {
+            int entry = rand.nextInt(SPACING_ONE);
+            if (rand.nextBoolean()) entry |= COLOR_BIT;
+            ring[(int) (t + i) & mask] = entry;
+        }
+        tail = t + n;   // publish
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * A barrier sequence shared by games playing the same seed, e.g. a game and its ghost.
+ * Entries are generated once and kept, each game reads them by sequence number, so the games
+ * don't have to consume at the same pace. The history is reused across games, it only grows
+ * when a game goes further than every previous one.
+ */
+public class BarrierSequence {
+
+    private final BarrierGenerator generator;
+
+    /**
+     * Seed of the entries in the history.
+     */
+    private long seed;
+
+    private int[] entries = new int[256];
+
+    /**
+     * Number of entries generated from the seed.
+     */
+    private int length;
+
+    /**
+     * @param seed the seed of the sequence.
+     */
+    public BarrierSequence(long seed) {
+        this.seed = seed;
+        generator = new BarrierGenerator(seed);
+    }
+
+    /**
+     * @see BarrierGenerator#setExecutor(Executor)
+     */
+    public void setExecutor(Executor executor) {
+        generator.setExecutor(executor);
+    }
+
+    /**
+     * Restarts the sequence from the given seed. If the seed is the current one the history
+     * is kept, so that other games reading it are not affected.
+     *
+     * @param seed the seed.
+     */
+    public synchronized void reseed(long seed) {
+        if (seed == this.seed) return;
+        this.seed = seed;
+        generator.reseed(seed);
+        length = 0;
+    }
+
+    /**
+     * @param index the sequence number of the entry.
+     * @return the packed entry, see BarrierGenerator.
+     */
+    public synchronized int get(int index) {
+        while (length <= index) {
+            if (length == entries.length) entries = Arrays.copyOf(entries, length * 2);
+            entries[length++] = generator.take();
+        }
+        return entries[index];
+    }
+}
@@ -0,0 +1,1185 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * This is a game about fast response and reflexes. Basically, Some random coloured rectangles (we
+ * can call them barriers) move toward the 'cirech' and you have to match their color before they
+ * collide.
+ * The game handles various states,
+ * MODEL.
+ * Created by Gabriele Lucci on 31/07/14.
+ * Project: Cirech Clone
+ */
+public class CirechGame implements GameEngine {
+
+    // Game states
+    /**
+     * Game is "menu" state.
+     */
+    public static final int MENU_STATE = 0;
+
+    /**
+     * Game is in play state. When in this state, the game updates.
+     */
+    public static final int PLAY_STATE = 1;
+
+    /**
+     * Game is paused, values are saved and not updated until play state is triggered again.
+     */
+    public static final int PAUSE_STATE = 2;
+
+    /**
+     * Game is over. show some kind of splash screen.
+     */
+    public static final int GAME_OVER_STATE = 3;
+
+    // Game parameters, they tweak game mechanics.
+    /**
+     * Barriers start from position 0 and collide when they reach the limit.
+     */
+    public static final float LIMIT = 1f;   // should be 1.
+
+    private static final float K = 0.5f;    // base speed multipliers (default: 0.5)
+
+    static final float BASE_SPEED = K / (float) GameThread.PREFERRED_FPS;
+
+    private static final int NUMBER_OF_BARRIERS = 3;    //(default: 3)
+
+    // Fixed-point versions of the parameters above, used in fixed-point mode.
+    /**
+     * LIMIT in fixed-point.
+     */
+    public static final int LIMIT_FX = FixedPoint.ONE;
+
+    static final int BASE_SPEED_FX = FixedPoint.ONE / 2 / GameThread.PREFERRED_FPS;
+
+    /**
+     * How many ticks a late input can rewind the game, at most.
+     */
+    public static final int ROLLBACK_TICKS = 6;
+
+    private static final int SNAPSHOTS = 8;     // power of two, more than ROLLBACK_TICKS
+
+    // Timed events, see scheduleEvent().
+    /**
+     * Barriers move at half speed for data ticks.
+     */
+    public static final int SLOW_MOTION_EVENT = 0;
+
+    /**
+     * Barriers move half as fast again for data ticks.
+     */
+    public static final int SPEED_BURST_EVENT = 1;
+
+    /**
+     * Ends a slow motion or a speed burst.
+     */
+    private static final int SPEED_RESTORE_EVENT = 2;
+
+    /**
+     * Events of this type and above are passed to the timed event listener.
+     */
+    public static final int CUSTOM_EVENT = 16;
+
+    private static final int MAX_TIMED_EVENTS = 64;
+
+    private static final int NORMAL_SPEED = 100;    // percent
+
+    // Particle effects, see setParticles().
+    private static final int PASS_PARTICLES = 24;
+    private static final float PASS_PARTICLE_SPEED = 0.01f;
+    private static final int PASS_PARTICLE_TICKS = 30;
+    private static final int GAME_OVER_PARTICLES = 300;
+    private static final float GAME_OVER_PARTICLE_SPEED = 0.02f;
+    private static final int GAME_OVER_PARTICLE_TICKS = 90;
+
+    // Game values.
+    /**
+     * Current game color.
+     */
+    volatile boolean currentColor;    // current game color
+
+    /**
+     * Barriers of all the lanes, lane by lane. In each lane barriers are a ring sorted by
+     * position: from the front barrier, each barrier is behind the previous one.
+     */
+    volatile Barrier[] barriers;
+
+    /**
+     * For each lane, the index in the lane of the front barrier, the one nearest to LIMIT.
+     */
+    private int[] leads;
+
+    /**
+     * Current game score.
+     */
+    volatile int score;
+
+    /**
+     * High score.
+     */
+    int highScore;
+
+    /**
+     * Current game state.
+     */
+    private int currentState;
+
+    /**
+     * Holds the current barrier speed.
+     */
+    private float barrierSpeed;
+
+    /**
+     * Holds the current barrier speed in fixed-point.
+     */
+    private int barrierSpeedFx;
+
+    /**
+     * If true positions, speeds and LIMIT are integers, so that the game gives the same results
+     * on every device.
+     */
+    private final boolean fixedPoint;
+
+    /**
+     * Number of lanes, each with its own barriers. The game has one lane.
+     */
+    private final int lanes;
+
+    private final int barriersPerLane;
+
+    /**
+     * Speeds, spacings and colors by score, compiled from the difficulty profile.
+     */
+    private DifficultyProfile.Table difficulty;
+
+    /**
+     * Tables of the profile to use from the next reset, null if unchanged.
+     */
+    private DifficultyProfile.Table nextDifficulty;
+
+    /**
+     * Source of the per-game seeds.
+     */
+    private Random seeds;
+
+    /**
+     * Seed of the current game.
+     */
+    private long seed;
+
+    /**
+     * Pre-generated barrier spacings and colors for the current game.
+     */
+    private BarrierGenerator generator;
+
+    /**
+     * If set, barriers are read from this sequence instead of the generator.
+     */
+    private BarrierSequence sharedBarriers;
+
+    /**
+     * Sequence number of the next entry the game reads.
+     */
+    private int entryCursor;
+
+    /**
+     * Number of entries taken from the generator, more than entryCursor while re-simulating.
+     */
+    private int entriesTaken;
+
+    /**
+     * The last entries taken from the generator, kept to re-simulate after a rollback.
+     * Null if rollback is disabled.
+     */
+    private int[] takenEntries;
+
+    /**
+     * Snapshots of the last ticks, taken before their update. Null if rollback is disabled.
+     */
+    private Snapshot[] snapshots;
+
+    /**
+     * System.nanoTime() at the update of each snapshot tick.
+     */
+    private long[] tickTimes;
+
+    /**
+     * True while re-simulating after a rollback, events are notified at the end.
+     */
+    private boolean resimulating;
+
+    /**
+     * False while the last game over can still be undone by a rollback.
+     */
+    private boolean gameEnded = true;
+
+    /**
+     * Updates since the last game over.
+     */
+    private int gameOverUpdates;
+
+    /**
+     * Pending timed events, null if disabled.
+     */
+    private TimingWheel timers;
+
+    /**
+     * Barrier speed in percent of the speed for the score, changed by timed events.
+     */
+    private int speedPercent = NORMAL_SPEED;
+
+    /**
+     * Handle of the event ending the current speed change, -1 if none.
+     */
+    private int speedRestore = -1;
+
+    private volatile TimingWheel.Listener timedEventListener;
+
+    /**
+     * Applies the built-in timed events, passes on the custom ones.
+     */
+    private final TimingWheel.Listener timedEvents = new TimingWheel.Listener() {
+        @Override
+        public void onEvent(int at, int type, int data) {
+            switch (type) {
+                case SLOW_MOTION_EVENT:
+                    changeSpeed(NORMAL_SPEED / 2, data);
+                    break;
+                case SPEED_BURST_EVENT:
+                    changeSpeed(NORMAL_SPEED * 3 / 2, data);
+                    break;
+                case SPEED_RESTORE_EVENT:
+                    speedPercent = NORMAL_SPEED;
+                    speedRestore = -1;
+                    updateSpeed();
+                    break;
+                default:
+                    TimingWheel.Listener listener = timedEventListener;
+                    if (type >= CUSTOM_EVENT && listener != null && !resimulating) {
+                        listener.onEvent(at, type, data);
+                    }
+            }
+        }
+    };
+
+    /**
+     * Effects of the barrier passes and of the game over, null if disabled.
+     */
+    private ParticleSystem particles;
+
+    /**
+     * Number of ticks played in the current game.
+     */
+    private int tick;
+
+    /**
+     * Ticks at which the color was switched in the current game, the first inputCount are valid.
+     */
+    private int[] inputs = new int[64];
+
+    private int inputCount;
+
+    /**
+     * Implemented callbacks for this game. The array is replaced, never modified, so it can be
+     * iterated without locking.
+     */
+    volatile Callback[] callbacks = new Callback[0];
+
+    /**
+     * If set, callbacks are called by the dispatcher thread instead of the thread changing
+     * the game.
+     */
+    private volatile EventDispatcher dispatcher;
+
+    /**
+     * Default constructor.
+     */
+    public CirechGame() {
+        this(false);
+    }
+
+    /**
+     * @param fixedPoint true to simulate the game in fixed-point.
+     */
+    public CirechGame(boolean fixedPoint) {
+        this(fixedPoint, 1, NUMBER_OF_BARRIERS);
+    }
+
+    /**
+     * Creates a game with more lanes or more barriers, mainly to stress the engine and the
+     * renderers.
+     *
+     * @param fixedPoint      true to simulate the game in fixed-point.
+     * @param lanes           number of lanes.
+     * @param barriersPerLane number of barriers in each lane.
+     */
+    public CirechGame(boolean fixedPoint, int lanes, int barriersPerLane) {
+        if (lanes < 1 || barriersPerLane < 1) {
+            throw new IllegalArgumentException("at least a lane with a barrier is needed");
+        }
+        this.fixedPoint = fixedPoint;
+        this.lanes = lanes;
+        this.barriersPerLane = barriersPerLane;
+        init();
+        reset();
+    }
+
+    /**
+     * @param callback
+     */
+    public CirechGame(Callback callback) {
+        fixedPoint = false;
+        lanes = 1;
+        barriersPerLane = NUMBER_OF_BARRIERS;
+        init();
+        setCallback(callback);
+        reset();
+    }
+
+    /**
+     * Utility method for initializing important things.
+     * Should be called once and in constructors methods.
+     */
+    private void init() {
+        seeds = new Random(System.nanoTime());
+        generator = new BarrierGenerator(seeds.nextLong());
+        difficulty = DifficultyProfile.DEFAULT.getTable(barriersPerLane);
+        barriers = new Barrier[lanes * barriersPerLane];
+        leads = new int[lanes];
+        setCurrentState(MENU_STATE);
+    }
+
+    /**
+     * Resets the game. Called every time you start a new game.
+     */
+    public void reset() {
+        reset(seeds.nextLong());
+    }
+
+    /**
+     * Resets the game, the barrier sequence is generated from the given seed.
+     *
+     * @param seed the seed of the new game.
+     */
+    public synchronized void reset(long seed) {
+        if (currentState == GAME_OVER_STATE) endGame();
+        this.seed = seed;
+        if (sharedBarriers != null) sharedBarriers.reseed(seed);
+        else generator.reseed(seed);
+        entryCursor = 0;
+        entriesTaken = 0;
+        if (snapshots != null) {
+            for (Snapshot snapshot : snapshots) snapshot.tick = -1;
+        }
+        score = 0;      //reset the score
+        tick = 0;
+        inputCount = 0;
+        if (timers != null) timers.reset(-1);
+        if (particles != null) particles.clear();
+        if (nextDifficulty != null) {
+            difficulty = nextDifficulty;
+            nextDifficulty = null;
+        }
+        speedPercent = NORMAL_SPEED;
+        speedRestore = -1;
+        updateSpeed();  //update the speed according to the initial score
+        currentColor = false;
+        generateBarriers();
+        notifyEvent(EventDispatcher.SCORE_CHANGED, score);
+    }
+
+    /**
+     * @return the seed of the current game.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the executor used to pre-generate barriers off the game loop.
+     *
+     * @param executor the executor, or null to generate on the game loop.
+     */
+    public void setGeneratorExecutor(Executor executor) {
+        generator.setExecutor(executor);
+    }
+
+    /**
+     * Makes the game read its barriers from a sequence shared with other games, which is
+     * cheaper when they play the same seed. The game is reset with its current seed.
+     *
+     * @param sequence the shared sequence, or null to use the game own generator.
+     */
+    synchronized void shareBarriers(BarrierSequence sequence) {
+        sharedBarriers = sequence;
+        reset(seed);
+    }
+
+    /**
+     * @return the next entry of the barrier sequence.
+     */
+    private int nextEntry() {
+        if (sharedBarriers != null) return sharedBarriers.get(entryCursor++);
+        if (entryCursor < entriesTaken) {   // re-simulating, the entry was already taken
+            return takenEntries[entryCursor++ & (takenEntries.length - 1)];
+        }
+        int entry = generator.take();
+        if (takenEntries != null) takenEntries[entriesTaken & (takenEntries.length - 1)] = entry;
+        entriesTaken++;
+        entryCursor++;
+        return entry;
+    }
+
+    /**
+     * Enables the rollback of late inputs, see switchColorAt(). When enabled, a snapshot of
+     * the game is taken before every tick.
+     *
+     * @param enabled true to enable rollback.
+     */
+    public synchronized void setRollbackEnabled(boolean enabled) {
+        if (!enabled) {
+            snapshots = null;
+            tickTimes = null;
+            takenEntries = null;
+            return;
+        }
+        if (snapshots != null) return;
+        snapshots = new Snapshot[SNAPSHOTS];
+        for (int i = 0; i < SNAPSHOTS; i++) snapshots[i] = new Snapshot(lanes, barriers.length);
+        tickTimes = new long[SNAPSHOTS];
+        // a tick takes at most one entry per barrier
+        takenEntries = new int[Integer.highestOneBit(SNAPSHOTS * barriers.length) * 2];
+        entriesTaken = entryCursor;
+    }
+
+    /**
+     * Switches the color as if the input had been handled at the given time.
+     * If ticks were updated after that time, the game is rewound to the first of them (at
+     * most ROLLBACK_TICKS), the switch is applied there and the game is re-simulated up to
+     * the current tick. So a tap that reaches the game just after a tick still counts for the
+     * collisions of that tick, and can even undo a game over.
+     * Without rollback, or for an input in time, it is the same as switchColor().
+     *
+     * @param eventNanos time of the input, on the System.nanoTime() clock.
+     * @return false if the game is not played and the input is too late to change that.
+     */
+    public synchronized boolean switchColorAt(long eventNanos) {
+        int from = rollbackTick(eventNanos);
+        if (from >= 0) {
+            rollback(from);
+            notifyEvent(EventDispatcher.COLOR_SWITCHED, currentColor ? 1 : 0);
+            return true;
+        }
+        if (currentState != PLAY_STATE) return false;
+        switchColor();
+        return true;
+    }
+
+    /**
+     * Switches the color at the given tick, rewinding and re-simulating the game if the tick
+     * was already played, like switchColorAt(). Used for inputs stamped with their tick, e.g.
+     * received from another player.
+     *
+     * @param at the tick of the input, not after the current tick.
+     * @return false if the tick is too old to be rewound.
+     */
+    synchronized boolean switchColorAtTick(int at) {
+        if (at > tick) throw new IllegalArgumentException("future tick: " + at);
+        if (at == tick) {
+            if (currentState == PLAY_STATE) switchColor();
+            return true;
+        }
+        if (snapshots == null || tick - at > ROLLBACK_TICKS
+                || snapshots[at & (SNAPSHOTS - 1)].tick != at) {
+            return false;
+        }
+        rollback(at);
+        return true;
+    }
+
+    /**
+     * @param nanos time of an input.
+     * @return the first tick updated after the given time that can be rewound, or -1.
+     */
+    private int rollbackTick(long nanos) {
+        if (snapshots == null) return -1;
+        if (currentState != PLAY_STATE && currentState != GAME_OVER_STATE) return -1;
+        if (currentState == GAME_OVER_STATE && gameEnded) return -1;
+        int from = -1;
+        for (int t = tick - 1; t >= 0 && tick - t <= ROLLBACK_TICKS; t--) {
+            int i = t & (SNAPSHOTS - 1);
+            if (snapshots[i].tick != t || tickTimes[i] <= nanos) break;
+            from = t;
+        }
+        return from;
+    }
+
+    /**
+     * Rewinds the game to the given tick, switches the color there and re-simulates up to
+     * the current tick. The recorded inputs are applied again at their ticks.
+     *
+     * @param from a tick with a valid snapshot.
+     */
+    private void rollback(int from) {
+        int now = tick;
+        int oldState = currentState;
+        int oldScore = score;
+        resimulating = true;
+        loadSnapshot(snapshots[from & (SNAPSHOTS - 1)]);
+        int next = insertInput(from);
+        currentColor = !currentColor;
+        while (true) {
+            while (next < inputCount && inputs[next] <= tick) {
+                currentColor = !currentColor;
+                next++;
+            }
+            if (tick == now || currentState != PLAY_STATE) break;
+            saveSnapshot(snapshots[tick & (SNAPSHOTS - 1)]);
+            step();
+        }
+        if (currentState != PLAY_STATE) inputCount = next;   // inputs after the end are dropped
+        resimulating = false;
+        if (score != oldScore) notifyEvent(EventDispatcher.SCORE_CHANGED, score);
+        if (currentState != oldState) notifyEvent(EventDispatcher.STATE_CHANGED, currentState);
+    }
+
+    /**
+     * Records an input at a past tick, after the other inputs of that tick.
+     *
+     * @param at the tick of the input.
+     * @return the index of the first input after it.
+     */
+    private int insertInput(int at) {
+        if (inputCount == inputs.length) inputs = Arrays.copyOf(inputs, inputCount * 2);
+        int i = inputCount;
+        for (; i > 0 && inputs[i - 1] > at; i--) inputs[i] = inputs[i - 1];
+        inputs[i] = at;
+        inputCount++;
+        return i + 1;
+    }
+
+    private void saveSnapshot(Snapshot s) {
+        s.tick = tick;
+        s.state = currentState;
+        s.score = score;
+        s.highScore = highScore;
+        s.color = currentColor;
+        s.entryCursor = entryCursor;
+        s.speedPercent = speedPercent;
+        s.speedRestore = speedRestore;
+        if (timers != null) {
+            if (s.timers == null) s.timers = new TimingWheel(MAX_TIMED_EVENTS, 0);
+            s.timers.copyFrom(timers);
+        }
+        System.arraycopy(leads, 0, s.leads, 0, lanes);
+        for (int i = 0; i < barriers.length; i++) {
+            Barrier b = barriers[i];
+            s.positions[i] = b.position;
+            s.fixedPositions[i] = b.fixedPosition;
+            s.colors[i] = b.color;
+        }
+    }
+
+    private void loadSnapshot(Snapshot s) {
+        tick = s.tick;
+        currentState = s.state;
+        score = s.score;
+        highScore = s.highScore;
+        currentColor = s.color;
+        entryCursor = s.entryCursor;
+        speedPercent = s.speedPercent;
+        speedRestore = s.speedRestore;
+        if (timers != null) timers.copyFrom(s.timers);
+        System.arraycopy(s.leads, 0, leads, 0, lanes);
+        for (int i = 0; i < barriers.length; i++) {
+            Barrier b = barriers[i];
+            if (fixedPoint) b.setFixedPosition(s.fixedPositions[i]);
+            else b.position = s.positions[i];
+            b.color = s.colors[i];
+        }
+        updateSpeed();
+    }
+
+    /**
+     * Switches the current color, should be called by game controllers.
+     * The switch is recorded, it takes effect from the next tick.
+     */
+    public synchronized void switchColor() {
+        currentColor = !currentColor;
+        if (inputCount == inputs.length) inputs = Arrays.copyOf(inputs, inputCount * 2);
+        inputs[inputCount++] = tick;
+        notifyEvent(EventDispatcher.COLOR_SWITCHED, currentColor ? 1 : 0);
+    }
+
+    /**
+     * @return the number of ticks played in the current game.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the replay of the current game, up to now.
+     */
+    public synchronized Replay getReplay() {
+        return new Replay(seed, fixedPoint, difficulty.getProfile().getId(),
+                Arrays.copyOf(inputs, inputCount), score, tick);
+    }
+
+    /**
+     * Sets how the difficulty grows with the score, from the next reset or right away in the
+     * menu. The profile is compiled here, if no other game did it before. Replays record the id
+     * of the profile, and a ReplayPlayer sets it again before playing them.
+     *
+     * @param profile the difficulty profile.
+     */
+    public synchronized void setDifficulty(DifficultyProfile profile) {
+        nextDifficulty = profile.getTable(barriersPerLane);
+        if (currentState == MENU_STATE) reset(seed);
+    }
+
+    /**
+     * @return the difficulty profile of the current game.
+     */
+    public synchronized DifficultyProfile getDifficulty() {
+        return difficulty.getProfile();
+    }
+
+    /**
+     * @return the difficulty profile of the next game, after a reset.
+     */
+    public synchronized DifficultyProfile getNextDifficulty() {
+        return (nextDifficulty != null ? nextDifficulty : difficulty).getProfile();
+    }
+
+    /**
+     * Updates the barrier speed based on the current score.
+     */
+    private void updateSpeed() {
+        if (fixedPoint) barrierSpeedFx = difficulty.speedFxAt(score);
+        else barrierSpeed = difficulty.speedAt(score);
+        if (speedPercent != NORMAL_SPEED) {
+            if (fixedPoint) barrierSpeedFx = barrierSpeedFx * speedPercent / NORMAL_SPEED;
+            else barrierSpeed = barrierSpeed * speedPercent / NORMAL_SPEED;
+        }
+    }
+
+    /**
+     * Changes the barrier speed for a while, cancelling the end of the previous change.
+     *
+     * @param percent  the new speed, in percent.
+     * @param duration the ticks the change lasts.
+     */
+    private void changeSpeed(int percent, int duration) {
+        timers.cancel(speedRestore);
+        speedPercent = percent;
+        speedRestore = timers.schedule(tick + duration, SPEED_RESTORE_EVENT, 0);
+        updateSpeed();
+    }
+
+    /**
+     * Enables timed events, see scheduleEvent(). Disabling drops the pending events.
+     *
+     * @param enabled true to enable timed events.
+     */
+    public synchronized void setTimedEventsEnabled(boolean enabled) {
+        if (enabled == (timers != null)) return;
+        timers = enabled ? new TimingWheel(MAX_TIMED_EVENTS, tick - 1) : null;
+        speedPercent = NORMAL_SPEED;
+        speedRestore = -1;
+        updateSpeed();
+        if (snapshots != null) {
+            for (Snapshot snapshot : snapshots) snapshot.tick = -1;
+        }
+    }
+
+    /**
+     * Schedules a timed event, fired at the beginning of its tick while the game is played:
+     * a built-in one changing the game, or a custom one passed to the timed event listener.
+     * Events are not part of the Replay, a replay is played again correctly only if the same
+     * events are scheduled at the same ticks.
+     *
+     * @param delay ticks from the current tick, 0 for the next update.
+     * @param type  SLOW_MOTION_EVENT, SPEED_BURST_EVENT or CUSTOM_EVENT and above.
+     * @param data  the duration in ticks for the built-in events, anything for custom ones.
+     * @return a handle for cancelEvent(), -1 if too many events are pending.
+     * @throws IllegalStateException if timed events are not enabled.
+     */
+    public synchronized int scheduleEvent(int delay, int type, int data) {
+        if (timers == null) throw new IllegalStateException("timed events not enabled");
+        if (delay < 0 || type == SPEED_RESTORE_EVENT) throw new IllegalArgumentException();
+        return timers.schedule(tick + delay, type, data);
+    }
+
+    /**
+     * @param handle a handle given by scheduleEvent().
+     * @return false if the event already fired or was cancelled.
+     */
+    public synchronized boolean cancelEvent(int handle) {
+        return timers != null && timers.cancel(handle);
+    }
+
+    /**
+     * @param listener receives the custom timed events, on the thread updating the game.
+     */
+    public void setTimedEventListener(TimingWheel.Listener listener) {
+        timedEventListener = listener;
+    }
+
+    /**
+     * @return the barrier speed in percent of the normal one for the score.
+     */
+    public int getSpeedPercent() {
+        return speedPercent;
+    }
+
+    /**
+     * @return true if the game is simulated in fixed-point.
+     */
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * @return the number of lanes.
+     */
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * @return the number of barriers in each lane.
+     */
+    public int getBarriersPerLane() {
+        return barriersPerLane;
+    }
+
+    /**
+     * Gives the barriers of a lane sorted by position, the front one first.
+     *
+     * @param lane a lane.
+     * @param rank the rank of the barrier, 0 is the front one.
+     * @return the index of the barrier in the barrier array.
+     */
+    public int barrierIndex(int lane, int rank) {
+        return lane * barriersPerLane + (leads[lane] + rank) % barriersPerLane;
+    }
+
+    /**
+     * @param entry a generator entry.
+     * @param row   the difficulty row of the current score.
+     * @return the distance between two barriers, in the spacing range of the row.
+     */
+    private float distanceOf(int entry, int row) {
+        float f = BarrierGenerator.spacingOf(entry) / (float) BarrierGenerator.SPACING_ONE;
+        return f * difficulty.spacingRange[row] + difficulty.minSpacing[row];
+    }
+
+    /**
+     * @param entry a generator entry.
+     * @param row   the difficulty row of the current score.
+     * @return the fixed-point distance between two barriers.
+     */
+    private int distanceFxOf(int entry, int row) {
+        long d = (long) BarrierGenerator.spacingOf(entry) * difficulty.spacingRangeFx[row];
+        return (int) (d >> BarrierGenerator.SPACING_BITS) + difficulty.minSpacingFx[row];
+    }
+
+    /**
+     * Biases the generated color towards or away from the previous one. When the generated
+     * color must be flipped, the low bits of the spacing are rolled against the threshold: they
+     * barely move the barrier, and the unbiased rows keep the generated colors.
+     *
+     * @param entry    a generator entry.
+     * @param previous the color of the barrier before, in the lane.
+     * @param row      the difficulty row of the current score.
+     * @return the color of the barrier.
+     */
+    private boolean colorOf(int entry, boolean previous, int row) {
+        boolean color = BarrierGenerator.colorOf(entry);
+        int bias = difficulty.repeat[row] - DifficultyProfile.REPEAT_ONE / 2;
+        if (bias == 0 || (color == previous) == (bias > 0)) return color;
+        int roll = BarrierGenerator.spacingOf(entry) & (DifficultyProfile.REPEAT_ONE - 1);
+        return roll < 2 * Math.abs(bias) ? !color : color;
+    }
+
+    /**
+     * Randomly generates the first set of barriers.
+     * Should be called once, to generate new barriers use
+     * reGenerateBarrier method.
+     *
+     * @see this.reGenerateBarrier
+     */
+    private void generateBarriers() {
+        float startPosition;
+        int startPositionFx;
+        int entry;
+        int row = difficulty.row(score);
+        boolean color;
+        for (int lane = 0; lane < lanes; lane++) {
+            startPosition = 0;
+            startPositionFx = 0;
+            color = false;
+            for (int i = lane * barriersPerLane; i < (lane + 1) * barriersPerLane; i++) {
+                entry = nextEntry();
+                // the first barrier of a lane has no previous one to repeat
+                color = i == lane * barriersPerLane ? BarrierGenerator.colorOf(entry)
+                        : colorOf(entry, color, row);
+                barriers[i] = new Barrier(color, startPosition);
+                if (fixedPoint) {
+                    barriers[i].setFixedPosition(startPositionFx);
+                    startPositionFx -= distanceFxOf(entry, row);
+                }
+                startPosition -= distanceOf(entry, row);
+            }
+            leads[lane] = 0;    //first barrier is the front one
+        }
+    }
+
+    /**
+     * Moves the front barrier of a lane behind the last one, with the next pre-generated color
+     * and spacing. The next barrier becomes the front one.
+     *
+     * @param lane the lane.
+     */
+    private void reGenerateBarrier(int lane) {
+        Barrier b = barriers[barrierIndex(lane, 0)];
+        Barrier last = barriers[barrierIndex(lane, barriersPerLane - 1)];
+        if (particles != null && !resimulating) {
+            particles.emit((lane + 0.5f) / lanes, LIMIT, PASS_PARTICLES, b.color,
+                    PASS_PARTICLE_SPEED, PASS_PARTICLE_TICKS);
+        }
+        int entry = nextEntry();
+        int row = difficulty.row(score);
+        if (fixedPoint) b.setFixedPosition(last.fixedPosition - distanceFxOf(entry, row));
+        else b.position = last.position - distanceOf(entry, row);
+        b.color = colorOf(entry, last.color, row);
+        leads[lane] = (leads[lane] + 1) % barriersPerLane;
+    }
+
+    /**
+     * Updates the game state. Called by game loop.
+     */
+    @Override
+    public synchronized void updateGame() {
+        if (currentState == PLAY_STATE && snapshots != null) {
+            int i = tick & (SNAPSHOTS - 1);
+            tickTimes[i] = System.nanoTime();
+            saveSnapshot(snapshots[i]);
+        }
+        step();
+        if (currentState == GAME_OVER_STATE && !gameEnded
+                && ++gameOverUpdates >= ROLLBACK_TICKS) {
+            endGame();
+        }
+        if (particles != null && (currentState == PLAY_STATE || currentState == GAME_OVER_STATE)) {
+            particles.update();
+        }
+    }
+
+    /**
+     * Makes the last game over final and notifies it, once.
+     */
+    private void endGame() {
+        if (gameEnded) return;
+        gameEnded = true;
+        notifyEvent(EventDispatcher.GAME_ENDED, score, tick);
+    }
+
+    /**
+     * Sets the particle system the game emits its effects into: a burst on each barrier
+     * passed and a bigger one on game over. Particles move while the game is played or over.
+     *
+     * @param particles the particles, null to disable the effects.
+     */
+    public synchronized void setParticles(ParticleSystem particles) {
+        this.particles = particles;
+    }
+
+    /**
+     * @return the particles of the effects, null if disabled.
+     */
+    public ParticleSystem getParticles() {
+        return particles;
+    }
+
+    /**
+     * Simulates a tick.
+     */
+    private void step() {
+        if (currentState == PLAY_STATE) {
+            if (timers != null) timers.advance(tick, timedEvents);
+            // move barriers
+            for (Barrier b : barriers) {
+                moveBarrier(b);
+            }
+            // check collisions, only front barriers can be past LIMIT
+            for (int lane = 0; lane < lanes && currentState == PLAY_STATE; lane++) {
+                Barrier b = barriers[barrierIndex(lane, 0)];
+                for (int i = 0; i < barriersPerLane && isPast(b); i++) {
+                    if (currentColor != b.color) {
+                        //game over
+                        setCurrentState(GAME_OVER_STATE);
+                        if (particles != null && !resimulating) {
+                            float x = (lane + 0.5f) / lanes;
+                            particles.emit(x, LIMIT, GAME_OVER_PARTICLES / 2, b.color,
+                                    GAME_OVER_PARTICLE_SPEED, GAME_OVER_PARTICLE_TICKS);
+                            particles.emit(x, LIMIT, GAME_OVER_PARTICLES / 2, currentColor,
+                                    GAME_OVER_PARTICLE_SPEED, GAME_OVER_PARTICLE_TICKS);
+                        }
+                        //check high score
+                        if (score > highScore) {
+                            highScore = score;
+                        }
+                        break;
+                    }
+                    // continue game, generate new barriers
+                    reGenerateBarrier(lane);
+                    score++;
+                    updateSpeed();
+                    notifyEvent(EventDispatcher.SCORE_CHANGED, score);
+                    b = barriers[barrierIndex(lane, 0)];
+                }
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * Copies what is needed to render this game into another game with the same number of
+     * lanes and barriers. The callbacks of the other game are not notified.
+     *
+     * @param mirror the game to copy to.
+     */
+    synchronized void copyTo(CirechGame mirror) {
+        mirror.currentState = currentState;
+        mirror.currentColor = currentColor;
+        mirror.score = score;
+        mirror.highScore = highScore;
+        mirror.tick = tick;
+        System.arraycopy(leads, 0, mirror.leads, 0, lanes);
+        for (int i = 0; i < barriers.length; i++) {
+            mirror.barriers[i].position = barriers[i].position;
+            mirror.barriers[i].fixedPosition = barriers[i].fixedPosition;
+            mirror.barriers[i].color = barriers[i].color;
+        }
+    }
+
+    /**
+     * Sets what a renderer needs of a game simulated elsewhere, e.g. received from a spectator
+     * stream. Scores, colors and barriers are set directly. The callbacks are not notified.
+     *
+     * @param state the game state.
+     * @param tick  the tick of the game.
+     * @param leads the front barrier of each lane.
+     */
+    synchronized void setFrame(int state, int tick, int[] leads) {
+        currentState = state;
+        this.tick = tick;
+        System.arraycopy(leads, 0, this.leads, 0, lanes);
+    }
+
+    /**
+     * @param lane a lane.
+     * @return the index in the lane of its front barrier.
+     */
+    int getLead(int lane) {
+        return leads[lane];
+    }
+
+    /**
+     * Moves a barrier by the current speed.
+     *
+     * @param b the barrier to move
+     */
+    private void moveBarrier(Barrier b) {
+        if (fixedPoint) b.moveFixed(barrierSpeedFx);
+        else b.move(barrierSpeed);
+    }
+
+    /**
+     * @param b a barrier
+     * @return true if the barrier went past LIMIT.
+     */
+    private boolean isPast(Barrier b) {
+        return fixedPoint ? b.fixedPosition > LIMIT_FX : b.position > LIMIT;
+    }
+
+    /**
+     * @return the current game state.
+     */
+    public int getCurrentState() {
+        return currentState;
+    }
+
+    /**
+     * Changes the state of the game.
+     * The value must be in the set of the predefined states, for example MENU_STATE
+     * @param state the new state
+     */
+    public synchronized void setCurrentState(int state) {
+        // leaving a game over, e.g. for the menu, makes it final
+        if (currentState == GAME_OVER_STATE && state != GAME_OVER_STATE) endGame();
+        currentState = state;
+        if (state == GAME_OVER_STATE) {
+            // a rollback may undo it for ROLLBACK_TICKS updates, if enabled
+            gameEnded = false;
+            gameOverUpdates = 0;
+            if (snapshots == null) endGame();
+        }
+        notifyEvent(EventDispatcher.STATE_CHANGED, currentState);
+    }
+
+    /**
+     * Notifies an event to all callback-implementing Objects, directly or through the dispatcher.
+     * Called with the game monitor held.
+     *
+     * @param type  the event type, see EventDispatcher.
+     * @param value the new state or score.
+     */
+    private void notifyEvent(int type, int value) {
+        notifyEvent(type, value, 0);
+    }
+
+    /**
+     * Notifies an event with two values, see notifyEvent(int, int).
+     *
+     * @param type  the event type, see EventDispatcher.
+     * @param value the new state or score.
+     * @param extra the second value, e.g. the ticks of an ended game.
+     */
+    private void notifyEvent(int type, int value, int extra) {
+        if (resimulating) return;
+        EventDispatcher d = dispatcher;
+        if (d != null) {
+            d.post(type, value, extra);
+            return;
+        }
+        for (Callback callback : callbacks) {
+            if (type == EventDispatcher.STATE_CHANGED) callback.stateChanged(value);
+            else if (type == EventDispatcher.SCORE_CHANGED) callback.scoreChanged(value);
+            else if (type == EventDispatcher.GAME_ENDED) callback.gameEnded(value, extra);
+            else callback.colorSwitched(value != 0);
+        }
+    }
+
+    /**
+     * Adds a Callback interface for this game.
+     *
+     * @param callback Callback fucntion to add.
+     */
+    public synchronized void addCallback(Callback callback) {
+        Callback[] newCallbacks = Arrays.copyOf(callbacks, callbacks.length + 1);
+        newCallbacks[callbacks.length] = callback;
+        callbacks = newCallbacks;
+    }
+
+    /**
+     * Removes a Callback interface from this game.
+     *
+     * @param callback Callback function to remove.
+     */
+    public synchronized void removeCallback(Callback callback) {
+        for (int i = 0; i < callbacks.length; i++) {
+            if (callbacks[i] == callback) {
+                Callback[] newCallbacks = new Callback[callbacks.length - 1];
+                System.arraycopy(callbacks, 0, newCallbacks, 0, i);
+                System.arraycopy(callbacks, i + 1, newCallbacks, i, newCallbacks.length - i);
+                callbacks = newCallbacks;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets a Callback interface for this game, clearing all others previously added callbacks.
+     *
+     * @param callback Callback function to set.
+     */
+    public synchronized void setCallback(Callback callback) {
+        callbacks = new Callback[]{callback};
+    }
+
+    /**
+     * Sets the dispatcher that calls the callbacks off the threads changing the game.
+     *
+     * @param dispatcher a dispatcher for this game, or null to call the callbacks directly.
+     */
+    public void setDispatcher(EventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * The state of the game before a tick, everything the tick depends on.
+     */
+    private static class Snapshot {
+        int tick = -1;  // -1 if not valid
+        int state;
+        int score;
+        int highScore;
+        boolean color;
+        int entryCursor;
+        int speedPercent;
+        int speedRestore;
+        TimingWheel timers;     // null until timed events are enabled
+        final int[] leads;
+        final float[] positions;
+        final int[] fixedPositions;
+        final boolean[] colors;
+
+        Snapshot(int lanes, int barriers) {
+            leads = new int[lanes];
+            positions = new float[barriers];
+            fixedPositions = new int[barriers];
+            colors = new boolean[barriers];
+        }
+    }
+
+    /**
+     * Interface for callbacks. When the game state or the score changes, these are called.
+     */
+    public interface Callback {
+        void stateChanged(int newState);
+
+        void scoreChanged(int newScore);
+
+        /**
+         * @param newColor the current color after the switch.
+         */
+        void colorSwitched(boolean newColor);
+
+        /**
+         * Called once per game over, when it is final: ROLLBACK_TICKS updates after it (right
+         * away without rollback), or before the game is reset or leaves the game over state.
+         * Unlike stateChanged(GAME_OVER_STATE), it is never undone by a late input.
+         *
+         * @param score the final score.
+         * @param ticks the ticks played.
+         */
+        void gameEnded(int score, int ticks);
+    }
+
+}
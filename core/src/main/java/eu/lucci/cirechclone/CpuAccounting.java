@@ -0,0 +1,262 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accounts the CPU time spent by each subsystem of the game, as measured by the CPU clock of
+ * the thread running it: on the JVM the ThreadMXBean, reached by reflection since
+ * java.lang.management is not part of Android, on Android the clock set by the app, see
+ * setClock(). Until a clock is set, or where there is none, the wall clock is used, which also
+ * counts the time spent blocked.
+ * Times are summed over a session, from reset() on, so that the load of each subsystem can be
+ * compared to the others and to the length of the session: this is where the battery goes.
+ * When disabled, begin() and end() only read a flag.
+ */
+public final class CpuAccounting {
+
+    // Subsystems
+    public static final int SIMULATION = 0;
+    public static final int RENDER = 1;
+    public static final int INPUT = 2;
+    public static final int IO = 3;
+    public static final int AUDIO = 4;
+
+    public static final int SUBSYSTEMS = 5;
+
+    private static final String[] NAMES = {"simulation", "render", "input", "io", "audio"};
+
+    private static volatile boolean enabled;
+
+    private static final AtomicLongArray cpuNanos = new AtomicLongArray(SUBSYSTEMS);
+
+    private static final AtomicLongArray sections = new AtomicLongArray(SUBSYSTEMS);
+
+    private static volatile long sessionStart = System.nanoTime();
+
+    private static volatile ThreadClock clock = pickClock();
+
+    private CpuAccounting() {
+    }
+
+    /**
+     * Enables or disables the accounting, the times summed so far are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        CpuAccounting.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the CPU clock of the threads, e.g. android.os.Debug on Android. Must be set before
+     * enabling the accounting, sections begun with another clock would be wrong.
+     *
+     * @param clock the clock.
+     */
+    public static void setClock(ThreadClock clock) {
+        CpuAccounting.clock = clock;
+    }
+
+    /**
+     * @return true if times are CPU times, false if the wall clock is used instead.
+     */
+    public static boolean isThreadCpuTime() {
+        return !(clock instanceof WallClock);
+    }
+
+    /**
+     * Begins a section of work on the current thread.
+     *
+     * @return the token to pass to end().
+     */
+    public static long begin() {
+        return enabled ? clock.now() : 0;
+    }
+
+    /**
+     * Ends a section of work on the current thread, begun on the same thread.
+     *
+     * @param subsystem the subsystem the section belongs to, one of the constants.
+     * @param begin     the token returned by begin().
+     */
+    public static void end(int subsystem, long begin) {
+        if (!enabled || begin == 0) return;
+        cpuNanos.addAndGet(subsystem, clock.now() - begin);
+        sections.incrementAndGet(subsystem);
+    }
+
+    /**
+     * Gives an executor accounting the tasks it runs to a subsystem, e.g. to account AsyncTasks.
+     *
+     * @param subsystem the subsystem of the tasks.
+     * @param executor  the executor running the tasks.
+     * @return the accounting executor.
+     */
+    public static Executor wrap(final int subsystem, final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable task) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long cpu = begin();
+                        try {
+                            task.run();
+                        } finally {
+                            end(subsystem, cpu);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Starts a new session, dropping the times summed so far.
+     */
+    public static void reset() {
+        for (int i = 0; i < SUBSYSTEMS; i++) {
+            cpuNanos.set(i, 0);
+            sections.set(i, 0);
+        }
+        sessionStart = System.nanoTime();
+    }
+
+    /**
+     * @param subsystem a subsystem.
+     * @return the CPU time of the subsystem in the session, in nanoseconds.
+     */
+    public static long getCpuNanos(int subsystem) {
+        return cpuNanos.get(subsystem);
+    }
+
+    /**
+     * @param subsystem a subsystem.
+     * @return the sections of work of the subsystem in the session.
+     */
+    public static long getSections(int subsystem) {
+        return sections.get(subsystem);
+    }
+
+    /**
+     * @return the wall time since the start of the session, in nanoseconds.
+     */
+    public static long getSessionNanos() {
+        return System.nanoTime() - sessionStart;
+    }
+
+    /**
+     * @param subsystem a subsystem.
+     * @return the CPU time of the subsystem over the session wall time, 1 is a whole core.
+     */
+    public static float getLoad(int subsystem) {
+        return (float) getCpuNanos(subsystem) / Math.max(1, getSessionNanos());
+    }
+
+    /**
+     * @param subsystem a subsystem.
+     * @return the name of the subsystem.
+     */
+    public static String getName(int subsystem) {
+        return NAMES[subsystem];
+    }
+
+    /**
+     * @return the session so far, one subsystem after the other.
+     */
+    public static String summary() {
+        StringBuilder s = new StringBuilder("cpu over ")
+                .append(getSessionNanos() / 1000000).append(" ms");
+        if (!isThreadCpuTime()) s.append(" (wall clock)");
+        for (int i = 0; i < SUBSYSTEMS; i++) {
+            long n = getSections(i);
+            s.append(", ").append(NAMES[i]).append(' ')
+                    .append(String.format("%.2f%%", getLoad(i) * 100))
+                    .append(" in ").append(n).append(" sections");
+            if (n > 0) s.append(String.format(" of %.1f us", getCpuNanos(i) / 1000f / n));
+        }
+        return s.toString();
+    }
+
+    private static ThreadClock pickClock() {
+        try {
+            Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+            Class<?> type = Class.forName("java.lang.management.ThreadMXBean");
+            Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+            if ((Boolean) type.getMethod("isCurrentThreadCpuTimeSupported").invoke(bean)) {
+                type.getMethod("setThreadCpuTimeEnabled", boolean.class).invoke(bean, true);
+                return new BeanClock(bean, type.getMethod("getCurrentThreadCpuTime"));
+            }
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException | LinkageError e) {
+            // no thread CPU clock on this VM
+        }
+        return new WallClock();
+    }
+
+    /**
+     * A clock of the current thread, in nanoseconds.
+     */
+    public interface ThreadClock {
+        /**
+         * @return the time of the current thread, never 0: that is the token of a disabled
+         * begin().
+         */
+        long now();
+    }
+
+    private static class BeanClock implements ThreadClock {
+        private final Object bean;
+
+        private final Method currentThreadCpuTime;
+
+        BeanClock(Object bean, Method currentThreadCpuTime) {
+            this.bean = bean;
+            this.currentThreadCpuTime = currentThreadCpuTime;
+        }
+
+        @Override
+        public long now() {
+            try {
+                return (Long) currentThreadCpuTime.invoke(bean) | 1;
+            } catch (IllegalAccessException e) {
+                // not a multi-catch: its type would be ReflectiveOperationException, API 19
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class WallClock implements ThreadClock {
+        @Override
+        public long now() {
+            return System.nanoTime() | 1;
+        }
+    }
+}
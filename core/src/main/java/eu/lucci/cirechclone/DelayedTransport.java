@@ -0,0 +1,111 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulates network latency on the packets received from another Transport: each packet is
+ * held for the latency plus a random jitter, so packets can also be reordered. Packets can
+ * be dropped too.
+ */
+public class DelayedTransport implements Transport {
+
+    private final Transport transport;
+
+    private final long latencyNanos;
+
+    private final long jitterNanos;
+
+    private final float lossRate;
+
+    private final Random rand;
+
+    private final PriorityQueue<Packet> held = new PriorityQueue<>();
+
+    private final byte[] buffer = new byte[MAX_PACKET];
+
+    /**
+     * Packets held so far, to keep the order of packets due at the same time.
+     */
+    private long sequence;
+
+    /**
+     * @param transport    the real transport.
+     * @param latencyNanos delay of every received packet.
+     * @param jitterNanos  max extra random delay.
+     * @param lossRate     probability of dropping a packet, in [0, 1].
+     * @param seed         seed of the jitter and of the losses.
+     */
+    public DelayedTransport(Transport transport, long latencyNanos, long jitterNanos,
+                            float lossRate, long seed) {
+        this.transport = transport;
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+        this.lossRate = lossRate;
+        this.rand = new Random(seed);
+    }
+
+    @Override
+    public void send(byte[] data, int length) throws IOException {
+        transport.send(data, length);
+    }
+
+    @Override
+    public synchronized int receive(byte[] data) throws IOException {
+        long now = System.nanoTime();
+        int n;
+        while ((n = transport.receive(buffer)) >= 0) {
+            if (rand.nextFloat() < lossRate) continue;
+            long jitter = jitterNanos > 0 ? (long) (rand.nextDouble() * jitterNanos) : 0;
+            held.add(new Packet(now + latencyNanos + jitter, sequence++, Arrays.copyOf(buffer, n)));
+        }
+        Packet first = held.peek();
+        if (first == null || first.due > now) return -1;
+        held.poll();
+        System.arraycopy(first.data, 0, data, 0, first.data.length);
+        return first.data.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    private static class Packet implements Comparable<Packet> {
+        final long due;
+        final long sequence;
+        final byte[] data;
+
+        Packet(long due, long sequence, byte[] data) {
+            this.due = due;
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Packet other) {
+            if (due != other.due) return due < other.due ? -1 : 1;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
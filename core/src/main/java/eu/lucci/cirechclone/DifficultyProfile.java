@@ -0,0 +1,351 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How the difficulty of the game grows with the score, as data. The profile is a list of score
+ * ranges, each with a barrier speed curve, a distribution of the barrier spacings and the
+ * probability that a barrier repeats the color of the one before it. Profiles are read from a
+ * text file and compiled into lookup tables indexed by score, so that the game tick reads a
+ * value where it used to compute it.
+ * <p>
+ * The file has one range per line, '#' starts a comment. The columns are:
+ * <ul>
+ * <li>score: first score of the range, the first range starts from 0;</li>
+ * <li>speed: barrier speed at the first score, in percent of the base speed;</li>
+ * <li>ramp: speed added for each point scored, in percent of the base speed;</li>
+ * <li>min and max spacing: range of the distance between two barriers, in units of
+ * LIMIT / barriers per lane;</li>
+ * <li>repeat: probability that a barrier has the color of the one before it.</li>
+ * </ul>
+ * DEFAULT gives exactly the speeds and barriers of the game before profiles, so replays keep
+ * playing the same. A replay is only played again correctly with the profile it was played with,
+ * so replays record the id of their profile, see getId().
+ */
+public final class DifficultyProfile {
+
+    /**
+     * Scores covered by the tables, at least. Past them the last range goes on.
+     */
+    public static final int TABLE_SCORES = 1024;
+
+    /**
+     * Color repeat thresholds are out of this, see Table.repeat.
+     */
+    static final int REPEAT_ONE = 256;
+
+    private static final int COLUMNS = 6;
+
+    public static final DifficultyProfile DEFAULT = new DifficultyProfile(new int[]{0},
+            new float[]{100}, new float[]{1}, new float[]{1}, new float[]{2}, new float[]{0.5f});
+
+    private final int[] from;
+
+    private final float[] startSpeed;
+
+    private final float[] speedRamp;
+
+    private final float[] spacingMin;
+
+    private final float[] spacingMax;
+
+    private final float[] repeatProbability;
+
+    private final int id;
+
+    /**
+     * Compiled tables, by barriers per lane.
+     */
+    private final Map<Integer, Table> tables = new HashMap<>();
+
+    /**
+     * One element per range, see the class description for their meaning.
+     *
+     * @param from       first score of each range, increasing from 0.
+     * @param speed      speed at the first score, in percent of the base speed.
+     * @param ramp       speed added for each point, in percent of the base speed.
+     * @param minSpacing min distance between barriers.
+     * @param maxSpacing max distance between barriers, not less than the min one.
+     * @param repeat     probability of repeating the color, in [0, 1].
+     */
+    public DifficultyProfile(int[] from, float[] speed, float[] ramp, float[] minSpacing,
+                             float[] maxSpacing, float[] repeat) {
+        int n = from.length;
+        if (n == 0 || speed.length != n || ramp.length != n || minSpacing.length != n
+                || maxSpacing.length != n || repeat.length != n) {
+            throw new IllegalArgumentException("one value per range is needed");
+        }
+        for (int i = 0; i < n; i++) {
+            if (i == 0 ? from[i] != 0 : from[i] <= from[i - 1]) {
+                throw new IllegalArgumentException("ranges must start at 0 and increase");
+            }
+            if (!(speed[i] > 0) || !(ramp[i] >= 0)) {
+                throw new IllegalArgumentException("bad speed at score " + from[i]);
+            }
+            if (!(minSpacing[i] > 0) || !(maxSpacing[i] >= minSpacing[i])) {
+                throw new IllegalArgumentException("bad spacing at score " + from[i]);
+            }
+            if (!(repeat[i] >= 0 && repeat[i] <= 1)) {
+                throw new IllegalArgumentException("bad repeat at score " + from[i]);
+            }
+        }
+        this.from = from.clone();
+        startSpeed = speed.clone();
+        speedRamp = ramp.clone();
+        spacingMin = minSpacing.clone();
+        spacingMax = maxSpacing.clone();
+        repeatProbability = repeat.clone();
+        int hash = Arrays.hashCode(this.from);
+        for (float[] column : new float[][]{startSpeed, speedRamp, spacingMin, spacingMax,
+                repeatProbability}) {
+            hash = 31 * hash + Arrays.hashCode(column);
+        }
+        id = hash;
+    }
+
+    /**
+     * Reads a profile in the text format described above.
+     *
+     * @param in the text, not closed.
+     * @return the profile.
+     * @throws IOException if the text cannot be read or is not a valid profile.
+     */
+    public static DifficultyProfile read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        int n = 0;
+        int[] from = new int[8];
+        float[][] columns = new float[COLUMNS - 1][8];
+        String line;
+        for (int number = 1; (line = reader.readLine()) != null; number++) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\\s+");
+            if (fields.length != COLUMNS) {
+                throw new IOException("line " + number + ": " + COLUMNS + " columns expected");
+            }
+            if (n == from.length) {
+                from = Arrays.copyOf(from, n * 2);
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c] = Arrays.copyOf(columns[c], n * 2);
+                }
+            }
+            try {
+                from[n] = Integer.parseInt(fields[0]);
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c][n] = Float.parseFloat(fields[c + 1]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + number + ": not a number");
+            }
+            n++;
+        }
+        try {
+            return new DifficultyProfile(Arrays.copyOf(from, n),
+                    Arrays.copyOf(columns[0], n), Arrays.copyOf(columns[1], n),
+                    Arrays.copyOf(columns[2], n), Arrays.copyOf(columns[3], n),
+                    Arrays.copyOf(columns[4], n));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Identifies the profile in replays and archives. The id is computed from the values of the
+     * ranges, so profiles read from the same text have the same id on every device.
+     *
+     * @return the id of the profile.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the number of score ranges.
+     */
+    public int getRangeCount() {
+        return from.length;
+    }
+
+    /**
+     * Returns the tables of the profile for games with the given barriers per lane, compiled
+     * on the first call and shared by the games afterwards.
+     *
+     * @param barriersPerLane the barriers per lane of the game.
+     * @return the compiled tables.
+     */
+    synchronized Table getTable(int barriersPerLane) {
+        Table table = tables.get(barriersPerLane);
+        if (table == null) {
+            table = new Table(barriersPerLane);
+            tables.put(barriersPerLane, table);
+        }
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("DifficultyProfile[");
+        for (int i = 0; i < from.length; i++) {
+            if (i > 0) s.append(", ");
+            s.append(from[i]).append(": ").append(startSpeed[i]).append("%+")
+                    .append(speedRamp[i]).append("%, ").append(spacingMin[i]).append('-')
+                    .append(spacingMax[i]).append(", ").append(repeatProbability[i]);
+        }
+        return s.append(']').toString();
+    }
+
+    /**
+     * The profile compiled for a number of barriers per lane: one row per score, in the float
+     * and in the fixed-point mode of the game. Read only once built.
+     */
+    final class Table {
+
+        /**
+         * Barrier speed by score.
+         */
+        final float[] speed;
+
+        final int[] speedFx;
+
+        /**
+         * Barrier spacing by score: min + fraction * range.
+         */
+        final float[] minSpacing;
+
+        final float[] spacingRange;
+
+        final int[] minSpacingFx;
+
+        final int[] spacingRangeFx;
+
+        /**
+         * Color repeat threshold by score, out of REPEAT_ONE: the probability of repeating the
+         * color is repeat / REPEAT_ONE, half of REPEAT_ONE leaves the generated color as is.
+         */
+        final int[] repeat;
+
+        // the last range, for the speeds past the table
+        private final int lastFrom;
+
+        private final float lastSpeed;
+
+        private final float lastRamp;
+
+        private final int lastSpeedFx;
+
+        private final long lastRampFx;
+
+        private Table(int barriersPerLane) {
+            int rows = Math.max(TABLE_SCORES, from[from.length - 1] + 1);
+            speed = new float[rows];
+            speedFx = new int[rows];
+            minSpacing = new float[rows];
+            spacingRange = new float[rows];
+            minSpacingFx = new int[rows];
+            spacingRangeFx = new int[rows];
+            repeat = new int[rows];
+            // the same operations of the game before profiles, to get the same results
+            float delta = CirechGame.LIMIT / (float) barriersPerLane;
+            int deltaFx = CirechGame.LIMIT_FX / barriersPerLane;
+            float start = 0, step = 0, min = 0, max = 0;
+            int startFx = 0, minFx = 0, maxFx = 0, threshold = 0;
+            long stepFx = 0;
+            int range = -1;
+            for (int score = 0; score < rows; score++) {
+                if (range + 1 < from.length && from[range + 1] == score) {
+                    range++;
+                    start = CirechGame.BASE_SPEED * (startSpeed[range] / 100);
+                    step = CirechGame.BASE_SPEED * speedRamp[range] / 100;
+                    startFx = (int) (CirechGame.BASE_SPEED_FX * milli(startSpeed[range]) / 100000);
+                    stepFx = CirechGame.BASE_SPEED_FX * milli(speedRamp[range]);
+                    min = delta * spacingMin[range];
+                    max = delta * spacingMax[range];
+                    minFx = (int) (deltaFx * milli(spacingMin[range]) / 1000);
+                    maxFx = (int) (deltaFx * milli(spacingMax[range]) / 1000);
+                    threshold = Math.round(repeatProbability[range] * REPEAT_ONE);
+                }
+                int points = score - from[range];
+                speed[score] = start + points * step;
+                speedFx[score] = startFx + (int) (points * stepFx / 100000);
+                minSpacing[score] = min;
+                spacingRange[score] = max - min;
+                minSpacingFx[score] = minFx;
+                spacingRangeFx[score] = maxFx - minFx;
+                repeat[score] = threshold;
+            }
+            lastFrom = from[range];
+            lastSpeed = start;
+            lastRamp = step;
+            lastSpeedFx = startFx;
+            lastRampFx = stepFx;
+        }
+
+        /**
+         * @param score a score.
+         * @return the row of the table for the spacings and colors at the score.
+         */
+        int row(int score) {
+            return Math.min(score, repeat.length - 1);
+        }
+
+        /**
+         * @param score a score.
+         * @return the barrier speed at the score.
+         */
+        float speedAt(int score) {
+            if (score < speed.length) return speed[score];
+            return lastSpeed + (score - lastFrom) * lastRamp;
+        }
+
+        /**
+         * @param score a score.
+         * @return the fixed-point barrier speed at the score.
+         */
+        int speedFxAt(int score) {
+            if (score < speedFx.length) return speedFx[score];
+            return lastSpeedFx + (int) ((score - lastFrom) * lastRampFx / 100000);
+        }
+
+        /**
+         * @return the profile the table was compiled from.
+         */
+        DifficultyProfile getProfile() {
+            return DifficultyProfile.this;
+        }
+    }
+
+    /**
+     * @param percent a value in percent, or any other unit.
+     * @return the value in thousandths of the unit, for the fixed-point tables.
+     */
+    private static long milli(float percent) {
+        return Math.round(percent * 1000.0);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+/**
+ * Layout of a digit glyph atlas: the ten digits are rasterized once, side by side in cells of
+ * the same size, and numbers are composed by copying cells. This class only holds the metrics,
+ * so the same atlas can be used by a Canvas renderer (source rects) or a GL one (texture
+ * coordinates).
+ */
+public class DigitAtlas {
+
+    /**
+     * Maximum number of digits of an int.
+     */
+    public static final int MAX_DIGITS = 10;
+
+    /**
+     * Advance of each digit, in pixels.
+     */
+    private final float[] advances;
+
+    private final int cellWidth;
+
+    private final int cellHeight;
+
+    /**
+     * Distance from the top of a cell to the baseline.
+     */
+    private final float baseline;
+
+    /**
+     * @param advances advance of each digit, in pixels.
+     * @param ascent   distance above the baseline, positive.
+     * @param descent  distance below the baseline, positive.
+     */
+    public DigitAtlas(float[] advances, float ascent, float descent) {
+        if (advances.length != 10) throw new IllegalArgumentException("ten advances expected");
+        this.advances = advances.clone();
+        float max = 0;
+        for (float a : advances) max = Math.max(max, a);
+        cellWidth = (int) Math.ceil(max);
+        cellHeight = (int) Math.ceil(ascent + descent);
+        baseline = ascent;
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    public int getCellHeight() {
+        return cellHeight;
+    }
+
+    public float getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * @return width of the atlas image.
+     */
+    public int getWidth() {
+        return cellWidth * 10;
+    }
+
+    /**
+     * @return height of the atlas image.
+     */
+    public int getHeight() {
+        return cellHeight;
+    }
+
+    /**
+     * @param digit a digit.
+     * @return the left bound of the digit cell in the atlas image.
+     */
+    public int cellX(int digit) {
+        return digit * cellWidth;
+    }
+
+    /**
+     * @param digit a digit.
+     * @return the left texture coordinate of the digit.
+     */
+    public float u0(int digit) {
+        return cellX(digit) / (float) getWidth();
+    }
+
+    /**
+     * @param digit a digit.
+     * @return the right texture coordinate of the digit.
+     */
+    public float u1(int digit) {
+        return (cellX(digit) + advances[digit]) / getWidth();
+    }
+
+    /**
+     * @param digit a digit.
+     * @return the advance of the digit, in pixels.
+     */
+    public float advance(int digit) {
+        return advances[digit];
+    }
+
+    /**
+     * Splits a number in digits without allocating.
+     *
+     * @param number a non negative number.
+     * @param digits receives the digits, most significant first, at least MAX_DIGITS long.
+     * @return the number of digits.
+     */
+    public static int layout(int number, int[] digits) {
+        int count = 0;
+        do {
+            digits[count++] = number % 10;
+            number /= 10;
+        } while (number > 0);
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            int t = digits[i];
+            digits[i] = digits[j];
+            digits[j] = t;
+        }
+        return count;
+    }
+}
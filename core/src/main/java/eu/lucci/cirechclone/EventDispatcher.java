@@ -0,0 +1,240 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers the events of a CirechGame to its callbacks on a dedicated thread, so that slow
+ * callbacks don't stall the game loop.
+ * Events are posted into a lock-free ring buffer. There is a single producer: the game posts
+ * while holding its own monitor. If the ring is full the event is dropped and counted, the
+ * game never waits for the callbacks.
+ */
+public class EventDispatcher extends Thread {
+
+    static final int STATE_CHANGED = 0;
+
+    static final int SCORE_CHANGED = 1;
+
+    static final int COLOR_SWITCHED = 2;
+
+    static final int GAME_ENDED = 3;
+
+    private static final int CAPACITY = 1024;   // must be a power of two
+
+    private static final int MASK = CAPACITY - 1;
+
+    private final CirechGame game;
+
+    /**
+     * Events as (type << 32 | value).
+     */
+    private final long[] events = new long[CAPACITY];
+
+    /**
+     * Second value of each event, e.g. the ticks of an ended game.
+     */
+    private final int[] extras = new int[CAPACITY];
+
+    /**
+     * System.nanoTime() of each event post.
+     */
+    private final long[] postTimes = new long[CAPACITY];
+
+    /**
+     * Next event to write, written by the producer only.
+     */
+    private volatile long tail;
+
+    /**
+     * Next event to read, written by this thread only.
+     */
+    private volatile long head;
+
+    private volatile boolean sleeping;
+
+    private volatile boolean running = true;
+
+    private volatile long dropped;
+
+    /**
+     * Callbacks the stats refer to, refreshed when the game callbacks change.
+     */
+    private CirechGame.Callback[] targets = new CirechGame.Callback[0];
+
+    private volatile ListenerStats[] stats = new ListenerStats[0];
+
+    /**
+     * @param game the game whose callbacks are called.
+     */
+    public EventDispatcher(CirechGame game) {
+        super("game events");
+        this.game = game;
+        setDaemon(true);
+    }
+
+    /**
+     * Posts an event, never blocks. Called by the game only.
+     *
+     * @param type  the event type.
+     * @param value the event value.
+     * @param extra the second value of the event, 0 if none.
+     */
+    void post(int type, int value, int extra) {
+        long t = tail;
+        if (t - head == CAPACITY) {
+            dropped++;
+            return;
+        }
+        int i = (int) t & MASK;
+        events[i] = ((long) type << 32) | (value & 0xFFFFFFFFL);
+        extras[i] = extra;
+        postTimes[i] = System.nanoTime();
+        tail = t + 1;   // publish
+        if (sleeping) LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long h = head;
+            if (h == tail) {
+                sleeping = true;
+                if (h == tail && running) LockSupport.park(this);
+                sleeping = false;
+                continue;
+            }
+            int i = (int) h & MASK;
+            long event = events[i];
+            int extra = extras[i];
+            long postTime = postTimes[i];
+            head = h + 1;
+            deliver((int) (event >>> 32), (int) event, extra, postTime);
+        }
+    }
+
+    private void deliver(int type, int value, int extra, long postTime) {
+        CirechGame.Callback[] callbacks = game.callbacks;
+        if (callbacks != targets) refreshStats(callbacks);
+        for (int i = 0; i < callbacks.length; i++) {
+            long begin = System.nanoTime();
+            if (type == STATE_CHANGED) callbacks[i].stateChanged(value);
+            else if (type == SCORE_CHANGED) callbacks[i].scoreChanged(value);
+            else if (type == GAME_ENDED) callbacks[i].gameEnded(value, extra);
+            else callbacks[i].colorSwitched(value != 0);
+            stats[i].record(begin - postTime, System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Keeps the stats of the callbacks still registered, adds new ones.
+     */
+    private void refreshStats(CirechGame.Callback[] callbacks) {
+        ListenerStats[] newStats = new ListenerStats[callbacks.length];
+        for (int i = 0; i < callbacks.length; i++) {
+            for (int j = 0; j < targets.length; j++) {
+                if (targets[j] == callbacks[i]) newStats[i] = stats[j];
+            }
+            if (newStats[i] == null) newStats[i] = new ListenerStats(callbacks[i]);
+        }
+        targets = callbacks;
+        stats = newStats;
+    }
+
+    /**
+     * Stops the thread, pending events are dropped.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the delivery stats of the currently known callbacks.
+     */
+    public List<ListenerStats> getStats() {
+        List<ListenerStats> result = new ArrayList<>();
+        for (ListenerStats s : stats) result.add(s);
+        return result;
+    }
+
+    /**
+     * Delivery latency accounting of a callback. Written by the dispatcher thread only.
+     */
+    public static class ListenerStats {
+        public final CirechGame.Callback callback;
+        volatile long delivered;
+        volatile long totalQueueNanos;
+        volatile long totalHandlerNanos;
+        volatile long maxHandlerNanos;
+
+        ListenerStats(CirechGame.Callback callback) {
+            this.callback = callback;
+        }
+
+        void record(long queueNanos, long handlerNanos) {
+            delivered++;
+            totalQueueNanos += queueNanos;
+            totalHandlerNanos += handlerNanos;
+            if (handlerNanos > maxHandlerNanos) maxHandlerNanos = handlerNanos;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return mean time between the post of an event and the call, in nanoseconds.
+         */
+        public long getMeanQueueNanos() {
+            long n = delivered;
+            return n == 0 ? 0 : totalQueueNanos / n;
+        }
+
+        /**
+         * @return mean time spent in the callback, in nanoseconds.
+         */
+        public long getMeanHandlerNanos() {
+            long n = delivered;
+            return n == 0 ? 0 : totalHandlerNanos / n;
+        }
+
+        public long getMaxHandlerNanos() {
+            return maxHandlerNanos;
+        }
+
+        @Override
+        public String toString() {
+            return callback.getClass().getName() + ": " + delivered + " events, queue "
+                    + getMeanQueueNanos() + " ns, handler " + getMeanHandlerNanos() + " ns (max "
+                    + maxHandlerNanos + " ns)";
+        }
+    }
+}
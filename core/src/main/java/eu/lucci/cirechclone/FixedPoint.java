@@ -0,0 +1,45 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+/**
+ * Q16.16 fixed-point helpers. Integer arithmetic gives the same results on every VM,
+ * so games simulated in fixed-point can be replayed bit-exactly anywhere.
+ */
+public final class FixedPoint {
+
+    public static final int FRACTION_BITS = 16;
+
+    /**
+     * The fixed-point representation of 1.
+     */
+    public static final int ONE = 1 << FRACTION_BITS;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * @param value a fixed-point value.
+     * @return the value as a float, only meant for rendering.
+     */
+    public static float toFloat(int value) {
+        return value / (float) ONE;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Arrays;
+
+/**
+ * Chooses how many ticks per second are rendered, the simulation keeps ticking at
+ * GameThread.PREFERRED_FPS. Frame times are collected over a window of frames: at the end of
+ * each window the render rate steps down if the slow frames miss the tick period, and steps
+ * back up only when they fit in half of it, so that the rate doesn't oscillate.
+ */
+public class FrameGovernor {
+
+    /**
+     * Possible render rates, from the highest.
+     */
+    public static final int[] RENDER_RATES = {GameThread.PREFERRED_FPS, 45, 30};
+
+    /**
+     * Rendered frames per decision.
+     */
+    private static final int WINDOW = 120;
+
+    /**
+     * Percentile of the frame times the decisions are based on.
+     */
+    private static final float DECISION_PERCENTILE = 0.9f;
+
+    private final long periodNanos;
+
+    private final long[] samples = new long[WINDOW];
+
+    private final long[] sorted = new long[WINDOW];
+
+    private int sampleCount;
+
+    /**
+     * Index in RENDER_RATES.
+     */
+    private volatile int level;
+
+    /**
+     * Render credit, a frame is rendered every PREFERRED_FPS credits.
+     */
+    private int credit;
+
+    // metrics, updated at the end of each window
+    private volatile long p50;
+
+    private volatile long p90;
+
+    private volatile long p99;
+
+    private volatile int stepDowns;
+
+    private volatile int stepUps;
+
+    // frames captured after startCapture()
+    private final long[] captured = new long[WINDOW];
+
+    private int capturedCount = -1;
+
+    private volatile boolean captureRequested;
+
+    private volatile long captureP50;
+
+    private volatile long captureP90;
+
+    private volatile long captureMax;
+
+    private volatile boolean captureDone;
+
+    /**
+     * @param periodNanos the tick period, in nanoseconds.
+     */
+    public FrameGovernor(long periodNanos) {
+        this.periodNanos = periodNanos;
+    }
+
+    /**
+     * Called once per tick by the game loop.
+     *
+     * @return true if this tick should be rendered.
+     */
+    public boolean shouldRender() {
+        credit += RENDER_RATES[level];
+        if (credit >= GameThread.PREFERRED_FPS) {
+            credit -= GameThread.PREFERRED_FPS;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the duration of a rendered tick, update included.
+     *
+     * @param nanos the duration, in nanoseconds.
+     */
+    public void recordFrame(long nanos) {
+        if (captureRequested) {
+            captureRequested = false;
+            capturedCount = 0;
+        }
+        if (capturedCount >= 0) capture(nanos);
+        samples[sampleCount++] = nanos;
+        if (sampleCount == WINDOW) {
+            sampleCount = 0;
+            decide();
+        }
+    }
+
+    /**
+     * Captures the next WINDOW rendered frames apart from the decision windows, e.g. the
+     * first frames of a game. Can be called from any thread.
+     */
+    public void startCapture() {
+        captureDone = false;
+        captureRequested = true;
+    }
+
+    private void capture(long nanos) {
+        captured[capturedCount++] = nanos;
+        if (capturedCount < WINDOW) return;
+        capturedCount = -1;
+        Arrays.sort(captured);
+        captureP50 = captured[WINDOW / 2];
+        captureP90 = captured[(int) (WINDOW * 0.9f)];
+        captureMax = captured[WINDOW - 1];
+        captureDone = true;
+    }
+
+    private void decide() {
+        System.arraycopy(samples, 0, sorted, 0, WINDOW);
+        Arrays.sort(sorted);
+        p50 = sorted[WINDOW / 2];
+        p90 = sorted[(int) (WINDOW * 0.9f)];
+        p99 = sorted[(int) (WINDOW * 0.99f)];
+        long decisive = sorted[(int) (WINDOW * DECISION_PERCENTILE)];
+        if (decisive > periodNanos && level < RENDER_RATES.length - 1) {
+            level++;
+            stepDowns++;
+        } else if (decisive < periodNanos / 2 && level > 0) {
+            level--;
+            stepUps++;
+        }
+    }
+
+    /**
+     * @return the current render rate, in frames per second.
+     */
+    public int getRenderRate() {
+        return RENDER_RATES[level];
+    }
+
+    /**
+     * @return median frame time of the last window, in nanoseconds.
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return 90th percentile frame time of the last window, in nanoseconds.
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * @return 99th percentile frame time of the last window, in nanoseconds.
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    public int getStepDowns() {
+        return stepDowns;
+    }
+
+    public int getStepUps() {
+        return stepUps;
+    }
+
+    /**
+     * @return true when the frames asked by startCapture() have been captured.
+     */
+    public boolean isCaptureDone() {
+        return captureDone;
+    }
+
+    /**
+     * @return median of the captured frame times, in nanoseconds.
+     */
+    public long getCaptureP50() {
+        return captureP50;
+    }
+
+    /**
+     * @return 90th percentile of the captured frame times, in nanoseconds.
+     */
+    public long getCaptureP90() {
+        return captureP90;
+    }
+
+    /**
+     * @return slowest captured frame, in nanoseconds.
+     */
+    public long getCaptureMax() {
+        return captureMax;
+    }
+
+    @Override
+    public String toString() {
+        String s = "render " + getRenderRate() + " fps, frame p50/p90/p99 " + p50 / 1000 + "/"
+                + p90 / 1000 + "/" + p99 / 1000 + " us, " + stepDowns + " down " + stepUps + " up";
+        if (captureDone) {
+            s += ", captured p50/p90/max " + captureP50 / 1000 + "/" + captureP90 / 1000 + "/"
+                    + captureMax / 1000 + " us";
+        }
+        return s;
+    }
+}
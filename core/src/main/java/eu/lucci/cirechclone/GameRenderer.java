@@ -25,4 +25,12 @@ package eu.lucci.cirechclone;
  */
 public interface GameRenderer {
     void renderGame(GameEngine game);
+
+    /**
+     * Renders a game with other games drawn over it as translucent ghosts.
+     *
+     * @param game   the played game.
+     * @param ghosts the ghosts, only those in play state are drawn.
+     */
+    void renderGame(GameEngine game, GameEngine[] ghosts);
 }
@@ -0,0 +1,223 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Statistics of finished games in constant memory: quantile sketches of the scores and of the
+ * durations, and counters of where the games were lost. A game is lost on the barrier with
+ * index equal to its score, so deaths are counted by barrier index and by step of
+ * BARRIERS_PER_STEP barriers. The speed of a step depends on the difficulty profile: with the
+ * default one, a step is a tenth of the base speed, barring timed speed changes.
+ * Stats can be saved compactly and merged, to combine those of several devices or threads.
+ * Thread safe.
+ */
+public class GameStats {
+
+    /**
+     * Version of the binary format written by write().
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Deaths on later barriers are counted together.
+     */
+    public static final int MAX_BARRIER = 255;
+
+    /**
+     * Deaths at higher speeds are counted together.
+     */
+    public static final int MAX_SPEED_STEP = 31;
+
+    /**
+     * Barriers per speed step. The default difficulty profile adds 1% of the base speed per
+     * barrier.
+     */
+    private static final int BARRIERS_PER_STEP = 10;
+
+    private final QuantileSketch scores = new QuantileSketch();
+
+    private final QuantileSketch ticks = new QuantileSketch();
+
+    private final long[] barrierDeaths = new long[MAX_BARRIER + 1];
+
+    private final long[] speedDeaths = new long[MAX_SPEED_STEP + 1];
+
+    /**
+     * Records a finished game.
+     *
+     * @param score the final score.
+     * @param ticks the ticks played.
+     */
+    public synchronized void record(int score, int ticks) {
+        scores.update(score);
+        this.ticks.update(ticks);
+        barrierDeaths[Math.min(score, MAX_BARRIER)]++;
+        speedDeaths[Math.min(score / BARRIERS_PER_STEP, MAX_SPEED_STEP)]++;
+    }
+
+    /**
+     * Records a game that is over.
+     *
+     * @param game the game.
+     */
+    public void record(CirechGame game) {
+        int score;
+        int ticks;
+        synchronized (game) {
+            score = game.score;
+            ticks = game.getTick();
+        }
+        record(score, ticks);
+    }
+
+    /**
+     * Adds the games of other stats to these.
+     *
+     * @param other the stats to merge, not changed.
+     */
+    public void merge(GameStats other) {
+        if (other == this) throw new IllegalArgumentException("merging stats with themselves");
+        // copy first, so that the two locks are never held together
+        GameStats copy = other.copy();
+        synchronized (this) {
+            scores.merge(copy.scores);
+            ticks.merge(copy.ticks);
+            for (int i = 0; i <= MAX_BARRIER; i++) barrierDeaths[i] += copy.barrierDeaths[i];
+            for (int i = 0; i <= MAX_SPEED_STEP; i++) speedDeaths[i] += copy.speedDeaths[i];
+        }
+    }
+
+    private synchronized GameStats copy() {
+        GameStats copy = new GameStats();
+        copy.scores.merge(scores);
+        copy.ticks.merge(ticks);
+        System.arraycopy(barrierDeaths, 0, copy.barrierDeaths, 0, barrierDeaths.length);
+        System.arraycopy(speedDeaths, 0, copy.speedDeaths, 0, speedDeaths.length);
+        return copy;
+    }
+
+    /**
+     * @return number of games recorded.
+     */
+    public synchronized long getGames() {
+        return scores.getCount();
+    }
+
+    /**
+     * @param q a fraction in [0, 1], 0.5 for the median.
+     * @return an estimate of the score quantile.
+     */
+    public synchronized int getScoreQuantile(float q) {
+        return scores.getQuantile(q);
+    }
+
+    /**
+     * @param q a fraction in [0, 1], 0.5 for the median.
+     * @return an estimate of the duration quantile, in ticks.
+     */
+    public synchronized int getTicksQuantile(float q) {
+        return ticks.getQuantile(q);
+    }
+
+    /**
+     * @param score a score.
+     * @return an estimate of the fraction of the games that ended with a lower score.
+     */
+    public synchronized float getScoreRank(int score) {
+        return scores.getRank(score);
+    }
+
+    /**
+     * @param barrier a barrier index, the last one counts every later barrier too.
+     * @return number of games lost on the barrier.
+     */
+    public synchronized long getBarrierDeaths(int barrier) {
+        return barrierDeaths[Math.min(barrier, MAX_BARRIER)];
+    }
+
+    /**
+     * @param step a speed step, the barriers from BARRIERS_PER_STEP * step.
+     * @return number of games lost on those barriers.
+     */
+    public synchronized long getSpeedDeaths(int step) {
+        return speedDeaths[Math.min(step, MAX_SPEED_STEP)];
+    }
+
+    /**
+     * Writes the stats, trailing empty counters are left out.
+     *
+     * @param out the output.
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        scores.write(out);
+        ticks.write(out);
+        writeCounters(out, barrierDeaths);
+        writeCounters(out, speedDeaths);
+    }
+
+    /**
+     * Reads stats written by write().
+     *
+     * @param in the input.
+     * @return the stats.
+     * @throws IOException if the data is not valid stats.
+     */
+    public static GameStats read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) throw new IOException("unknown stats version " + version);
+        GameStats stats = new GameStats();
+        try {
+            stats.scores.merge(QuantileSketch.read(in));
+            stats.ticks.merge(QuantileSketch.read(in));
+        } catch (IllegalArgumentException e) {
+            // a valid sketch of another size
+            throw new IOException(e.getMessage());
+        }
+        readCounters(in, stats.barrierDeaths);
+        readCounters(in, stats.speedDeaths);
+        return stats;
+    }
+
+    private static void writeCounters(DataOutput out, long[] counters) throws IOException {
+        int used = counters.length;
+        while (used > 0 && counters[used - 1] == 0) used--;
+        QuantileSketch.writeVarLong(out, used);
+        for (int i = 0; i < used; i++) QuantileSketch.writeVarLong(out, counters[i]);
+    }
+
+    private static void readCounters(DataInput in, long[] counters) throws IOException {
+        long used = QuantileSketch.readVarLong(in);
+        if (used < 0 || used > counters.length) throw new IOException("invalid counters");
+        for (int i = 0; i < used; i++) counters[i] = QuantileSketch.readVarLong(in);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return scores.getCount() + " games, score p50/p90/p99 " + scores.getQuantile(0.5f) + "/"
+                + scores.getQuantile(0.9f) + "/" + scores.getQuantile(0.99f) + ", ticks p50 "
+                + ticks.getQuantile(0.5f);
+    }
+}
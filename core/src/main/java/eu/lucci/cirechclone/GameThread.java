@@ -31,9 +31,9 @@ public class GameThread extends Thread {
     public final static int PREFERRED_FPS = 60;  // updates per second (Hz)
 
     /**
-     * Preferred sleep time of this thread, equal to (1 second / PREFERRED_FPS).
+     * Tick period of the game, equal to (1 second / PREFERRED_FPS), in nanoseconds.
      */
-    private final static long FRAME_PERIOD = 1000 / PREFERRED_FPS;
+    private final static long FRAME_PERIOD = 1000000000L / PREFERRED_FPS;
 
     /**
      * Max renders to skip while the game is behind.
@@ -46,6 +46,11 @@ public class GameThread extends Thread {
 
     private boolean running;    //thread running flag
 
+    /**
+     * Decides which ticks are rendered.
+     */
+    private final FrameGovernor governor = new FrameGovernor(FRAME_PERIOD);
+
     private GameThread.Callback callback;
 
     /**
@@ -67,28 +72,60 @@ public class GameThread extends Thread {
         this.running = state;
     }
 
+    /**
+     * @return the governor of the render rate, for its metrics.
+     */
+    public FrameGovernor getGovernor() {
+        return governor;
+    }
+
     /**
      * Game loop here.
+     * The game is updated PREFERRED_FPS times per second on a fixed schedule, the governor
+     * decides which updates are also rendered. When the loop is late, updates are caught up
+     * without rendering, up to MAX_SKIPPED_FRAMES.
      */
     public void run() {
         startup();
-        //todo: separate tps from fps
-        long delta;
         long beginTime;
+        long nextTick = System.nanoTime();
         long sleepPeriod;
+        int skipped;
+        long cpu;
         setRunning(true);
         while (running) {
-            beginTime = System.currentTimeMillis();
+            beginTime = System.nanoTime();
+            cpu = CpuAccounting.begin();
+            Tracer.begin(Tracer.UPDATE);
             game.updateGame();          //update game logic
-            renderer.renderGame(game);  //update screen
-            delta = (System.currentTimeMillis() - beginTime);  // time elapsed
-            sleepPeriod = FRAME_PERIOD - delta;
+            Tracer.end(Tracer.UPDATE);
+            nextTick += FRAME_PERIOD;
+            skipped = 0;
+            while (System.nanoTime() > nextTick && skipped < MAX_SKIPPED_FRAMES) {
+                Tracer.begin(Tracer.UPDATE);
+                game.updateGame();      //catch up, without rendering
+                Tracer.end(Tracer.UPDATE);
+                nextTick += FRAME_PERIOD;
+                skipped++;
+            }
+            CpuAccounting.end(CpuAccounting.SIMULATION, cpu);
+            if (governor.shouldRender()) {
+                cpu = CpuAccounting.begin();
+                Tracer.begin(Tracer.RENDER);
+                renderer.renderGame(game);  //update screen
+                Tracer.end(Tracer.RENDER);
+                CpuAccounting.end(CpuAccounting.RENDER, cpu);
+                governor.recordFrame(System.nanoTime() - beginTime);
+            }
+            sleepPeriod = nextTick - System.nanoTime();
             if (sleepPeriod > 0) {
                 try {
-                    Thread.sleep(sleepPeriod);
+                    Thread.sleep(sleepPeriod / 1000000, (int) (sleepPeriod % 1000000));
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
+            } else if (skipped == MAX_SKIPPED_FRAMES) {
+                nextTick = System.nanoTime();   //too late, give up catching up
             }
         }
         shutdown();
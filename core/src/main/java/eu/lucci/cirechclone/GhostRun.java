@@ -0,0 +1,192 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Races a game against the best run played so far. The best run is replayed on a second game,
+ * the ghost, which ticks in lockstep with the played game and is rendered over it.
+ * Racing is opt-in, see race(): a race starts from the seed of the best run, so both games
+ * read the same shared barrier sequence. Other runs keep the seed of the game and have no
+ * ghost, while the best run is still tracked. The ghost has no callbacks and no dispatcher,
+ * and nothing is allocated per tick.
+ */
+public class GhostRun implements GameEngine {
+
+    private final CirechGame game;
+
+    private final CirechGame ghost;
+
+    /**
+     * Ghosts to render, the array is reused.
+     */
+    private final CirechGame[] ghosts;
+
+    private final BarrierSequence sequence;
+
+    /**
+     * Replay of the best run, null before the first run ends.
+     */
+    private Replay best;
+
+    /**
+     * Difficulty profile best was played with.
+     */
+    private DifficultyProfile bestDifficulty;
+
+    /**
+     * Plays best on the ghost, null if the ghost is not running.
+     */
+    private ReplayPlayer player;
+
+    /**
+     * True while a run of the game is being played.
+     */
+    private boolean running;
+
+    /**
+     * True if the next run races against the best run.
+     */
+    private boolean racing;
+
+    /**
+     * @param game the played game.
+     */
+    public GhostRun(CirechGame game) {
+        this.game = game;
+        ghost = new CirechGame(game.isFixedPoint());
+        ghosts = new CirechGame[]{ghost};
+        sequence = new BarrierSequence(game.getSeed());
+        ghost.shareBarriers(sequence);
+        game.shareBarriers(sequence);   // last, the sequence keeps the seed of the game
+    }
+
+    /**
+     * Sets the executor used to pre-generate the shared barrier sequence off the game loop.
+     *
+     * @param executor the executor, or null to generate on the game loop.
+     */
+    public void setGeneratorExecutor(Executor executor) {
+        sequence.setExecutor(executor);
+    }
+
+    /**
+     * @return the played game.
+     */
+    public CirechGame getGame() {
+        return game;
+    }
+
+    /**
+     * @return the ghosts to render over the game, only those in play state are visible.
+     */
+    public CirechGame[] getGhosts() {
+        return ghosts;
+    }
+
+    /**
+     * @return the replay of the best run, or null.
+     */
+    public Replay getBest() {
+        return best;
+    }
+
+    /**
+     * Sets the run to race against, e.g. one loaded from a file. It is used from the next run.
+     *
+     * @param best a replay played in the same simulation mode and difficulty of the next game.
+     */
+    public void setBest(Replay best) {
+        DifficultyProfile difficulty = game.getNextDifficulty();
+        if (best != null && best.isFixedPoint() != game.isFixedPoint()) {
+            throw new IllegalArgumentException("simulation mode does not match the game");
+        }
+        if (best != null && best.getProfileId() != difficulty.getId()) {
+            throw new IllegalArgumentException("difficulty profile does not match the game");
+        }
+        this.best = best;
+        bestDifficulty = difficulty;
+    }
+
+    /**
+     * Starts a race against the best run: the game restarts from the seed of the best run and
+     * is played, while the best run is replayed on the ghost. It can be called from the menu
+     * or after a game over, from any thread.
+     *
+     * @return false if there is no best run played with the difficulty of the next game.
+     */
+    public boolean race() {
+        synchronized (game) {
+            int state = game.getCurrentState();
+            if (state != CirechGame.MENU_STATE && state != CirechGame.GAME_OVER_STATE) {
+                return false;
+            }
+            // the best run cannot be played again with another difficulty
+            if (best != null && best.getProfileId() != game.getNextDifficulty().getId()) {
+                best = null;
+            }
+            if (best == null) return false;
+            racing = true;
+            game.reset(best.getSeed());
+            game.setCurrentState(CirechGame.PLAY_STATE);
+            return true;
+        }
+    }
+
+    /**
+     * Updates the game and the ghost. The ghost only moves while the game is played.
+     */
+    @Override
+    public void updateGame() {
+        boolean playing;
+        synchronized (game) {
+            playing = game.getCurrentState() == CirechGame.PLAY_STATE;
+            if (playing && game.getTick() == 0) startRun();
+            game.updateGame();
+            if (running && game.getCurrentState() == CirechGame.GAME_OVER_STATE) endRun();
+            // a late input may have undone the game over
+            else if (game.getCurrentState() == CirechGame.PLAY_STATE) running = true;
+        }
+        if (playing && player != null && !player.isFinished()) player.updateGame();
+    }
+
+    /**
+     * Called on the first tick of a run, before anything is recorded.
+     */
+    private void startRun() {
+        running = true;
+        if (!racing) {
+            player = null;
+            ghost.setCurrentState(CirechGame.MENU_STATE);
+            return;
+        }
+        racing = false;
+        player = new ReplayPlayer(best, ghost, bestDifficulty);
+    }
+
+    private void endRun() {
+        running = false;
+        if (best == null || game.score > best.getScore()) {
+            best = game.getReplay();
+            bestDifficulty = game.getDifficulty();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal animated GIF encoder for frames with a small fixed palette.
+ * Frames are compressed independently with encodeFrame(), so they can be compressed in parallel,
+ * then written in order with writeFrame().
+ */
+public class GifEncoder {
+
+    private static final int MAX_CODES = 4096;
+
+    private static final int HASH_SIZE = 5003;  // prime, about 80% occupancy
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * ARGB colors of the global color table.
+     */
+    private final int[] palette;
+
+    /**
+     * Bits per pixel index, the table holds 2^bits colors.
+     */
+    private final int bits;
+
+    // per encoder state, an encoder must not be used by more threads at the same time
+    private final byte[] indices;
+
+    private final int[] hashKeys = new int[HASH_SIZE];
+
+    private final int[] hashCodes = new int[HASH_SIZE];
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final byte[] block = new byte[255];
+
+    private int blockSize;
+
+    private int bitBuffer;
+
+    private int bitCount;
+
+    /**
+     * @param width   frame width.
+     * @param height  frame height.
+     * @param palette frame colors, at most 256.
+     */
+    public GifEncoder(int width, int height, int[] palette) {
+        if (palette.length > 256) throw new IllegalArgumentException("too many colors");
+        this.width = width;
+        this.height = height;
+        this.palette = palette.clone();
+        int b = 1;
+        while ((1 << b) < palette.length) b++;
+        bits = Math.max(2, b);  // LZW needs at least 2 bits
+        indices = new byte[width * height];
+    }
+
+    /**
+     * @return a new encoder with the same size and palette, to be used by another thread.
+     */
+    public GifEncoder copy() {
+        return new GifEncoder(width, height, palette);
+    }
+
+    /**
+     * Writes the header, the global color table and the loop extension.
+     */
+    public void writeHeader(OutputStream out) throws IOException {
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0x80 | ((bits - 1) << 4) | (bits - 1));  // global table, 2^bits colors
+        out.write(0);   // background color index
+        out.write(0);   // pixel aspect ratio
+        for (int i = 0; i < 1 << bits; i++) {
+            int c = i < palette.length ? palette[i] : 0;
+            out.write((c >> 16) & 0xFF);
+            out.write((c >> 8) & 0xFF);
+            out.write(c & 0xFF);
+        }
+        // loop forever
+        out.write(new byte[]{0x21, (byte) 0xFF, 0x0B,
+                'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 0x03, 0x01, 0x00, 0x00, 0x00});
+    }
+
+    /**
+     * Writes a frame compressed by encodeFrame().
+     *
+     * @param out     the stream.
+     * @param frame   the compressed frame.
+     * @param delayCs how long the frame is shown, in hundredths of second.
+     */
+    public static void writeFrame(OutputStream out, byte[] frame, int delayCs) throws IOException {
+        out.write(new byte[]{0x21, (byte) 0xF9, 0x04, 0x00});   // graphic control extension
+        writeShort(out, delayCs);
+        out.write(0);   // transparent color index, unused
+        out.write(0);
+        out.write(frame);
+    }
+
+    /**
+     * Writes the trailer, ending the file.
+     */
+    public static void writeTrailer(OutputStream out) throws IOException {
+        out.write(0x3B);
+    }
+
+    /**
+     * Compresses an ARGB frame into an image descriptor and its LZW data. Colors missing from
+     * the palette are written as the first palette color.
+     *
+     * @param pixels the frame, width * height ARGB ints.
+     * @return the compressed frame.
+     */
+    public byte[] encodeFrame(int[] pixels) {
+        // map colors to palette indices
+        int last = palette[0], lastIndex = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int p = pixels[i];
+            if (p != last) {
+                last = p;
+                lastIndex = 0;
+                for (int j = 0; j < palette.length; j++) {
+                    if (palette[j] == p) {
+                        lastIndex = j;
+                        break;
+                    }
+                }
+            }
+            indices[i] = (byte) lastIndex;
+        }
+        buffer.reset();
+        buffer.write(0x2C);     // image descriptor
+        writeShort(buffer, 0);
+        writeShort(buffer, 0);
+        writeShort(buffer, width);
+        writeShort(buffer, height);
+        buffer.write(0);        // no local color table, not interlaced
+        buffer.write(bits);     // LZW minimum code size
+        compress();
+        buffer.write(0);        // block terminator
+        return buffer.toByteArray();
+    }
+
+    /**
+     * LZW compression of the indices, as specified by GIF89a.
+     */
+    private void compress() {
+        int clearCode = 1 << bits;
+        int endCode = clearCode + 1;
+        int codeSize = bits + 1;
+        int maxCode = (1 << codeSize) - 1;
+        int nextCode = clearCode + 2;
+        Arrays.fill(hashKeys, -1);
+        blockSize = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+
+        writeCode(clearCode, codeSize);
+        int prefix = indices[0] & 0xFF;
+        for (int i = 1; i < indices.length; i++) {
+            int c = indices[i] & 0xFF;
+            int key = (c << 12) | prefix;
+            int h = (c << 4) ^ prefix;  // xor hashing
+            boolean found = false;
+            while (hashKeys[h] >= 0) {
+                if (hashKeys[h] == key) {
+                    prefix = hashCodes[h];
+                    found = true;
+                    break;
+                }
+                if (++h == HASH_SIZE) h = 0;
+            }
+            if (found) continue;
+            writeCode(prefix, codeSize);
+            if (nextCode > maxCode) {
+                codeSize++;
+                maxCode = codeSize == 12 ? MAX_CODES : (1 << codeSize) - 1;
+            }
+            if (nextCode < MAX_CODES) {
+                hashKeys[h] = key;
+                hashCodes[h] = nextCode++;
+            } else {
+                // table full, start again
+                writeCode(clearCode, codeSize);
+                Arrays.fill(hashKeys, -1);
+                nextCode = clearCode + 2;
+                codeSize = bits + 1;
+                maxCode = (1 << codeSize) - 1;
+            }
+            prefix = c;
+        }
+        writeCode(prefix, codeSize);
+        if (nextCode > maxCode && codeSize < 12) codeSize++;
+        writeCode(endCode, codeSize);
+        if (bitCount > 0) writeByte(bitBuffer & 0xFF);
+        flushBlock();
+    }
+
+    private void writeCode(int code, int size) {
+        bitBuffer |= code << bitCount;
+        bitCount += size;
+        while (bitCount >= 8) {
+            writeByte(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte(int b) {
+        block[blockSize++] = (byte) b;
+        if (blockSize == block.length) flushBlock();
+    }
+
+    private void flushBlock() {
+        if (blockSize > 0) {
+            buffer.write(blockSize);
+            buffer.write(block, 0, blockSize);
+            blockSize = 0;
+        }
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >> 8) & 0xFF);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int v) {
+        out.write(v & 0xFF);
+        out.write((v >> 8) & 0xFF);
+    }
+}
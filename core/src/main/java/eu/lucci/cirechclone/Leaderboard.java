@@ -0,0 +1,242 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory leaderboard. Scores are counted in a Fenwick tree with one bucket per score, so
+ * rank queries are O(log n) whatever the number of entries. Entries with the same score are
+ * ranked by insertion order.
+ * The tree grows with the best score, up to MAX_SCORE: 4 MB. Only the scores with entries
+ * have a bucket.
+ * Readers run concurrently, insertions are exclusive.
+ */
+public class Leaderboard {
+
+    /**
+     * Highest score accepted, far above what a game can reach.
+     */
+    public static final int MAX_SCORE = (1 << 20) - 1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Fenwick tree of the number of entries per score, 1-based: score s is at index s + 1.
+     */
+    private int[] tree;
+
+    /**
+     * Entries per score, only for the scores with entries.
+     */
+    private final Map<Integer, List<Entry>> buckets = new HashMap<>();
+
+    private int size;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public Leaderboard() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        tree = new int[capacity + 1];
+        // linear time build
+        for (Map.Entry<Integer, List<Entry>> bucket : buckets.entrySet()) {
+            tree[bucket.getKey() + 1] = bucket.getValue().size();
+        }
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) tree[parent] += tree[i];
+        }
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param player the player name.
+     * @param score  the score, in [0, MAX_SCORE].
+     * @return the new entry.
+     */
+    public Entry insert(String player, int score) {
+        if (score < 0 || score > MAX_SCORE) {
+            throw new IllegalArgumentException("score out of range: " + score);
+        }
+        lock.writeLock().lock();
+        try {
+            int capacity = tree.length - 1;
+            if (score >= capacity) {
+                // no overflow: highestOneBit(MAX_SCORE) * 2 == MAX_SCORE + 1
+                allocate(Math.max(capacity * 2, Integer.highestOneBit(score) * 2));
+            }
+            List<Entry> bucket = buckets.get(score);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                buckets.put(score, bucket);
+            }
+            Entry entry = new Entry(player, score);
+            bucket.add(entry);
+            for (int i = score + 1; i < tree.length; i += i & -i) tree[i]++;
+            size++;
+            return entry;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param score a score.
+     * @return the rank the score would get, 1 is the best: one plus the number of greater scores.
+     */
+    public int rankOf(int score) {
+        lock.readLock().lock();
+        try {
+            return size - countAtMost(score) + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param k how many entries.
+     * @return the best k entries, best first.
+     */
+    public List<Entry> top(int k) {
+        lock.readLock().lock();
+        try {
+            return range(1, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param score  a score.
+     * @param radius how many entries before and after.
+     * @return the entries ranked around the given score, best first.
+     */
+    public List<Entry> around(int score, int radius) {
+        lock.readLock().lock();
+        try {
+            int rank = size - countAtMost(score) + 1;
+            int first = Math.max(1, rank - radius);
+            return range(first, rank + radius - first + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param first rank of the first entry.
+     * @param count number of entries.
+     * @return entries from the given rank, best first.
+     */
+    private List<Entry> range(int first, int count) {
+        int last = Math.min(size, first + count - 1);
+        List<Entry> result = new ArrayList<>(Math.max(0, last - first + 1));
+        int rank = first;
+        while (rank <= last) {
+            // the entry of rank r is the (size - r + 1)-th lowest
+            int score = select(size - rank + 1);
+            List<Entry> bucket = buckets.get(score);
+            int above = size - countAtMost(score);   // entries with a greater score
+            for (int i = rank - above - 1; i < bucket.size() && rank <= last; i++, rank++) {
+                result.add(bucket.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of entries with a score lower or equal to the given one.
+     */
+    private int countAtMost(int score) {
+        if (score < 0) return 0;
+        int count = 0;
+        for (int i = Math.min(score + 1, tree.length - 1); i > 0; i -= i & -i) count += tree[i];
+        return count;
+    }
+
+    /**
+     * @param k a position, in [1, size].
+     * @return the score of the k-th lowest entry.
+     */
+    private int select(int k) {
+        int index = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = index + step;
+            if (next < tree.length && tree[next] < k) {
+                index = next;
+                k -= tree[next];
+            }
+        }
+        return index;   // 1-based index + 1, minus one for the score
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(tree, 0);
+            buckets.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A leaderboard entry.
+     */
+    public static class Entry {
+        public final String player;
+        public final int score;
+
+        Entry(String player, int score) {
+            this.player = player;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return player + ": " + score;
+        }
+    }
+}
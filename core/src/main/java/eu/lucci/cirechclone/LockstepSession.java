@@ -0,0 +1,462 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+
+/**
+ * Head-to-head game between two players on two machines. Both players play the same seed,
+ * each machine simulates both games and only the color switches are exchanged, stamped with
+ * the tick they apply to.
+ * <p>
+ * A local switch is applied inputDelay ticks later, which gives it time to reach the other
+ * machine. The game of the other player doesn't wait for late inputs: it is simulated as if
+ * there was no switch, and rewound when the switch arrives (see CirechGame.switchColorAt()).
+ * The session only stalls when the other player is more than ROLLBACK_TICKS behind.
+ * <p>
+ * The session ends early, with both games over, if an input of the other player arrives too
+ * late to rewind its game (DESYNC_STATE) or if the transport fails (DISCONNECTED_STATE).
+ * <p>
+ * Packets carry every local input not yet acknowledged, one bit per tick, so lost packets are
+ * covered by the next ones:
+ * <pre>
+ * byte    MAGIC
+ * varint  ack: every input of the other player before this tick was received
+ * varint  first tick of the inputs
+ * byte    number of ticks, at most MAX_TICKS_PER_PACKET
+ * bytes   one bit per tick, 1 if the color is switched, lowest bit first
+ * </pre>
+ */
+public class LockstepSession implements GameEngine {
+
+    // Session states
+    public static final int RUNNING_STATE = 0;
+    public static final int DESYNC_STATE = 1;
+    public static final int DISCONNECTED_STATE = 2;
+
+    public static final int DEFAULT_INPUT_DELAY = 2;
+
+    private static final byte MAGIC = (byte) 0xC5;
+
+    private static final int MAX_TICKS_PER_PACKET = 128;
+
+    private static final int RING = 256;    // power of two, more than MAX_TICKS_PER_PACKET
+
+    private static final int MASK = RING - 1;
+
+    private final Transport transport;
+
+    private final CirechGame local;
+
+    private final CirechGame remote;
+
+    private final int inputDelay;
+
+    private volatile int state = RUNNING_STATE;
+
+    /**
+     * The transport failure that ended the session, or null.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Next tick to simulate.
+     */
+    private int tick;
+
+    /**
+     * Local switches by tick, 1 if the color is switched.
+     */
+    private final byte[] localSwitches = new byte[RING];
+
+    /**
+     * System.nanoTime() when each local tick was first sent.
+     */
+    private final long[] sentTimes = new long[RING];
+
+    /**
+     * Every local input before this tick is final, and sent.
+     */
+    private int localKnown;
+
+    /**
+     * The other player received every local input before this tick.
+     */
+    private int localAcked;
+
+    /**
+     * Switches of the other player by tick.
+     */
+    private final byte[] remoteSwitches = new byte[RING];
+
+    /**
+     * Every input of the other player before this tick was received.
+     */
+    private int remoteConfirmed;
+
+    private final byte[] packet = new byte[Transport.MAX_PACKET];
+
+    /**
+     * Read position in the packet being parsed.
+     */
+    private int readPos;
+
+    // metrics
+    private final long startTime = System.nanoTime();
+
+    private volatile long bytesSent;
+
+    private volatile long bytesReceived;
+
+    private volatile int packetsSent;
+
+    private volatile int packetsReceived;
+
+    private volatile int badPackets;
+
+    private volatile int stalls;
+
+    private volatile int rollbacks;
+
+    private volatile int maxRollbackTicks;
+
+    private volatile long rttSamples;
+
+    private volatile long rttTotalNanos;
+
+    private volatile long rttMaxNanos;
+
+    /**
+     * @param transport  the transport to the other player.
+     * @param seed       the seed both players play, they must agree on it.
+     * @param fixedPoint the simulation mode, both players must agree on it.
+     * @param inputDelay ticks between a local switch and its effect.
+     */
+    public LockstepSession(Transport transport, long seed, boolean fixedPoint, int inputDelay) {
+        if (inputDelay < 0 || inputDelay >= MAX_TICKS_PER_PACKET / 2) {
+            throw new IllegalArgumentException("bad input delay: " + inputDelay);
+        }
+        this.transport = transport;
+        this.inputDelay = inputDelay;
+        local = new CirechGame(fixedPoint);
+        remote = new CirechGame(fixedPoint);
+        remote.setRollbackEnabled(true);
+        local.reset(seed);
+        remote.reset(seed);
+        local.setCurrentState(CirechGame.PLAY_STATE);
+        remote.setCurrentState(CirechGame.PLAY_STATE);
+        localKnown = inputDelay;    // no inputs before the delay
+    }
+
+    /**
+     * @return the game of the local player.
+     */
+    public CirechGame getLocalGame() {
+        return local;
+    }
+
+    /**
+     * @return the game of the other player, as far as it is known.
+     */
+    public CirechGame getRemoteGame() {
+        return remote;
+    }
+
+    /**
+     * @return the state of the session, one of the constants.
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return the transport failure that ended the session, or null.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the next tick to simulate.
+     */
+    public synchronized int getTick() {
+        return tick;
+    }
+
+    /**
+     * Switches the color of the local game, inputDelay ticks from now.
+     */
+    public synchronized void switchColor() {
+        localSwitches[(tick + inputDelay) & MASK] ^= 1;
+    }
+
+    /**
+     * Receives the packets of the other player, simulates a tick if possible and sends the
+     * local inputs. Called every tick period, it does nothing once the session has ended.
+     */
+    @Override
+    public synchronized void updateGame() {
+        if (state != RUNNING_STATE) return;
+        try {
+            receivePackets();
+            if (state != RUNNING_STATE) return;
+            if (canAdvance()) advance();
+            else if (!bothOver()) stalls++;
+            sendPacket();
+        } catch (IOException e) {
+            failure = e;
+            end(DISCONNECTED_STATE);
+        }
+    }
+
+    /**
+     * Ends the session early, the games still in play are over.
+     *
+     * @param state why the session ends.
+     */
+    private void end(int state) {
+        this.state = state;
+        if (local.getCurrentState() == CirechGame.PLAY_STATE) {
+            local.setCurrentState(CirechGame.GAME_OVER_STATE);
+        }
+        if (remote.getCurrentState() == CirechGame.PLAY_STATE) {
+            remote.setCurrentState(CirechGame.GAME_OVER_STATE);
+        }
+    }
+
+    /**
+     * @return true when both games are over for sure, and the other player knows it, or when
+     * the session has ended early.
+     */
+    public synchronized boolean isFinished() {
+        return state != RUNNING_STATE || bothOver() && remoteConfirmed >= remote.getTick()
+                && localAcked >= local.getTick();
+    }
+
+    private boolean bothOver() {
+        return local.getCurrentState() != CirechGame.PLAY_STATE
+                && remote.getCurrentState() != CirechGame.PLAY_STATE;
+    }
+
+    private boolean canAdvance() {
+        if (bothOver()) return false;
+        // every unacknowledged local input must fit in a packet
+        if (tick + 1 + inputDelay - localAcked > MAX_TICKS_PER_PACKET) return false;
+        boolean remoteOver = remote.getCurrentState() != CirechGame.PLAY_STATE
+                && remoteConfirmed >= remote.getTick();
+        // a late remote input must still be able to rewind the remote game
+        return remoteOver || tick + 1 - remoteConfirmed <= CirechGame.ROLLBACK_TICKS;
+    }
+
+    private void advance() {
+        if (local.getCurrentState() == CirechGame.PLAY_STATE) {
+            if (localSwitches[tick & MASK] != 0) local.switchColor();
+            local.updateGame();
+        }
+        stepRemote(tick + 1);
+        tick++;
+        // the input slot entering the delay window starts empty
+        sentTimes[localKnown & MASK] = System.nanoTime();
+        localKnown++;
+        localSwitches[(tick + inputDelay) & MASK] = 0;
+    }
+
+    /**
+     * Simulates the remote game up to the given tick, predicting no switch for the inputs not
+     * received yet.
+     *
+     * @param end the tick to reach, exclusive.
+     */
+    private void stepRemote(int end) {
+        while (remote.getCurrentState() == CirechGame.PLAY_STATE && remote.getTick() < end) {
+            int t = remote.getTick();
+            if (t < remoteConfirmed && remoteSwitches[t & MASK] != 0) remote.switchColor();
+            remote.updateGame();
+        }
+    }
+
+    private void receivePackets() throws IOException {
+        int length;
+        while (state == RUNNING_STATE && (length = transport.receive(packet)) >= 0) {
+            packetsReceived++;
+            bytesReceived += length;
+            if (!readPacket(length)) badPackets++;
+        }
+    }
+
+    /**
+     * @return false if the packet is malformed.
+     */
+    private boolean readPacket(int length) {
+        if (length < 4 || packet[0] != MAGIC) return false;
+        readPos = 1;
+        int ack = readVarInt(length);
+        int first = readVarInt(length);
+        if (ack < 0 || first < 0 || readPos >= length) return false;
+        int count = packet[readPos++] & 0xFF;
+        if (count > MAX_TICKS_PER_PACKET || readPos + (count + 7) / 8 > length) return false;
+        if (ack > localAcked && ack <= localKnown) {
+            long rtt = System.nanoTime() - sentTimes[(ack - 1) & MASK];
+            rttSamples++;
+            rttTotalNanos += rtt;
+            if (rtt > rttMaxNanos) rttMaxNanos = rtt;
+            localAcked = ack;
+        }
+        for (int i = 0; i < count && state == RUNNING_STATE; i++) {
+            int t = first + i;
+            if (t < remoteConfirmed) continue;  // already known
+            if (t > remoteConfirmed) break;     // a gap, wait for it
+            boolean switched = (packet[readPos + i / 8] & (1 << (i % 8))) != 0;
+            confirmRemote(t, switched);
+        }
+        return true;
+    }
+
+    /**
+     * Records an input of the other player. If its tick was already simulated without it,
+     * the remote game is rewound; if it can't be anymore, the session ends desynchronized.
+     */
+    private void confirmRemote(int t, boolean switched) {
+        remoteSwitches[t & MASK] = (byte) (switched ? 1 : 0);
+        remoteConfirmed = t + 1;
+        if (!switched || t >= remote.getTick()) return;
+        int depth = remote.getTick() - t;
+        if (!remote.switchColorAtTick(t)) {
+            end(DESYNC_STATE);
+            return;
+        }
+        rollbacks++;
+        if (depth > maxRollbackTicks) maxRollbackTicks = depth;
+        // a game over may have been undone, catch up with the session
+        stepRemote(tick);
+    }
+
+    private void sendPacket() throws IOException {
+        if (packetsSent == 0) {     // the empty inputs before the delay are sent now
+            for (int t = 0; t < inputDelay; t++) sentTimes[t] = System.nanoTime();
+        }
+        int first = localAcked;
+        int count = Math.min(localKnown - first, MAX_TICKS_PER_PACKET);
+        int pos = 0;
+        packet[pos++] = MAGIC;
+        pos = writeVarInt(packet, pos, remoteConfirmed);
+        pos = writeVarInt(packet, pos, first);
+        packet[pos++] = (byte) count;
+        int bytes = (count + 7) / 8;
+        for (int i = 0; i < bytes; i++) packet[pos + i] = 0;
+        for (int i = 0; i < count; i++) {
+            if (localSwitches[(first + i) & MASK] != 0) packet[pos + i / 8] |= 1 << (i % 8);
+        }
+        pos += bytes;
+        transport.send(packet, pos);
+        packetsSent++;
+        bytesSent += pos;
+    }
+
+    private static int writeVarInt(byte[] buffer, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[pos++] = (byte) v;
+        return pos;
+    }
+
+    /**
+     * Reads a varint of the packet at readPos.
+     *
+     * @return the value, or -1 if the varint is malformed.
+     */
+    private int readVarInt(int length) {
+        int v = 0;
+        for (int shift = 0; shift < 32 && readPos < length; shift += 7) {
+            int b = packet[readPos++];
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        return -1;
+    }
+
+    /**
+     * @return bytes sent per second since the session started.
+     */
+    public double getSendRate() {
+        return bytesSent * 1e9 / (System.nanoTime() - startTime);
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public int getPacketsSent() {
+        return packetsSent;
+    }
+
+    public int getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return number of updates that could not simulate a tick while waiting for the other
+     * player.
+     */
+    public int getStalls() {
+        return stalls;
+    }
+
+    /**
+     * @return number of times the remote game was rewound.
+     */
+    public int getRollbacks() {
+        return rollbacks;
+    }
+
+    public int getMaxRollbackTicks() {
+        return maxRollbackTicks;
+    }
+
+    /**
+     * @return mean time between sending an input and receiving its acknowledgement, in
+     * nanoseconds. Packets are only read and sent once per tick, so it includes up to a tick
+     * period on each side.
+     */
+    public long getMeanRttNanos() {
+        long n = rttSamples;
+        return n == 0 ? 0 : rttTotalNanos / n;
+    }
+
+    public long getMaxRttNanos() {
+        return rttMaxNanos;
+    }
+
+    @Override
+    public String toString() {
+        String ended = state == DESYNC_STATE ? "desynchronized, "
+                : state == DISCONNECTED_STATE ? "disconnected (" + failure + "), " : "";
+        return ended + String.format("tick %d, sent %d packets %d bytes (%.0f B/s), received %d packets"
+                        + " %d bytes (%d bad), rtt %.1f ms (max %.1f ms), %d stalls, %d rollbacks"
+                        + " (max %d ticks)", tick, packetsSent, bytesSent, getSendRate(),
+                packetsReceived, bytesReceived, badPackets, getMeanRttNanos() / 1e6,
+                rttMaxNanos / 1e6, stalls, rollbacks, maxRollbackTicks);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-process Transport: two connected endpoints exchanging packets through queues. Packets are
+ * never lost nor delayed, wrap an endpoint in a DelayedTransport to simulate a network.
+ */
+public class LoopbackTransport implements Transport {
+
+    private final ConcurrentLinkedQueue<byte[]> in;
+
+    private final ConcurrentLinkedQueue<byte[]> out;
+
+    private volatile boolean closed;
+
+    private LoopbackTransport(ConcurrentLinkedQueue<byte[]> in, ConcurrentLinkedQueue<byte[]> out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * @return two connected endpoints.
+     */
+    public static LoopbackTransport[] pair() {
+        ConcurrentLinkedQueue<byte[]> a = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<byte[]> b = new ConcurrentLinkedQueue<>();
+        return new LoopbackTransport[]{new LoopbackTransport(a, b), new LoopbackTransport(b, a)};
+    }
+
+    @Override
+    public void send(byte[] data, int length) throws IOException {
+        if (closed) throw new IOException("closed");
+        out.add(Arrays.copyOf(data, length));
+    }
+
+    @Override
+    public int receive(byte[] buffer) throws IOException {
+        if (closed) throw new IOException("closed");
+        byte[] packet = in.poll();
+        if (packet == null) return -1;
+        System.arraycopy(packet, 0, buffer, 0, packet.length);
+        return packet.length;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
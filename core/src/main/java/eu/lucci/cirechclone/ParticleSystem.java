@@ -0,0 +1,177 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+/**
+ * Particles of the visual effects, stored as parallel primitive arrays allocated once: a
+ * dead particle is replaced by the last one, so the live particles stay packed at the front
+ * and the update is a linear pass. The budget is hard: the fuller the arrays, the smaller the
+ * bursts, so effects thin out under load instead of stalling the frame.
+ * Positions are in game units: x across the screen in [0, 1], y along the lanes like the
+ * barrier positions, growing downwards. Particles are cosmetic, they are not part of the
+ * game state and are not rolled back.
+ * Used by the thread updating the game.
+ */
+public class ParticleSystem {
+
+    /**
+     * Downward acceleration, per tick.
+     */
+    private static final float GRAVITY = 0.0004f;
+
+    private final int capacity;
+
+    private final float[] x;
+    private final float[] y;
+    private final float[] vx;
+    private final float[] vy;
+    private final int[] life;
+    private final boolean[] color;
+
+    private int count;
+
+    private int random = 0x2545F491;
+
+    // stats
+    private long emitted;
+
+    private long dropped;
+
+    /**
+     * @param capacity the budget, most particles alive at once.
+     */
+    public ParticleSystem(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity: " + capacity);
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        life = new int[capacity];
+        color = new boolean[capacity];
+    }
+
+    /**
+     * Emits a burst of particles in every direction. The burst is cut down by the fraction
+     * of the budget in use, and never takes more than the free part of it.
+     *
+     * @param px    x of the burst.
+     * @param py    y of the burst.
+     * @param n     particles wanted.
+     * @param c     color of the particles, like the barrier colors.
+     * @param speed top speed of the particles, per tick.
+     * @param ticks life of the particles.
+     */
+    public void emit(float px, float py, int n, boolean c, float speed, int ticks) {
+        int free = capacity - count;
+        // a burst bigger than the whole budget is cut down to the free slots
+        int allowed = (int) Math.min(free, (long) n * free / capacity);
+        for (int k = 0; k < allowed; k++) {
+            int i = count++;
+            x[i] = px;
+            y[i] = py;
+            vx[i] = (nextFloat() * 2 - 1) * speed;
+            vy[i] = (nextFloat() * 2 - 1) * speed;
+            // stagger the deaths, so that a burst fades out
+            life[i] = ticks / 2 + (int) (nextFloat() * ticks / 2) + 1;
+            color[i] = c;
+        }
+        emitted += allowed;
+        dropped += n - allowed;
+    }
+
+    /**
+     * Moves the particles and removes the dead ones. Call it once per tick.
+     */
+    public void update() {
+        int n = count;
+        int i = 0;
+        while (i < n) {
+            if (--life[i] <= 0) {
+                n--;
+                x[i] = x[n];
+                y[i] = y[n];
+                vx[i] = vx[n];
+                vy[i] = vy[n];
+                life[i] = life[n];
+                color[i] = color[n];
+                continue;   // the moved particle is updated in its turn
+            }
+            x[i] += vx[i];
+            vy[i] += GRAVITY;
+            y[i] += vy[i];
+            i++;
+        }
+        count = n;
+    }
+
+    /**
+     * Writes the screen coordinates of the particles of a color, for Canvas.drawPoints().
+     *
+     * @param c      the color.
+     * @param out    (x, y) pairs, at least 2 * getCapacity() long.
+     * @param width  screen width.
+     * @param yScale screen pixels per game unit.
+     * @return number of floats written.
+     */
+    public int fillPoints(boolean c, float[] out, float width, float yScale) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (color[i] != c) continue;
+            out[n++] = x[i] * width;
+            out[n++] = y[i] * yScale;
+        }
+        return n;
+    }
+
+    /**
+     * Removes every particle.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * @return particles not emitted to stay in the budget.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    private float nextFloat() {
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return (random >>> 8) / (float) (1 << 24);
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * KLL sketch of a stream of ints: answers quantile and rank queries within about 1.7% of rank
+ * error with the default k, whatever the length of the stream, in a few kilobytes.
+ * Items are kept in levels, an item in level h stands for 2^h items of the stream. When the
+ * sketch is full the lowest full level is sorted and every other item, starting at a random
+ * offset, moves up a level. Levels get smaller going down, so that memory stays close to 3k
+ * items. Two sketches are merged by concatenating their levels and compacting again, so
+ * sketches built on different devices or threads can be combined.
+ * Not thread safe.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    /**
+     * Ratio between the capacities of two consecutive levels.
+     */
+    private static final float CAPACITY_RATIO = 2 / 3f;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private static final int MAX_LEVELS = 62;
+
+    private final int k;
+
+    private int[][] levels = new int[1][];
+
+    private int[] sizes = new int[1];
+
+    private int levelCount = 1;
+
+    /**
+     * Items held, in every level.
+     */
+    private int size;
+
+    /**
+     * Items that can be held before compacting.
+     */
+    private int capacity;
+
+    private long count;
+
+    private int min = Integer.MAX_VALUE;
+
+    private int max = Integer.MIN_VALUE;
+
+    /**
+     * State of the generator of the compaction offsets.
+     */
+    private long random = 0x9E3779B97F4A7C15L;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k accuracy parameter, the rank error shrinks about as 1 / k.
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_CAPACITY || k > 1 << 16) throw new IllegalArgumentException("k: " + k);
+        this.k = k;
+        levels[0] = new int[levelCapacity(0) + 1];
+        capacity = totalCapacity();
+    }
+
+    private int levelCapacity(int level) {
+        int depth = levelCount - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for (int h = 0; h < levelCount; h++) total += levelCapacity(h);
+        return total;
+    }
+
+    /**
+     * Adds an item.
+     *
+     * @param item the item.
+     */
+    public void update(int item) {
+        if (item < min) min = item;
+        if (item > max) max = item;
+        count++;
+        append(0, item);
+        if (size >= capacity) compress();
+    }
+
+    private void append(int level, int item) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = item;
+        size++;
+    }
+
+    private void addLevel() {
+        if (levelCount == MAX_LEVELS) throw new IllegalStateException("sketch full");
+        if (levelCount == levels.length) {
+            levels = Arrays.copyOf(levels, levelCount * 2);
+            sizes = Arrays.copyOf(sizes, levelCount * 2);
+        }
+        levels[levelCount] = new int[MIN_CAPACITY];
+        levelCount++;
+        capacity = totalCapacity();
+    }
+
+    /**
+     * Compacts the lowest full levels until the sketch is under capacity.
+     */
+    private void compress() {
+        for (int h = 0; h < levelCount && size >= capacity; h++) {
+            if (sizes[h] < levelCapacity(h)) continue;
+            if (h + 1 == levelCount) addLevel();
+            int[] items = levels[h];
+            int n = sizes[h];
+            Arrays.sort(items, 0, n);
+            // an odd item out stays in this level
+            int even = n & ~1;
+            int offset = nextBit();
+            for (int i = offset; i < even; i += 2) append(h + 1, items[i]);
+            if (even < n) items[0] = items[even];
+            sizes[h] = n - even;
+            size -= even;
+        }
+    }
+
+    private int nextBit() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) (random >>> 63);
+    }
+
+    /**
+     * Adds the items of another sketch with the same k to this one, the other sketch is not
+     * changed.
+     *
+     * @param other the sketch to merge.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.k != k) throw new IllegalArgumentException("k does not match");
+        if (other.count == 0) return;
+        while (levelCount < other.levelCount) addLevel();
+        for (int h = 0; h < other.levelCount; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) append(h, other.levels[h][i]);
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        while (size >= capacity) compress();
+    }
+
+    /**
+     * @return number of items added, merged ones included.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the items held with their levels, (item << 8 | level), sorted by item.
+     */
+    private long[] sorted() {
+        long[] all = new long[size];
+        int n = 0;
+        for (int h = 0; h < levelCount; h++) {
+            for (int i = 0; i < sizes[h]; i++) all[n++] = (long) levels[h][i] << 8 | h;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * @param q a fraction in [0, 1].
+     * @return an estimate of the item with rank q, 0 if the sketch is empty.
+     */
+    public int getQuantile(float q) {
+        if (count == 0) return 0;
+        if (q <= 0) return min;
+        if (q >= 1) return max;
+        long[] all = sorted();
+        long target = (long) (q * count);
+        long weight = 0;
+        for (long entry : all) {
+            weight += 1L << (entry & 0xFF);
+            if (weight > target) return (int) (entry >> 8);
+        }
+        return max;
+    }
+
+    /**
+     * @param item an item.
+     * @return an estimate of the fraction of the items smaller than the given one.
+     */
+    public float getRank(int item) {
+        if (count == 0) return 0;
+        long weight = 0;
+        for (int h = 0; h < levelCount; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                if (levels[h][i] < item) weight += 1L << h;
+            }
+        }
+        return (float) weight / count;
+    }
+
+    /**
+     * Writes the sketch, levels are sorted and delta encoded.
+     *
+     * @param out the output.
+     */
+    public void write(DataOutput out) throws IOException {
+        writeVarLong(out, k);
+        writeVarLong(out, count);
+        if (count == 0) return;
+        writeVarLong(out, zigzag(min));
+        writeVarLong(out, zigzag(max));
+        writeVarLong(out, levelCount);
+        for (int h = 0; h < levelCount; h++) {
+            int[] items = levels[h];
+            Arrays.sort(items, 0, sizes[h]);
+            writeVarLong(out, sizes[h]);
+            long last = min;
+            for (int i = 0; i < sizes[h]; i++) {
+                writeVarLong(out, items[i] - last);
+                last = items[i];
+            }
+        }
+    }
+
+    /**
+     * Reads a sketch written by write().
+     *
+     * @param in the input.
+     * @return the sketch.
+     * @throws IOException if the data is not a valid sketch.
+     */
+    public static QuantileSketch read(DataInput in) throws IOException {
+        long k = readVarLong(in);
+        if (k < MIN_CAPACITY || k > 1 << 16) throw new IOException("invalid sketch k " + k);
+        QuantileSketch sketch = new QuantileSketch((int) k);
+        long count = readVarLong(in);
+        if (count < 0) throw new IOException("invalid sketch count");
+        if (count == 0) return sketch;
+        int min = unzigzag(readVarLong(in));
+        int max = unzigzag(readVarLong(in));
+        long levelCount = readVarLong(in);
+        if (levelCount < 1 || levelCount > MAX_LEVELS || min > max) {
+            throw new IOException("invalid sketch header");
+        }
+        while (sketch.levelCount < levelCount) sketch.addLevel();
+        for (int h = 0; h < levelCount; h++) {
+            long size = readVarLong(in);
+            if (size < 0 || size > 4L * k + MIN_CAPACITY) throw new IOException("invalid level");
+            long last = min;
+            for (int i = 0; i < size; i++) {
+                last += readVarLong(in);
+                if (last > max) throw new IOException("invalid sketch item");
+                sketch.append(h, (int) last);
+            }
+        }
+        sketch.count = count;
+        sketch.min = min;
+        sketch.max = max;
+        return sketch;
+    }
+
+    private static long zigzag(int v) {
+        return ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long v) {
+        return (int) (v >>> 1) ^ -(int) (v & 1);
+    }
+
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The recording of a game: the seed of the barriers and the ticks at which the color was
+ * switched. Together with the simulation mode and the difficulty profile this is all we need
+ * to play the game again.
+ *
+ * @see eu.lucci.cirechclone.ReplayPlayer
+ */
+public class Replay {
+
+    /**
+     * Version of the binary format written by write().
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The first version, without the profile id: its replays were played with the default
+     * profile.
+     */
+    private static final int FORMAT_VERSION_1 = 1;
+
+    /**
+     * Touch events come at most at twice the tick rate, a replay with more inputs is corrupted.
+     */
+    private static final int MAX_INPUTS_PER_TICK = 2;
+
+    /**
+     * Size of what write() writes before the inputs, each input takes at least one more byte.
+     */
+    private static final int HEADER_BYTES = 26;
+
+    private static final int HEADER_BYTES_1 = 22;
+
+    private final long seed;
+
+    private final boolean fixedPoint;
+
+    private final int profileId;
+
+    /**
+     * Ticks at which the color was switched, in order.
+     */
+    private final int[] inputs;
+
+    private final int score;
+
+    private final int ticks;
+
+    /**
+     * A replay played with the default difficulty profile.
+     *
+     * @param seed       the seed of the game.
+     * @param fixedPoint true if the game was simulated in fixed-point.
+     * @param inputs     ticks at which the color was switched, in order.
+     * @param score      the score at the end of the recording.
+     * @param ticks      the number of ticks played.
+     */
+    public Replay(long seed, boolean fixedPoint, int[] inputs, int score, int ticks) {
+        this(seed, fixedPoint, DifficultyProfile.DEFAULT.getId(), inputs, score, ticks);
+    }
+
+    /**
+     * @param seed       the seed of the game.
+     * @param fixedPoint true if the game was simulated in fixed-point.
+     * @param profileId  id of the difficulty profile of the game.
+     * @param inputs     ticks at which the color was switched, in order.
+     * @param score      the score at the end of the recording.
+     * @param ticks      the number of ticks played.
+     */
+    public Replay(long seed, boolean fixedPoint, int profileId, int[] inputs, int score,
+                  int ticks) {
+        this.seed = seed;
+        this.fixedPoint = fixedPoint;
+        this.profileId = profileId;
+        this.inputs = inputs;
+        this.score = score;
+        this.ticks = ticks;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * @return the id of the difficulty profile the game was played with.
+     * @see DifficultyProfile#getId()
+     */
+    public int getProfileId() {
+        return profileId;
+    }
+
+    /**
+     * @return the ticks at which the color was switched. Do not modify.
+     */
+    public int[] getInputs() {
+        return inputs;
+    }
+
+    /**
+     * @return the score claimed by the recording.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Writes the replay in a compact binary format, inputs are delta encoded.
+     *
+     * @param out the output.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(seed);
+        out.writeBoolean(fixedPoint);
+        out.writeInt(profileId);
+        out.writeInt(score);
+        out.writeInt(ticks);
+        out.writeInt(inputs.length);
+        int last = 0;
+        for (int input : inputs) {
+            writeVarInt(out, input - last);
+            last = input;
+        }
+    }
+
+    /**
+     * Reads a replay written by write(). Replays of the first version, without a profile id,
+     * are read as played with the default profile.
+     *
+     * @param in the input.
+     * @return the replay.
+     * @throws IOException if the data is not a valid replay.
+     */
+    public static Replay read(DataInput in) throws IOException {
+        return read(in, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads a replay written by write(), from an untrusted source. The header is checked
+     * against the limits before anything is allocated, and the inputs are only stored as they
+     * are read, so a short replay cannot make the reader allocate much.
+     *
+     * @param in       the input.
+     * @param maxTicks the longest replay accepted.
+     * @param length   the bytes of the replay, at most.
+     * @return the replay.
+     * @throws IOException if the data is not a valid replay, or exceeds the limits.
+     */
+    public static Replay read(DataInput in, int maxTicks, int length) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_1) {
+            throw new IOException("unknown replay version " + version);
+        }
+        long seed = in.readLong();
+        boolean fixedPoint = in.readBoolean();
+        int profileId = version == FORMAT_VERSION_1
+                ? DifficultyProfile.DEFAULT.getId() : in.readInt();
+        int header = version == FORMAT_VERSION_1 ? HEADER_BYTES_1 : HEADER_BYTES;
+        int score = in.readInt();
+        int ticks = in.readInt();
+        if (ticks < 0 || ticks > maxTicks) throw new IOException("invalid replay length " + ticks);
+        int count = in.readInt();
+        if (score < 0 || count < 0 || count > (ticks + 1L) * MAX_INPUTS_PER_TICK
+                || count > (long) length - header) {
+            throw new IOException("invalid replay header");
+        }
+        int[] inputs = new int[Math.min(count, 64)];
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            last += readVarInt(in);
+            if (last < 0 || last > ticks) throw new IOException("invalid input tick " + last);
+            if (i == inputs.length) inputs = Arrays.copyOf(inputs, Math.min(count, i * 2));
+            inputs[i] = last;
+        }
+        return new Replay(seed, fixedPoint, profileId, inputs, score, ticks);
+    }
+
+    private static void writeVarInt(DataOutput out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,683 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Archive of many replays, for bulk storage and offline analysis.
+ * Runs are packed in segments of up to SEGMENT_RUNS. Inside a segment every field is stored as
+ * a column: seeds as raw longs, dates as zigzag deltas, scores, ticks and input counts as
+ * varints, the fixed-point flags as a bitset, the difficulty profile ids run-length encoded and
+ * the inputs of all the runs, delta encoded like in Replay.write(), in a single column. A footer
+ * at the end of the file records the offset of each segment together with its score and date
+ * ranges, so that a query only reads the segments that can match, and a scan never holds more
+ * than one segment in memory.
+ * <p>
+ * File layout: magic, segments, footer, footer offset (8 bytes), magic.
+ */
+public final class ReplayArchive {
+
+    private static final int MAGIC = 0x43524132;    // "CRA2"
+
+    /**
+     * Runs per segment, the unit of decoding.
+     */
+    public static final int SEGMENT_RUNS = 4096;
+
+    private static final int SEED_COLUMN = 0;
+    private static final int DATE_COLUMN = 1;
+    private static final int SCORE_COLUMN = 2;
+    private static final int TICKS_COLUMN = 3;
+    private static final int FLAGS_COLUMN = 4;
+    private static final int COUNT_COLUMN = 5;
+    private static final int INPUT_COLUMN = 6;
+    private static final int PROFILE_COLUMN = 7;
+    private static final int COLUMNS = 8;
+
+    private ReplayArchive() {
+    }
+
+    /**
+     * Receives the runs of a scan.
+     */
+    public interface Visitor {
+        /**
+         * @param run the run, only valid during the call.
+         * @return false to stop the scan.
+         */
+        boolean visit(Run run);
+    }
+
+    /**
+     * A run read from the archive. The same instance is reused for every run of a scan.
+     */
+    public static final class Run {
+
+        int index;
+
+        long seed;
+
+        long date;
+
+        int score;
+
+        int ticks;
+
+        boolean fixedPoint;
+
+        int profileId;
+
+        int inputCount;
+
+        int[] inputs = new int[64];
+
+        /**
+         * @return position of the run in the archive.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * @return when the run was played, in milliseconds since the epoch.
+         */
+        public long getDate() {
+            return date;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getTicks() {
+            return ticks;
+        }
+
+        public boolean isFixedPoint() {
+            return fixedPoint;
+        }
+
+        /**
+         * @return the id of the difficulty profile the run was played with.
+         */
+        public int getProfileId() {
+            return profileId;
+        }
+
+        public int getInputCount() {
+            return inputCount;
+        }
+
+        /**
+         * @return the inputs, only the first getInputCount() are valid. Do not modify.
+         */
+        public int[] getInputs() {
+            return inputs;
+        }
+
+        /**
+         * @return a copy of the run as a replay.
+         */
+        public Replay toReplay() {
+            return new Replay(seed, fixedPoint, profileId, Arrays.copyOf(inputs, inputCount), score,
+                    ticks);
+        }
+    }
+
+    /**
+     * Writes an archive. Runs are buffered until a segment is full, close() writes the last
+     * segment and the footer.
+     */
+    public static final class Writer implements Closeable {
+
+        private final OutputStream out;
+
+        private long offset;
+
+        // the segment being filled
+        private final long[] seeds = new long[SEGMENT_RUNS];
+        private final long[] dates = new long[SEGMENT_RUNS];
+        private final int[] scores = new int[SEGMENT_RUNS];
+        private final int[] ticks = new int[SEGMENT_RUNS];
+        private final boolean[] fixedPoint = new boolean[SEGMENT_RUNS];
+        private final int[] profileIds = new int[SEGMENT_RUNS];
+        private final int[] counts = new int[SEGMENT_RUNS];
+        private int[] inputs = new int[SEGMENT_RUNS * 16];
+        private int inputCount;
+        private int runs;
+
+        private final ByteBuffer column = new ByteBuffer();
+
+        private final ByteBuffer segment = new ByteBuffer();
+
+        private final ByteBuffer footer = new ByteBuffer();
+
+        private int segments;
+
+        private boolean closed;
+
+        /**
+         * @param out the output, closed by close(). Better buffered.
+         */
+        public Writer(OutputStream out) throws IOException {
+            this.out = out;
+            segment.writeInt(MAGIC);
+            flush(segment);
+        }
+
+        /**
+         * Adds a run.
+         *
+         * @param replay the recording.
+         * @param date   when it was played, in milliseconds since the epoch.
+         */
+        public void add(Replay replay, long date) throws IOException {
+            if (closed) throw new IllegalStateException("archive closed");
+            int[] in = replay.getInputs();
+            if (inputCount + in.length > inputs.length) {
+                inputs = Arrays.copyOf(inputs, Math.max(inputs.length * 2, inputCount + in.length));
+            }
+            System.arraycopy(in, 0, inputs, inputCount, in.length);
+            inputCount += in.length;
+            seeds[runs] = replay.getSeed();
+            dates[runs] = date;
+            scores[runs] = replay.getScore();
+            ticks[runs] = replay.getTicks();
+            fixedPoint[runs] = replay.isFixedPoint();
+            profileIds[runs] = replay.getProfileId();
+            counts[runs] = in.length;
+            if (++runs == SEGMENT_RUNS) writeSegment();
+        }
+
+        private void writeSegment() throws IOException {
+            int minScore = Integer.MAX_VALUE, maxScore = Integer.MIN_VALUE;
+            long minDate = Long.MAX_VALUE, maxDate = Long.MIN_VALUE;
+            for (int i = 0; i < runs; i++) {
+                minScore = Math.min(minScore, scores[i]);
+                maxScore = Math.max(maxScore, scores[i]);
+                minDate = Math.min(minDate, dates[i]);
+                maxDate = Math.max(maxDate, dates[i]);
+            }
+            for (int c = 0; c < COLUMNS; c++) {
+                column.reset();
+                encodeColumn(c);
+                segment.writeVarInt(column.size);
+                segment.write(column);
+            }
+            footer.writeVarLong(offset);
+            footer.writeVarInt(segment.size);
+            footer.writeVarInt(runs);
+            footer.writeVarInt(minScore);
+            footer.writeVarInt(maxScore);
+            footer.writeVarLong(zigzag(minDate));
+            footer.writeVarLong(zigzag(maxDate));
+            flush(segment);
+            segments++;
+            runs = 0;
+            inputCount = 0;
+        }
+
+        private void encodeColumn(int c) {
+            switch (c) {
+                case SEED_COLUMN:
+                    // random, nothing to gain from varints
+                    for (int i = 0; i < runs; i++) column.writeLong(seeds[i]);
+                    break;
+                case DATE_COLUMN:
+                    long last = 0;
+                    for (int i = 0; i < runs; i++) {
+                        column.writeVarLong(zigzag(dates[i] - last));
+                        last = dates[i];
+                    }
+                    break;
+                case SCORE_COLUMN:
+                    for (int i = 0; i < runs; i++) column.writeVarInt(scores[i]);
+                    break;
+                case TICKS_COLUMN:
+                    for (int i = 0; i < runs; i++) column.writeVarInt(ticks[i]);
+                    break;
+                case FLAGS_COLUMN:
+                    for (int i = 0; i < runs; i += 8) {
+                        int bits = 0;
+                        for (int j = i; j < Math.min(runs, i + 8); j++) {
+                            if (fixedPoint[j]) bits |= 1 << (j - i);
+                        }
+                        column.writeByte(bits);
+                    }
+                    break;
+                case COUNT_COLUMN:
+                    for (int i = 0; i < runs; i++) column.writeVarInt(counts[i]);
+                    break;
+                case INPUT_COLUMN:
+                    int n = 0;
+                    for (int i = 0; i < runs; i++) {
+                        int previous = 0;
+                        for (int end = n + counts[i]; n < end; n++) {
+                            column.writeVarInt(inputs[n] - previous);
+                            previous = inputs[n];
+                        }
+                    }
+                    break;
+                case PROFILE_COLUMN:
+                    // runs of the same profile: length, then id
+                    for (int i = 0; i < runs; ) {
+                        int j = i + 1;
+                        while (j < runs && profileIds[j] == profileIds[i]) j++;
+                        column.writeVarInt(j - i);
+                        column.writeInt(profileIds[i]);
+                        i = j;
+                    }
+                    break;
+            }
+        }
+
+        private void flush(ByteBuffer buffer) throws IOException {
+            out.write(buffer.bytes, 0, buffer.size);
+            offset += buffer.size;
+            buffer.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                if (runs > 0) writeSegment();
+                long footerOffset = offset;
+                segment.writeVarInt(segments);
+                segment.write(footer);
+                segment.writeLong(footerOffset);
+                segment.writeInt(MAGIC);
+                flush(segment);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reads an archive. Only the footer is kept in memory, segments are read one at a time
+     * into a reused buffer.
+     */
+    public static final class Reader implements Closeable {
+
+        private final RandomAccessFile file;
+
+        // footer
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int[] runs;
+        private final int[] firstRuns;
+        private final int[] minScores;
+        private final int[] maxScores;
+        private final long[] minDates;
+        private final long[] maxDates;
+        private final int size;
+
+        private final ByteBuffer segment = new ByteBuffer();
+
+        private final Run run = new Run();
+
+        /**
+         * @param path the archive.
+         * @throws IOException if the file is not a valid archive.
+         */
+        public Reader(File path) throws IOException {
+            file = new RandomAccessFile(path, "r");
+            try {
+                long length = file.length();
+                if (length < 16) throw new IOException("not an archive");
+                file.seek(0);
+                if (file.readInt() != MAGIC) throw new IOException("not an archive");
+                file.seek(length - 12);
+                long footerOffset = file.readLong();
+                if (file.readInt() != MAGIC || footerOffset < 4 || footerOffset > length - 12) {
+                    throw new IOException("truncated archive");
+                }
+                read(footerOffset, (int) (length - 12 - footerOffset));
+                int count = segment.readVarInt();
+                if (count < 0 || count > segment.size) throw new IOException("invalid footer");
+                offsets = new long[count];
+                lengths = new int[count];
+                runs = new int[count];
+                firstRuns = new int[count];
+                minScores = new int[count];
+                maxScores = new int[count];
+                minDates = new long[count];
+                maxDates = new long[count];
+                int total = 0;
+                for (int s = 0; s < count; s++) {
+                    offsets[s] = segment.readVarLong();
+                    lengths[s] = segment.readVarInt();
+                    runs[s] = segment.readVarInt();
+                    minScores[s] = segment.readVarInt();
+                    maxScores[s] = segment.readVarInt();
+                    minDates[s] = unzigzag(segment.readVarLong());
+                    maxDates[s] = unzigzag(segment.readVarLong());
+                    if (offsets[s] < 4 || lengths[s] < 0 || offsets[s] + lengths[s] > footerOffset
+                            || runs[s] <= 0 || runs[s] > SEGMENT_RUNS) {
+                        throw new IOException("invalid footer");
+                    }
+                    firstRuns[s] = total;
+                    total += runs[s];
+                }
+                size = total;
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return number of runs in the archive.
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getSegmentCount() {
+            return offsets.length;
+        }
+
+        /**
+         * Visits every run, in order.
+         *
+         * @param visitor the visitor.
+         * @return false if the visitor stopped the scan.
+         */
+        public boolean scan(Visitor visitor) throws IOException {
+            for (int s = 0; s < offsets.length; s++) {
+                if (!scanSegment(s, visitor)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Visits the runs of a segment, segments can be scanned in parallel by readers of the
+         * same file.
+         *
+         * @param segment the segment, in [0, getSegmentCount()).
+         * @return false if the visitor stopped the scan.
+         */
+        public boolean scanSegment(int segment, Visitor visitor) throws IOException {
+            return decodeSegment(segment, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE,
+                    Long.MAX_VALUE, visitor);
+        }
+
+        /**
+         * Visits the runs with a score in [min, max], skipping the segments out of range.
+         *
+         * @return false if the visitor stopped the scan.
+         */
+        public boolean scanScores(int min, int max, Visitor visitor) throws IOException {
+            for (int s = 0; s < offsets.length; s++) {
+                if (maxScores[s] < min || minScores[s] > max) continue;
+                if (!decodeSegment(s, min, max, Long.MIN_VALUE, Long.MAX_VALUE, visitor)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Visits the runs played in [from, to], skipping the segments out of range.
+         *
+         * @return false if the visitor stopped the scan.
+         */
+        public boolean scanDates(long from, long to, Visitor visitor) throws IOException {
+            for (int s = 0; s < offsets.length; s++) {
+                if (maxDates[s] < from || minDates[s] > to) continue;
+                if (!decodeSegment(s, Integer.MIN_VALUE, Integer.MAX_VALUE, from, to, visitor)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads a single run.
+         *
+         * @param index position of the run in the archive.
+         * @return the run as a replay.
+         */
+        public Replay get(final int index) throws IOException {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("run " + index);
+            int s = Arrays.binarySearch(firstRuns, index);
+            if (s < 0) s = -s - 2;
+            final Replay[] found = new Replay[1];
+            scanSegment(s, new Visitor() {
+                @Override
+                public boolean visit(Run run) {
+                    if (run.index != index) return true;
+                    found[0] = run.toReplay();
+                    return false;
+                }
+            });
+            return found[0];
+        }
+
+        /**
+         * Decodes a segment column by column, runs are assembled while walking the columns
+         * together.
+         */
+        private boolean decodeSegment(int s, int minScore, int maxScore, long from, long to,
+                                    Visitor visitor) throws IOException {
+            read(offsets[s], lengths[s]);
+            int count = runs[s];
+            int[] cursors = new int[COLUMNS];
+            int[] ends = new int[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++) {
+                int length = segment.readVarInt();
+                cursors[c] = segment.position;
+                segment.position += length;
+                if (length < 0 || segment.position > segment.size) {
+                    throw new IOException("invalid segment " + s);
+                }
+                ends[c] = segment.position;
+            }
+            if (ends[FLAGS_COLUMN] - cursors[FLAGS_COLUMN] < (count + 7) / 8) {
+                throw new IOException("invalid segment " + s);
+            }
+            long date = 0;
+            int profileId = 0;
+            int profileRun = 0;
+            for (int i = 0; i < count; i++) {
+                Run r = run;
+                r.index = firstRuns[s] + i;
+                segment.position = cursors[SEED_COLUMN];
+                r.seed = segment.readLong();
+                cursors[SEED_COLUMN] = segment.position;
+                segment.position = cursors[DATE_COLUMN];
+                date += unzigzag(segment.readVarLong());
+                r.date = date;
+                cursors[DATE_COLUMN] = segment.position;
+                segment.position = cursors[SCORE_COLUMN];
+                r.score = segment.readVarInt();
+                cursors[SCORE_COLUMN] = segment.position;
+                segment.position = cursors[TICKS_COLUMN];
+                r.ticks = segment.readVarInt();
+                cursors[TICKS_COLUMN] = segment.position;
+                r.fixedPoint = (segment.bytes[cursors[FLAGS_COLUMN] + (i >> 3)] & (1 << (i & 7))) != 0;
+                if (profileRun == 0) {
+                    segment.position = cursors[PROFILE_COLUMN];
+                    profileRun = segment.readVarInt();
+                    profileId = segment.readInt();
+                    cursors[PROFILE_COLUMN] = segment.position;
+                    if (profileRun <= 0 || segment.position > ends[PROFILE_COLUMN]) {
+                        throw new IOException("invalid segment " + s);
+                    }
+                }
+                profileRun--;
+                r.profileId = profileId;
+                segment.position = cursors[COUNT_COLUMN];
+                int inputs = segment.readVarInt();
+                cursors[COUNT_COLUMN] = segment.position;
+                if (inputs < 0 || inputs > ends[INPUT_COLUMN] - cursors[INPUT_COLUMN]) {
+                    throw new IOException("invalid segment " + s);
+                }
+                if (inputs > r.inputs.length) {
+                    r.inputs = new int[Math.max(inputs, r.inputs.length * 2)];
+                }
+                r.inputCount = inputs;
+                segment.position = cursors[INPUT_COLUMN];
+                int last = 0;
+                for (int k = 0; k < inputs; k++) {
+                    last += segment.readVarInt();
+                    r.inputs[k] = last;
+                }
+                cursors[INPUT_COLUMN] = segment.position;
+                if (r.score < minScore || r.score > maxScore || r.date < from || r.date > to) {
+                    continue;
+                }
+                if (!visitor.visit(r)) return false;
+            }
+            return true;
+        }
+
+        private void read(long offset, int length) throws IOException {
+            segment.reset();
+            segment.ensure(length);
+            file.seek(offset);
+            file.readFully(segment.bytes, 0, length);
+            segment.size = length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Growable byte array with the varint encoding of Replay, used for writing and for decoding
+     * the segments in place.
+     */
+    private static final class ByteBuffer {
+
+        byte[] bytes = new byte[1 << 16];
+
+        int size;
+
+        int position;
+
+        void reset() {
+            size = 0;
+            position = 0;
+        }
+
+        void ensure(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            for (int shift = 24; shift >= 0; shift -= 8) writeByte(v >>> shift);
+        }
+
+        void writeLong(long v) {
+            for (int shift = 56; shift >= 0; shift -= 8) writeByte((int) (v >>> shift));
+        }
+
+        void writeVarInt(int v) {
+            while ((v & ~0x7F) != 0) {
+                writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            writeByte(v);
+        }
+
+        void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                writeByte((int) (v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            writeByte((int) v);
+        }
+
+        void write(ByteBuffer other) {
+            ensure(size + other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        private int next() throws IOException {
+            if (position >= size) throw new EOFException();
+            return bytes[position++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            int v = 0;
+            for (int i = 0; i < 4; i++) v = (v << 8) | next();
+            return v;
+        }
+
+        long readLong() throws IOException {
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = (v << 8) | next();
+            return v;
+        }
+
+        int readVarInt() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = next();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("malformed varint");
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = next();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("malformed varint");
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Exports a Replay as an animated GIF.
+ * The export is a pipeline of three stages connected by bounded queues: a thread simulates the
+ * game and snapshots the frames, a pool of threads rasterizes and compresses them, and the
+ * calling thread writes them in order. Only a bounded number of frames is alive at any time.
+ */
+public class ReplayExporter {
+
+    /**
+     * Frames in flight per rasterizing thread.
+     */
+    private static final int FRAMES_PER_THREAD = 4;
+
+    private final int width;
+
+    private final int height;
+
+    private final int background;
+
+    private final int color0;
+
+    private final int color1;
+
+    private final int threads;
+
+    /**
+     * Game ticks per exported frame.
+     */
+    private int frameStep = 2;
+
+    /**
+     * @param width      frame width.
+     * @param height     frame height.
+     * @param background background color.
+     * @param color0     1st game color.
+     * @param color1     2nd game color.
+     */
+    public ReplayExporter(int width, int height, int background, int color0, int color1) {
+        this(width, height, background, color0, color1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads number of rasterizing threads.
+     */
+    public ReplayExporter(int width, int height, int background, int color0, int color1,
+                          int threads) {
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.color0 = color0;
+        this.color1 = color1;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets how many game ticks are played between two exported frames.
+     *
+     * @param frameStep ticks per frame, 1 exports every tick.
+     */
+    public void setFrameStep(int frameStep) {
+        this.frameStep = Math.max(1, frameStep);
+    }
+
+    /**
+     * Plays a replay of the default profile and writes it to the stream. The stream is not
+     * closed.
+     *
+     * @param replay the replay to export.
+     * @param out    the stream to write the GIF to.
+     * @return the number of frames written.
+     * @throws IOException          if writing fails, or if a stage fails.
+     * @throws InterruptedException if interrupted while waiting for frames.
+     */
+    public int export(Replay replay, OutputStream out) throws IOException, InterruptedException {
+        return export(replay, DifficultyProfile.DEFAULT, out);
+    }
+
+    /**
+     * Plays the replay and writes it to the stream. The stream is not closed.
+     *
+     * @param replay  the replay to export.
+     * @param profile the difficulty profile of the replay.
+     * @param out     the stream to write the GIF to.
+     * @return the number of frames written.
+     * @throws IOException          if writing fails, or if a stage fails.
+     * @throws InterruptedException if interrupted while waiting for frames.
+     */
+    public int export(Replay replay, DifficultyProfile profile, OutputStream out)
+            throws IOException, InterruptedException {
+        final int inFlight = threads * FRAMES_PER_THREAD;
+        // snapshots of the game, recycled once rasterized
+        final BlockingQueue<CirechGame> snapshots = new ArrayBlockingQueue<>(inFlight + threads);
+        for (int i = 0; i < inFlight + threads; i++) {
+            snapshots.add(new CirechGame(replay.isFixedPoint()));
+        }
+        // compressed frames, in order. A null frame ends the stream
+        final BlockingQueue<Future<byte[]>> frames = new ArrayBlockingQueue<>(inFlight);
+
+        SoftwareRenderer prototype = new SoftwareRenderer(width, height, background, color0, color1);
+        final GifEncoder encoder = new GifEncoder(width, height, prototype.getPalette());
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final ThreadLocal<Rasterizer> rasterizers = new ThreadLocal<Rasterizer>() {
+            @Override
+            protected Rasterizer initialValue() {
+                return new Rasterizer(encoder.copy());
+            }
+        };
+
+        final ReplayPlayer player = new ReplayPlayer(replay, profile);
+        Thread simulation = new Thread("replay simulation") {
+            @Override
+            public void run() {
+                try {
+                    CirechGame game = player.getGame();
+                    while (true) {
+                        if (game.getTick() % frameStep == 0 || player.isFinished()) {
+                            final CirechGame snapshot = snapshots.take();
+                            game.copyTo(snapshot);
+                            frames.put(pool.submit(new Callable<byte[]>() {
+                                @Override
+                                public byte[] call() {
+                                    return rasterizers.get().encode(snapshot, snapshots);
+                                }
+                            }));
+                        }
+                        if (player.isFinished()) break;
+                        player.updateGame();
+                    }
+                    frames.put(done(null));
+                } catch (InterruptedException e) {
+                    // export cancelled
+                } catch (RuntimeException e) {
+                    try {
+                        frames.put(done(e));
+                    } catch (InterruptedException ignored) {
+                        // export cancelled
+                    }
+                }
+            }
+        };
+        simulation.start();
+
+        int count = 0;
+        long time = 0;     // in ticks * 100, to round frame delays without drifting
+        try {
+            encoder.writeHeader(out);
+            byte[] frame;
+            while ((frame = frames.take().get()) != null) {
+                int delay = (int) ((time + frameStep * 100L) / GameThread.PREFERRED_FPS
+                        - time / GameThread.PREFERRED_FPS);
+                time += frameStep * 100L;
+                GifEncoder.writeFrame(out, frame, delay);
+                count++;
+            }
+            GifEncoder.writeTrailer(out);
+        } catch (ExecutionException e) {
+            throw new IOException("export failed", e.getCause());
+        } finally {
+            simulation.interrupt();
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * @param error the error to end the stream with, or null to end it normally.
+     * @return a completed frame that ends the stream.
+     */
+    private static Future<byte[]> done(final RuntimeException error) {
+        FutureTask<byte[]> end = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                if (error != null) throw error;
+                return null;
+            }
+        });
+        end.run();
+        return end;
+    }
+
+    /**
+     * Per thread renderer and encoder.
+     */
+    private class Rasterizer {
+        final SoftwareRenderer renderer;
+        final GifEncoder encoder;
+
+        Rasterizer(GifEncoder encoder) {
+            this.renderer = new SoftwareRenderer(width, height, background, color0, color1);
+            this.encoder = encoder;
+        }
+
+        byte[] encode(CirechGame snapshot, BlockingQueue<CirechGame> snapshots) {
+            renderer.renderGame(snapshot);
+            snapshots.offer(snapshot);  // can't fail, the queue has room for every snapshot
+            return encoder.encodeFrame(renderer.getPixels());
+        }
+    }
+}
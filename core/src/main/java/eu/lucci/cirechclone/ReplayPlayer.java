@@ -0,0 +1,127 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+/**
+ * Plays a Replay on a CirechGame: the recorded inputs are applied to the game at the
+ * recorded ticks. It can be driven by a GameThread like any other engine, or stepped headless.
+ * The game is played with the difficulty profile of the replay, which the caller has to
+ * provide: replays played with a profile other than the given one are rejected.
+ */
+public class ReplayPlayer implements GameEngine {
+
+    private final Replay replay;
+
+    private final CirechGame game;
+
+    /**
+     * Index of the next input to apply.
+     */
+    private int next;
+
+    /**
+     * Plays a replay of the default profile on a new game.
+     *
+     * @param replay the replay to play.
+     */
+    public ReplayPlayer(Replay replay) {
+        this(replay, DifficultyProfile.DEFAULT);
+    }
+
+    /**
+     * Plays the replay on a new game.
+     *
+     * @param replay  the replay to play.
+     * @param profile the difficulty profile of the replay.
+     */
+    public ReplayPlayer(Replay replay, DifficultyProfile profile) {
+        this(replay, new CirechGame(replay.isFixedPoint()), profile);
+    }
+
+    /**
+     * Plays a replay of the default profile on the given game, which is reset and started.
+     *
+     * @param replay the replay to play.
+     * @param game   a game in the same simulation mode of the replay.
+     */
+    public ReplayPlayer(Replay replay, CirechGame game) {
+        this(replay, game, DifficultyProfile.DEFAULT);
+    }
+
+    /**
+     * Plays the replay on the given game, which is reset with the profile and started.
+     *
+     * @param replay  the replay to play.
+     * @param game    a game in the same simulation mode of the replay.
+     * @param profile the difficulty profile of the replay.
+     */
+    public ReplayPlayer(Replay replay, CirechGame game, DifficultyProfile profile) {
+        if (game.isFixedPoint() != replay.isFixedPoint()) {
+            throw new IllegalArgumentException("simulation mode does not match the replay");
+        }
+        if (profile.getId() != replay.getProfileId()) {
+            throw new IllegalArgumentException("difficulty profile does not match the replay");
+        }
+        this.replay = replay;
+        this.game = game;
+        game.setDifficulty(profile);
+        game.reset(replay.getSeed());
+        game.setCurrentState(CirechGame.PLAY_STATE);
+    }
+
+    /**
+     * @return the game being played.
+     */
+    public CirechGame getGame() {
+        return game;
+    }
+
+    /**
+     * Applies the inputs of the current tick, then updates the game.
+     */
+    @Override
+    public void updateGame() {
+        int[] inputs = replay.getInputs();
+        int tick = game.getTick();
+        while (next < inputs.length && inputs[next] <= tick) {
+            game.switchColor();
+            next++;
+        }
+        game.updateGame();
+    }
+
+    /**
+     * @return true when the game is over or every recorded tick has been played.
+     */
+    public boolean isFinished() {
+        return game.getCurrentState() != CirechGame.PLAY_STATE
+                || game.getTick() >= replay.getTicks();
+    }
+
+    /**
+     * Plays the whole replay.
+     *
+     * @return the score of the game.
+     */
+    public int playToEnd() {
+        while (!isFinished()) updateGame();
+        return game.score;
+    }
+}
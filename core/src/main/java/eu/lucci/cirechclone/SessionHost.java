@@ -0,0 +1,295 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many paced game sessions on a few threads, instead of a GameThread each.
+ * Every worker keeps its sessions in a heap ordered by the deadline of their next tick: it
+ * takes all the due sessions as a batch, ticks them, puts them back with the next deadline
+ * and parks until the earliest one. Sessions join through a lock-free inbox of the worker
+ * they are given to, round-robin, and leave by marking themselves closed: the worker drops
+ * them at their next deadline. No lock is shared between workers.
+ * The lateness of each tick, how long after its deadline it ran, is recorded per session
+ * and in a quantile sketch per worker. Like GameThread, a session late by more than
+ * MAX_CATCH_UP ticks gives up catching up and skips them.
+ */
+public class SessionHost {
+
+    /**
+     * Ticks a late session may run back to back to catch up.
+     */
+    public static final int MAX_CATCH_UP = 5;
+
+    /**
+     * Most sessions ticked in a batch, so that joining sessions are not kept waiting.
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Longest park of an idle worker.
+     */
+    private static final long IDLE_NANOS = 100000000L;
+
+    private final long periodNanos;
+
+    private final Worker[] workers;
+
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param threads     number of workers, usually the number of cores.
+     * @param ticksPerSec tick rate of every session.
+     */
+    public SessionHost(int threads, int ticksPerSec) {
+        if (threads < 1 || ticksPerSec < 1) throw new IllegalArgumentException();
+        periodNanos = 1000000000L / ticksPerSec;
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Adds a session, its first tick is due now.
+     *
+     * @param engine the game of the session, only updated by one worker.
+     * @return the session.
+     */
+    public Session join(GameEngine engine) {
+        if (!running) throw new IllegalStateException("host stopped");
+        Worker worker = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+        Session session = new Session(engine, System.nanoTime());
+        worker.inbox.add(session);
+        LockSupport.unpark(worker);
+        return session;
+    }
+
+    /**
+     * @return number of sessions being ticked, joining ones excluded.
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (Worker worker : workers) count += worker.sessions;
+        return count;
+    }
+
+    /**
+     * @return ticks run by all the sessions so far.
+     */
+    public long getTicks() {
+        long ticks = 0;
+        for (Worker worker : workers) ticks += worker.ticks;
+        return ticks;
+    }
+
+    /**
+     * @param q a fraction in [0, 1].
+     * @return an estimate of the tick lateness quantile over every session, in microseconds.
+     */
+    public int getLatenessQuantile(float q) {
+        QuantileSketch all = new QuantileSketch();
+        for (Worker worker : workers) {
+            synchronized (worker.lateness) {
+                all.merge(worker.lateness);
+            }
+        }
+        return all.getQuantile(q);
+    }
+
+    /**
+     * Stops the workers and waits for them, sessions are dropped.
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Worker worker : workers) LockSupport.unpark(worker);
+        for (Worker worker : workers) worker.join();
+    }
+
+    /**
+     * A game ticked by the host.
+     */
+    public final class Session {
+
+        private final GameEngine engine;
+
+        /**
+         * Deadline of the next tick, owned by the worker.
+         */
+        private long deadline;
+
+        private volatile boolean closed;
+
+        // stats, written by the worker only
+        private volatile long ticks;
+
+        private volatile long skipped;
+
+        private volatile long latenessSum;
+
+        private volatile long maxLateness;
+
+        private Session(GameEngine engine, long deadline) {
+            this.engine = engine;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Ticks the session. Called by the worker.
+         *
+         * @return the lateness of the tick.
+         */
+        private long tick() {
+            long now = System.nanoTime();
+            long late = now - deadline;
+            engine.updateGame();
+            ticks++;
+            latenessSum += late;
+            if (late > maxLateness) maxLateness = late;
+            deadline += periodNanos;
+            if (now - deadline > MAX_CATCH_UP * periodNanos) {
+                long behind = (now - deadline) / periodNanos;
+                skipped += behind;
+                deadline += behind * periodNanos;
+            }
+            return late;
+        }
+
+        public GameEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Removes the session from the host, its engine is not updated after the current
+         * tick. Can be called from any thread.
+         */
+        public void close() {
+            closed = true;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return ticks given up because the session was too late.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return mean lateness of the ticks, in nanoseconds.
+         */
+        public long getMeanLateness() {
+            long n = ticks;
+            return n == 0 ? 0 : latenessSum / n;
+        }
+
+        /**
+         * @return worst lateness of a tick, in nanoseconds.
+         */
+        public long getMaxLateness() {
+            return maxLateness;
+        }
+    }
+
+    /**
+     * Ticks its own sessions.
+     */
+    private class Worker extends Thread {
+
+        final ConcurrentLinkedQueue<Session> inbox = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Lateness of the ticks, in microseconds. Guarded by itself.
+         */
+        final QuantileSketch lateness = new QuantileSketch();
+
+        private final PriorityQueue<Session> heap = new PriorityQueue<>(64,
+                new Comparator<Session>() {
+                    @Override
+                    public int compare(Session a, Session b) {
+                        // overflow safe, and Long.compare() needs API 19
+                        long d = a.deadline - b.deadline;
+                        return d < 0 ? -1 : d > 0 ? 1 : 0;
+                    }
+                });
+
+        private final Session[] batch = new Session[MAX_BATCH];
+
+        private final int[] batchLateness = new int[MAX_BATCH];
+
+        volatile int sessions;
+
+        volatile long ticks;
+
+        Worker(int id) {
+            super("session-host-" + id);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                for (Session s = inbox.poll(); s != null; s = inbox.poll()) heap.add(s);
+                long now = System.nanoTime();
+                int n = 0;
+                for (Session s = heap.peek(); s != null && s.deadline - now <= 0 && n < MAX_BATCH;
+                     s = heap.peek()) {
+                    heap.poll();
+                    if (!s.closed) batch[n++] = s;
+                }
+                for (int i = 0; i < n; i++) {
+                    batchLateness[i] = (int) Math.min(Integer.MAX_VALUE, batch[i].tick() / 1000);
+                }
+                for (int i = 0; i < n; i++) {
+                    heap.add(batch[i]);
+                    batch[i] = null;
+                }
+                if (n > 0) {
+                    synchronized (lateness) {
+                        for (int i = 0; i < n; i++) lateness.update(batchLateness[i]);
+                    }
+                    ticks += n;
+                }
+                sessions = heap.size();
+                if (n == 0 && inbox.isEmpty()) {
+                    Session head = heap.peek();
+                    long wait = head == null ? IDLE_NANOS : head.deadline - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Arrays;
+
+/**
+ * A pure Java renderer, it rasterizes the game into an ARGB framebuffer.
+ * It uses the same layout as GameView, but doesn't need a Surface: useful to render headless,
+ * to measure render costs and to compare frames with reference images.
+ * Text is not rendered, only the numbers (score and high score) with a small built-in font.
+ */
+public class SoftwareRenderer implements GameRenderer {
+
+    /**
+     * Alpha of the layer drawn over paused and ended games, same as GameView.
+     */
+    private static final int OVERLAY_ALPHA = 191;
+
+    /**
+     * Alpha of the ghosts drawn over the game, same as GameView.
+     */
+    private static final int GHOST_ALPHA = 96;
+
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+
+    private static final GameEngine[] NO_GHOSTS = new GameEngine[0];
+
+    /**
+     * 3x5 digit glyphs, one bit per pixel, row by row starting from the top-left pixel.
+     */
+    private static final short[] DIGITS = {
+            0x7B6F, 0x2C97, 0x73E7, 0x73CF, 0x5BC9, 0x79CF, 0x79EF, 0x7249, 0x7BEF, 0x7BCF
+    };
+
+    private static final int GLYPH_WIDTH = 3;
+
+    private static final int GLYPH_HEIGHT = 5;
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * The framebuffer, one ARGB int per pixel, row by row.
+     */
+    private final int[] pixels;
+
+    private int background;
+
+    private int color0;
+
+    private int color1;
+
+    private int textColor = TEXT_COLOR;
+
+    // measures, see GameView.measure()
+    private int ballRadius;
+
+    private int ballCenterX;
+
+    private int ballCenterY;
+
+    /**
+     * Half width of the ball for each row, from the top row of the ball.
+     */
+    private int[] ballSpans;
+
+    private int barrierHeight;
+
+    private float barrierK;
+
+    private int textSize;
+
+    /**
+     * Digits of the number being drawn, reused.
+     */
+    private final char[] digits = new char[11];
+
+    /**
+     * Alpha of the models being drawn, below 255 they are blended with the framebuffer.
+     */
+    private int alpha = 255;
+
+    /**
+     * @param width      framebuffer width.
+     * @param height     framebuffer height.
+     * @param background background color.
+     * @param color0     1st game color.
+     * @param color1     2nd game color.
+     */
+    public SoftwareRenderer(int width, int height, int background, int color0, int color1) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        setColors(background, color0, color1);
+        measure();
+    }
+
+    /**
+     * Sets the colors used to render.
+     */
+    public void setColors(int background, int color0, int color1) {
+        this.background = background;
+        this.color0 = color0;
+        this.color1 = color1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the framebuffer, one ARGB int per pixel.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Sets the size of the models, with the same math as GameView.measure().
+     */
+    private void measure() {
+        ballRadius = height / 14;
+        ballCenterX = width / 2;
+        ballCenterY = height - ballRadius;
+        ballSpans = new int[ballRadius * 2 + 1];
+        for (int dy = -ballRadius; dy <= ballRadius; dy++) {
+            ballSpans[dy + ballRadius] = (int) Math.sqrt(ballRadius * ballRadius - dy * dy);
+        }
+        barrierHeight = height / 14;
+        barrierK = (height - ballRadius * 2) / CirechGame.LIMIT;
+        textSize = width / 15;
+    }
+
+    /**
+     * Renders the specified game into the framebuffer.
+     *
+     * @param game the GameEngine to render.
+     */
+    @Override
+    public void renderGame(GameEngine game) {
+        if (game instanceof GhostRun) {
+            GhostRun run = (GhostRun) game;
+            render(run.getGame(), run.getGhosts());
+        } else {
+            render((CirechGame) game, NO_GHOSTS);
+        }
+    }
+
+    /**
+     * Renders the specified game into the framebuffer, with its ghosts over it. Ghosts add
+     * colors that are not in getPalette().
+     *
+     * @param game   the GameEngine to render.
+     * @param ghosts the ghosts to render over the game.
+     */
+    @Override
+    public void renderGame(GameEngine game, GameEngine[] ghosts) {
+        render((CirechGame) game, ghosts);
+    }
+
+    private void render(CirechGame game, GameEngine[] ghosts) {
+        Arrays.fill(pixels, background);
+        switch (game.getCurrentState()) {
+            case CirechGame.MENU_STATE:
+                drawModels(game);
+                drawNumber(game.highScore, 0, textSize);
+                break;
+            case CirechGame.PLAY_STATE:
+                drawModels(game);
+                drawGhosts(ghosts);
+                drawNumber(game.score, 0, height - 2 - textSize);
+                break;
+            case CirechGame.PAUSE_STATE:
+                drawModels(game);
+                drawGhosts(ghosts);
+                drawOverlay();
+                break;
+            case CirechGame.GAME_OVER_STATE:
+                drawModels(game);
+                drawOverlay();
+                drawNumber(game.score, 0, 0);
+                drawNumber(game.highScore, 0, textSize);
+                break;
+            default:
+        }
+    }
+
+    private void drawGhosts(GameEngine[] ghosts) {
+        alpha = GHOST_ALPHA;
+        for (GameEngine ghost : ghosts) {
+            CirechGame g = (CirechGame) ghost;
+            if (g.getCurrentState() == CirechGame.PLAY_STATE) drawModels(g);
+        }
+        alpha = 255;
+    }
+
+    private void drawModels(CirechGame game) {
+        drawBall(game.currentColor ? color1 : color0);
+        Barrier[] barriers = game.barriers;
+        int lanes = game.getLanes();
+        int perLane = game.getBarriersPerLane();
+        for (int lane = 0; lane < lanes; lane++) {
+            int left = width * lane / lanes;
+            int right = width * (lane + 1) / lanes;
+            // from the front barrier, the first one above the screen ends the lane
+            for (int i = 0; i < perLane; i++) {
+                Barrier b = barriers[game.barrierIndex(lane, i)];
+                float x = b.position * barrierK;
+                if (x <= 0) break;
+                fillRect(left, Math.round(x - barrierHeight), right, Math.round(x),
+                        b.color ? color1 : color0);
+            }
+        }
+    }
+
+    private void drawBall(int color) {
+        int top = ballCenterY - ballRadius;
+        for (int i = 0; i < ballSpans.length; i++) {
+            int y = top + i;
+            if (y < 0 || y >= height) continue;
+            int left = Math.max(0, ballCenterX - ballSpans[i]);
+            int right = Math.min(width, ballCenterX + ballSpans[i] + 1);
+            if (left < right) fillSpan(y * width + left, y * width + right, color);
+        }
+    }
+
+    /**
+     * Fills pixels [from, to) of the framebuffer, blending with the current alpha.
+     */
+    private void fillSpan(int from, int to, int color) {
+        if (alpha == 255) {
+            Arrays.fill(pixels, from, to, color);
+            return;
+        }
+        int lastIn = ~pixels[from], lastOut = 0;
+        for (int i = from; i < to; i++) {
+            int p = pixels[i];
+            if (p != lastIn) {
+                lastIn = p;
+                lastOut = blend(color, p, alpha);
+            }
+            pixels[i] = lastOut;
+        }
+    }
+
+    /**
+     * @param color      an opaque color.
+     * @param background an opaque color.
+     * @param alpha      alpha of color.
+     * @return color drawn over background.
+     */
+    private static int blend(int color, int background, int alpha) {
+        int ia = 255 - alpha;
+        int r = (((color >> 16) & 0xFF) * alpha + ((background >> 16) & 0xFF) * ia) / 255;
+        int g = (((color >> 8) & 0xFF) * alpha + ((background >> 8) & 0xFF) * ia) / 255;
+        int b = ((color & 0xFF) * alpha + (background & 0xFF) * ia) / 255;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Fills a rectangle, clipped to the framebuffer. The first row is filled, the others are
+     * copied from it.
+     */
+    private void fillRect(int left, int top, int right, int bottom, int color) {
+        if (left < 0) left = 0;
+        if (top < 0) top = 0;
+        if (right > width) right = width;
+        if (bottom > height) bottom = height;
+        if (left >= right || top >= bottom) return;
+        int first = top * width + left;
+        int span = right - left;
+        if (alpha != 255) {     // rows may differ below, blend each one
+            for (int y = top; y < bottom; y++) fillSpan(y * width + left, y * width + right, color);
+            return;
+        }
+        Arrays.fill(pixels, first, first + span, color);
+        for (int y = top + 1; y < bottom; y++) {
+            System.arraycopy(pixels, first, pixels, y * width + left, span);
+        }
+    }
+
+    /**
+     * Blends the background color over the whole framebuffer.
+     */
+    private void drawOverlay() {
+        int lastIn = ~pixels[0], lastOut = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            if (p != lastIn) {  // frames have long runs of the same color
+                lastIn = p;
+                lastOut = overlay(p, background);
+            }
+            pixels[i] = lastOut;
+        }
+    }
+
+    /**
+     * @param color      an opaque color.
+     * @param background the background color.
+     * @return the color as it is drawn below the pause and game over layer.
+     */
+    public static int overlay(int color, int background) {
+        return blend(background, color, OVERLAY_ALPHA);
+    }
+
+    /**
+     * @return the colors this renderer can produce, see overlay().
+     */
+    public int[] getPalette() {
+        return new int[]{
+                background, color0, color1, textColor,
+                overlay(background, background), overlay(color0, background),
+                overlay(color1, background), overlay(textColor, background)
+        };
+    }
+
+    /**
+     * Draws a non negative number with the built-in font.
+     *
+     * @param n    the number.
+     * @param left left bound of the text.
+     * @param top  top bound of the text.
+     */
+    private void drawNumber(int n, int left, int top) {
+        int scale = Math.max(1, textSize / (GLYPH_HEIGHT + 1));
+        int count = 0;
+        do {
+            digits[count++] = (char) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        int x = left;
+        for (int i = count - 1; i >= 0; i--) {
+            short glyph = DIGITS[digits[i] - '0'];
+            for (int row = 0; row < GLYPH_HEIGHT; row++) {
+                for (int col = 0; col < GLYPH_WIDTH; col++) {
+                    int bit = GLYPH_WIDTH * GLYPH_HEIGHT - 1 - (row * GLYPH_WIDTH + col);
+                    if ((glyph & (1 << bit)) != 0) {
+                        int px = x + col * scale, py = top + row * scale;
+                        fillRect(px, py, px + scale, py + scale, textColor);
+                    }
+                }
+            }
+            x += (GLYPH_WIDTH + 1) * scale;
+        }
+    }
+}
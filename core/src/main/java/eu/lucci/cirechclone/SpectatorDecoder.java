@@ -0,0 +1,164 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+/**
+ * Decodes the frames of a SpectatorStream into a mirror game, which can be drawn by any
+ * GameRenderer. The mirror is only rendered, never updated.
+ */
+public class SpectatorDecoder {
+
+    private CirechGame mirror;
+
+    private int[] leads;
+
+    private int[] positions;
+
+    private boolean[] colors;
+
+    private int tick;
+
+    private int state;
+
+    /**
+     * False until the first keyframe.
+     */
+    private boolean synced;
+
+    private byte[] frame;
+
+    private int pos;
+
+    /**
+     * @return the decoded game, null before the first keyframe.
+     */
+    public CirechGame getGame() {
+        return mirror;
+    }
+
+    /**
+     * Reads every available frame of a subscriber.
+     *
+     * @param subscriber the subscriber.
+     * @param buffer     receives the frames, at least SpectatorStream.getMaxFrameSize() long.
+     * @return the number of frames decoded.
+     */
+    public int poll(SpectatorStream.Subscriber subscriber, byte[] buffer) {
+        int n = 0;
+        int type;
+        while ((type = subscriber.next(buffer)) >= 0) {
+            decode(type, buffer);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Applies a frame to the mirror game. Deltas before the first keyframe are ignored.
+     *
+     * @param type  the frame type.
+     * @param frame the frame payload.
+     */
+    public void decode(int type, byte[] frame) {
+        this.frame = frame;
+        pos = 0;
+        if (type == SpectatorStream.KEYFRAME) decodeKeyframe();
+        else if (synced) decodeDelta();
+    }
+
+    private void decodeKeyframe() {
+        tick = readVarInt();
+        state = read();
+        int score = readVarInt();
+        int highScore = readVarInt();
+        boolean color = read() != 0;
+        int lanes = readVarInt();
+        int barriersPerLane = readVarInt();
+        if (mirror == null || mirror.getLanes() != lanes
+                || mirror.getBarriersPerLane() != barriersPerLane) {
+            mirror = new CirechGame(false, lanes, barriersPerLane);
+            leads = new int[lanes];
+            positions = new int[lanes * barriersPerLane];
+            colors = new boolean[lanes * barriersPerLane];
+        }
+        for (int lane = 0; lane < lanes; lane++) leads[lane] = readVarInt();
+        for (int i = 0; i < positions.length; i++) positions[i] = (short) (read() << 8 | read());
+        for (int i = 0; i < colors.length; i += 8) {
+            int bits = read();
+            for (int j = i; j < Math.min(i + 8, colors.length); j++) {
+                colors[j] = (bits & (1 << (j - i))) != 0;
+            }
+        }
+        synchronized (mirror) {
+            mirror.score = score;
+            mirror.highScore = highScore;
+            mirror.currentColor = color;
+            apply();
+        }
+        synced = true;
+    }
+
+    private void decodeDelta() {
+        tick += readVarInt();
+        int flags = read();
+        synchronized (mirror) {
+            if ((flags & SpectatorStream.FLAG_COLOR) != 0) {
+                mirror.currentColor = !mirror.currentColor;
+            }
+            if ((flags & SpectatorStream.FLAG_STATE) != 0) state = read();
+            if ((flags & SpectatorStream.FLAG_SCORE) != 0) mirror.score = readVarInt();
+            if ((flags & SpectatorStream.FLAG_HIGH_SCORE) != 0) mirror.highScore = readVarInt();
+            if ((flags & SpectatorStream.FLAG_LEADS) != 0) {
+                for (int lane = 0; lane < leads.length; lane++) leads[lane] = readVarInt();
+            }
+            int common = SpectatorStream.unzigzag(readVarInt());
+            for (int i = 0; i < positions.length; i++) {
+                int v = readVarInt();
+                positions[i] += common + SpectatorStream.unzigzag(v >>> 1);
+                if ((v & 1) != 0) colors[i] = !colors[i];
+            }
+            apply();
+        }
+    }
+
+    /**
+     * Sets the decoded state on the mirror, with its monitor held.
+     */
+    private void apply() {
+        Barrier[] barriers = mirror.barriers;
+        for (int i = 0; i < barriers.length; i++) {
+            barriers[i].position = positions[i] / (float) SpectatorStream.POSITION_SCALE;
+            barriers[i].color = colors[i];
+        }
+        mirror.setFrame(state, tick, leads);
+    }
+
+    private int read() {
+        return frame[pos++] & 0xFF;
+    }
+
+    private int readVarInt() {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = frame[pos++];
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+    }
+}
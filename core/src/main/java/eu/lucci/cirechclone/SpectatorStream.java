@@ -0,0 +1,406 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Broadcasts a game to spectators. The game thread publishes the game state every tick, it is
+ * encoded into a shared ring buffer and any number of subscribers read it at their own pace.
+ * <p>
+ * Every KEYFRAME_INTERVAL ticks a keyframe holds the whole state, the other frames only hold
+ * what changed. Barrier positions are quantized to 1/POSITION_SCALE of LIMIT and sent as the
+ * difference from the previous frame: barriers of a game all move by the same distance, so
+ * the common difference is sent once and each barrier only adds a residual, usually zero.
+ * <pre>
+ * frame:     u16 payload length, byte type, payload
+ * keyframe:  varint tick, byte state, varint score, varint high score, byte color,
+ *            varint lanes, varint barriers per lane, varint front barrier of each lane,
+ *            s16 position of each barrier, barrier colors as bits
+ * delta:     varint ticks since the previous frame, byte flags, then by flag: byte state,
+ *            varint score, varint high score, varint front barrier of each lane; then
+ *            zigzag varint common position difference and, for each barrier,
+ *            varint (zigzag residual &lt;&lt; 1 | color switched)
+ * </pre>
+ * Publishing doesn't allocate. A subscriber lapped by the producer skips to the last keyframe.
+ * <p>
+ * Subscribers copy frames without locking, like a seqlock: before writing a frame the producer
+ * announces how far it will write, and a subscriber checks after copying that its frame was not
+ * in that range. For the check to be valid under the Java memory model, the ring bytes are
+ * written with release stores and read with acquire loads (an AtomicIntegerArray, 4 bytes per
+ * element): a copy that saw any byte of the new frame also sees the announcement.
+ */
+public class SpectatorStream {
+
+    public static final int KEYFRAME_INTERVAL = GameThread.PREFERRED_FPS;
+
+    /**
+     * Quantization steps per LIMIT, positions from -4 to 4 LIMIT fit a short.
+     */
+    public static final int POSITION_SCALE = 8192;
+
+    static final int KEYFRAME = 0;
+
+    static final int DELTA = 1;
+
+    static final int FLAG_COLOR = 1;
+
+    static final int FLAG_STATE = 2;
+
+    static final int FLAG_SCORE = 4;
+
+    static final int FLAG_HIGH_SCORE = 8;
+
+    static final int FLAG_LEADS = 16;
+
+    static final int HEADER = 3;
+
+    private static final int MIN_CAPACITY = 1 << 14;
+
+    /**
+     * The ring buffer, 4 bytes per element, lowest byte first.
+     */
+    private final AtomicIntegerArray ring;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /**
+     * Largest possible frame, header included.
+     */
+    private final int maxFrame;
+
+    /**
+     * Bytes written so far, the ring holds the last capacity ones.
+     */
+    private volatile long tail;
+
+    /**
+     * Bound of the bytes written so far or being written: set before writing a frame.
+     */
+    private volatile long reserved;
+
+    /**
+     * Position of the last keyframe.
+     */
+    private volatile long lastKeyframe = -1;
+
+    /**
+     * Write position while encoding a frame.
+     */
+    private long writePos;
+
+    // last published state, as the subscribers decode it
+    private final int lanes;
+
+    private final int barriersPerLane;
+
+    private boolean started;
+
+    private int lastTick;
+
+    private int lastState;
+
+    private int lastScore;
+
+    private int lastHighScore;
+
+    private boolean lastColor;
+
+    private final int[] lastLeads;
+
+    private final int[] lastPositions;
+
+    private final boolean[] lastColors;
+
+    private int framesSinceKeyframe;
+
+    // metrics
+    private long startTime;
+
+    private volatile int frames;
+
+    private volatile int keyframes;
+
+    /**
+     * @param lanes           lanes of the broadcast games.
+     * @param barriersPerLane barriers per lane of the broadcast games.
+     */
+    public SpectatorStream(int lanes, int barriersPerLane) {
+        this.lanes = lanes;
+        this.barriersPerLane = barriersPerLane;
+        int barriers = lanes * barriersPerLane;
+        lastLeads = new int[lanes];
+        lastPositions = new int[barriers];
+        lastColors = new boolean[barriers];
+        // varints up to 5 bytes, positions up to 2 bytes in keyframes and 3 in deltas
+        maxFrame = HEADER + 32 + lanes * 5 + barriers * 3 + (barriers + 7) / 8;
+        if (maxFrame - HEADER > 0xFFFF) throw new IllegalArgumentException("too many barriers");
+        capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, maxFrame * 64) - 1) << 1;
+        ring = new AtomicIntegerArray(capacity / 4);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Encodes the current state of a game, called by the game thread after every tick.
+     *
+     * @param game the game, with the lanes and barriers of the stream.
+     */
+    public void publish(CirechGame game) {
+        synchronized (game) {
+            if (!started) {
+                started = true;
+                startTime = System.nanoTime();
+            }
+            writePos = tail;
+            long frameStart = writePos;
+            // before any byte is overwritten
+            reserved = frameStart + maxFrame;
+            writePos += HEADER;
+            boolean keyframe = framesSinceKeyframe == 0;
+            if (keyframe) encodeKeyframe(game);
+            else encodeDelta(game);
+            int length = (int) (writePos - frameStart - HEADER);
+            put(frameStart, (byte) (length >> 8));
+            put(frameStart + 1, (byte) length);
+            put(frameStart + 2, (byte) (keyframe ? KEYFRAME : DELTA));
+            if (keyframe) {
+                keyframes++;
+                lastKeyframe = frameStart;
+            }
+            frames++;
+            framesSinceKeyframe = (framesSinceKeyframe + 1) % KEYFRAME_INTERVAL;
+            tail = writePos;    // publish
+        }
+    }
+
+    /**
+     * Makes the next published frame a keyframe, e.g. when the game is reset.
+     */
+    public void requestKeyframe() {
+        framesSinceKeyframe = 0;
+    }
+
+    private void encodeKeyframe(CirechGame game) {
+        lastTick = game.getTick();
+        lastState = game.getCurrentState();
+        lastScore = game.score;
+        lastHighScore = game.highScore;
+        lastColor = game.currentColor;
+        writeVarInt(lastTick);
+        write(lastState);
+        writeVarInt(lastScore);
+        writeVarInt(lastHighScore);
+        write(lastColor ? 1 : 0);
+        writeVarInt(lanes);
+        writeVarInt(barriersPerLane);
+        for (int lane = 0; lane < lanes; lane++) {
+            lastLeads[lane] = game.getLead(lane);
+            writeVarInt(lastLeads[lane]);
+        }
+        Barrier[] barriers = game.barriers;
+        for (int i = 0; i < barriers.length; i++) {
+            lastPositions[i] = quantize(barriers[i].position);
+            write(lastPositions[i] >> 8);
+            write(lastPositions[i]);
+        }
+        int bits = 0;
+        for (int i = 0; i < barriers.length; i++) {
+            lastColors[i] = barriers[i].color;
+            if (lastColors[i]) bits |= 1 << (i % 8);
+            if (i % 8 == 7 || i == barriers.length - 1) {
+                write(bits);
+                bits = 0;
+            }
+        }
+    }
+
+    private void encodeDelta(CirechGame game) {
+        int tick = game.getTick();
+        writeVarInt(tick - lastTick);
+        lastTick = tick;
+        int flags = 0;
+        if (game.currentColor != lastColor) flags |= FLAG_COLOR;
+        if (game.getCurrentState() != lastState) flags |= FLAG_STATE;
+        if (game.score != lastScore) flags |= FLAG_SCORE;
+        if (game.highScore != lastHighScore) flags |= FLAG_HIGH_SCORE;
+        for (int lane = 0; lane < lanes; lane++) {
+            if (game.getLead(lane) != lastLeads[lane]) flags |= FLAG_LEADS;
+        }
+        write(flags);
+        lastColor = game.currentColor;
+        if ((flags & FLAG_STATE) != 0) {
+            lastState = game.getCurrentState();
+            write(lastState);
+        }
+        if ((flags & FLAG_SCORE) != 0) {
+            lastScore = game.score;
+            writeVarInt(lastScore);
+        }
+        if ((flags & FLAG_HIGH_SCORE) != 0) {
+            lastHighScore = game.highScore;
+            writeVarInt(lastHighScore);
+        }
+        if ((flags & FLAG_LEADS) != 0) {
+            for (int lane = 0; lane < lanes; lane++) {
+                lastLeads[lane] = game.getLead(lane);
+                writeVarInt(lastLeads[lane]);
+            }
+        }
+        Barrier[] barriers = game.barriers;
+        int common = quantize(barriers[0].position) - lastPositions[0];
+        writeVarInt(zigzag(common));
+        for (int i = 0; i < barriers.length; i++) {
+            int q = quantize(barriers[i].position);
+            int residual = q - lastPositions[i] - common;
+            boolean color = barriers[i].color;
+            writeVarInt(zigzag(residual) << 1 | (color != lastColors[i] ? 1 : 0));
+            lastPositions[i] = q;
+            lastColors[i] = color;
+        }
+    }
+
+    static int quantize(float position) {
+        int q = Math.round(position * POSITION_SCALE);
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private void put(long pos, byte b) {
+        int i = (int) pos & mask;
+        int shift = (i & 3) * 8;
+        // only the producer writes, so reading the element back is safe
+        int word = ring.get(i >> 2) & ~(0xFF << shift) | (b & 0xFF) << shift;
+        ring.lazySet(i >> 2, word);
+    }
+
+    private void write(int b) {
+        put(writePos++, (byte) b);
+    }
+
+    private int get(long pos) {
+        int i = (int) pos & mask;
+        return ring.get(i >> 2) >>> (i & 3) * 8 & 0xFF;
+    }
+
+    private void writeVarInt(int v) {
+        while ((v & ~0x7F) != 0) {
+            write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        write(v);
+    }
+
+    /**
+     * @return a new subscriber, it starts from the last keyframe.
+     */
+    public Subscriber subscribe() {
+        return new Subscriber();
+    }
+
+    /**
+     * @return bytes published per second, since the first frame.
+     */
+    public double getBytesPerSecond() {
+        long elapsed = System.nanoTime() - startTime;
+        return started && elapsed > 0 ? tail * 1e9 / elapsed : 0;
+    }
+
+    public long getBytes() {
+        return tail;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getKeyframes() {
+        return keyframes;
+    }
+
+    /**
+     * @return the size of the largest frame, header included.
+     */
+    public int getMaxFrameSize() {
+        return maxFrame;
+    }
+
+    /**
+     * Reads the frames of the stream. Each subscriber must be used by one thread.
+     */
+    public class Subscriber {
+
+        /**
+         * Position of the next frame, -1 before the first keyframe.
+         */
+        private long pos = -1;
+
+        private long bytesRead;
+
+        private int skips;
+
+        /**
+         * Copies the next frame, if any.
+         *
+         * @param frame receives the frame payload, at least getMaxFrameSize() long.
+         * @return the frame type, KEYFRAME or DELTA, or -1 if no frame is available.
+         */
+        public int next(byte[] frame) {
+            while (true) {
+                long t = tail;
+                if (pos < 0 || reserved - pos > capacity) {
+                    // first read, or lapped by the producer
+                    if (pos >= 0) skips++;
+                    pos = lastKeyframe;
+                    if (pos < 0) return -1;
+                }
+                if (pos >= t) return -1;    // the keyframe may not be published yet
+                int length = get(pos) << 8 | get(pos + 1);
+                int type = get(pos + 2);
+                if (length <= maxFrame - HEADER) {
+                    for (int i = 0; i < length; i++) frame[i] = (byte) get(pos + HEADER + i);
+                }
+                // overwritten while copying, a torn length included
+                if (reserved - pos > capacity) continue;
+                pos += HEADER + length;
+                bytesRead += HEADER + length;
+                return type;
+            }
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return how many times the subscriber was lapped and skipped to a keyframe.
+         */
+        public int getSkips() {
+            return skips;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+/**
+ * Hierarchical timing wheel of events keyed by tick number.
+ * Level l has SLOTS slots of SLOTS^l ticks each: an event goes in the lowest level whose span
+ * covers its distance from the current tick, and when the current tick reaches the start of a
+ * slot of an upper level, its events are spread again over the lower levels. Scheduling and
+ * cancelling are O(1), a tick costs O(1) plus the events it fires.
+ * Events live in preallocated arrays linked by index, so nothing is allocated after
+ * construction. A handle carries the generation of its entry, a stale handle can't cancel
+ * the event that reused the entry.
+ * Not thread safe.
+ */
+public class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    /**
+     * Farthest distance a slot can hold, farther events are placed at it and moved again.
+     */
+    private static final int RANGE = 1 << (SLOT_BITS * LEVELS);
+
+    private static final int INDEX_BITS = 17;
+
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+
+    /**
+     * Largest capacity.
+     */
+    public static final int MAX_CAPACITY = 1 << INDEX_BITS;
+
+    private static final int NONE = -1;
+
+    /**
+     * Receives the events fired by advance().
+     */
+    public interface Listener {
+        /**
+         * Called when an event is due. The listener may schedule and cancel events.
+         *
+         * @param tick the tick the event was scheduled for, can be before the current one.
+         * @param type the type given when scheduling.
+         * @param data the data given when scheduling.
+         */
+        void onEvent(int tick, int type, int data);
+    }
+
+    private final int capacity;
+
+    // entries, linked in the slot lists or in the free list
+    private final int[] next;
+    private final int[] prev;
+    private final int[] ticks;
+    private final int[] types;
+    private final int[] data;
+    private final int[] generations;
+
+    /**
+     * Slot of each entry, level * SLOTS + slot, NONE if free.
+     */
+    private final int[] slots;
+
+    private final int[] heads = new int[LEVELS * SLOTS];
+
+    private int free;
+
+    private int size;
+
+    /**
+     * Last tick processed by advance().
+     */
+    private int now;
+
+    /**
+     * @param capacity most events pending at once.
+     * @param now      the current tick, events of later ticks are fired by advance().
+     */
+    public TimingWheel(int capacity, int now) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        next = new int[capacity];
+        prev = new int[capacity];
+        ticks = new int[capacity];
+        types = new int[capacity];
+        data = new int[capacity];
+        generations = new int[capacity];
+        slots = new int[capacity];
+        for (int i = 0; i < capacity; i++) slots[i] = NONE;
+        reset(now);
+    }
+
+    /**
+     * Drops every event, their handles become invalid.
+     *
+     * @param now the new current tick.
+     */
+    public void reset(int now) {
+        for (int i = 0; i < heads.length; i++) heads[i] = NONE;
+        for (int i = capacity - 1; i >= 0; i--) {
+            if (slots[i] != NONE) {
+                generations[i] = (generations[i] + 1) & GENERATION_MASK;
+                slots[i] = NONE;
+            }
+            next[i] = i + 1 < capacity ? i + 1 : NONE;
+        }
+        free = 0;
+        size = 0;
+        this.now = now;
+    }
+
+    /**
+     * Schedules an event. Events for the current tick or before are fired by the next
+     * advance().
+     *
+     * @param tick the tick of the event.
+     * @param type the type of the event, passed to the listener.
+     * @param data the data of the event, passed to the listener.
+     * @return the handle of the event, NONE (-1) if the wheel is full.
+     */
+    public int schedule(int tick, int type, int data) {
+        int i = free;
+        if (i == NONE) return NONE;
+        free = next[i];
+        ticks[i] = tick;
+        types[i] = type;
+        this.data[i] = data;
+        insert(i, 1);
+        size++;
+        return generations[i] << INDEX_BITS | i;
+    }
+
+    /**
+     * Cancels an event that has not fired yet.
+     *
+     * @param handle the handle given by schedule().
+     * @return false if the event already fired or was cancelled.
+     */
+    public boolean cancel(int handle) {
+        if (handle < 0) return false;
+        int i = handle & INDEX_MASK;
+        if (i >= capacity || slots[i] == NONE || generations[i] != handle >>> INDEX_BITS) {
+            return false;
+        }
+        unlink(i);
+        release(i);
+        return true;
+    }
+
+    /**
+     * Processes the ticks after the current one up to the given tick, firing their events in
+     * tick order.
+     *
+     * @param tick     the new current tick.
+     * @param listener receives the events.
+     * @return number of events fired.
+     */
+    public int advance(int tick, Listener listener) {
+        int fired = 0;
+        while (now - tick < 0) {
+            now++;
+            // move down the events of the upper slots starting now
+            for (int level = 1; level < LEVELS; level++) {
+                if ((now & ((1 << (SLOT_BITS * level)) - 1)) != 0) break;
+                cascade(level * SLOTS + ((now >>> (SLOT_BITS * level)) & SLOT_MASK));
+            }
+            int slot = now & SLOT_MASK;
+            for (int i = heads[slot]; i != NONE; i = heads[slot]) {
+                int at = ticks[i];
+                int type = types[i];
+                int value = data[i];
+                unlink(i);
+                release(i);
+                fired++;
+                listener.onEvent(at, type, value);
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * @return number of pending events.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the last tick processed by advance().
+     */
+    public int getNow() {
+        return now;
+    }
+
+    /**
+     * Copies the whole state of another wheel of the same capacity, handles included.
+     *
+     * @param other the wheel to copy.
+     */
+    public void copyFrom(TimingWheel other) {
+        if (other.capacity != capacity) throw new IllegalArgumentException("capacity differs");
+        System.arraycopy(other.next, 0, next, 0, capacity);
+        System.arraycopy(other.prev, 0, prev, 0, capacity);
+        System.arraycopy(other.ticks, 0, ticks, 0, capacity);
+        System.arraycopy(other.types, 0, types, 0, capacity);
+        System.arraycopy(other.data, 0, data, 0, capacity);
+        System.arraycopy(other.generations, 0, generations, 0, capacity);
+        System.arraycopy(other.slots, 0, slots, 0, capacity);
+        System.arraycopy(other.heads, 0, heads, 0, heads.length);
+        free = other.free;
+        size = other.size;
+        now = other.now;
+    }
+
+    /**
+     * @param minDistance 1 when scheduling, late events go in the next slot since the current
+     *                    one has already been fired. 0 when cascading, before the current slot
+     *                    is fired.
+     */
+    private void insert(int i, int minDistance) {
+        long distance = Math.max(minDistance, (long) ticks[i] - now);
+        if (distance >= RANGE) distance = RANGE - 1;
+        int at = (int) (now + distance);
+        int level = 0;
+        while (level < LEVELS - 1 && distance >= 1L << (SLOT_BITS * (level + 1))) level++;
+        int slot = level * SLOTS + ((at >>> (SLOT_BITS * level)) & SLOT_MASK);
+        slots[i] = slot;
+        prev[i] = NONE;
+        next[i] = heads[slot];
+        if (heads[slot] != NONE) prev[heads[slot]] = i;
+        heads[slot] = i;
+    }
+
+    private void unlink(int i) {
+        int slot = slots[i];
+        if (prev[i] != NONE) next[prev[i]] = next[i];
+        else heads[slot] = next[i];
+        if (next[i] != NONE) prev[next[i]] = prev[i];
+    }
+
+    private void release(int i) {
+        generations[i] = (generations[i] + 1) & GENERATION_MASK;
+        slots[i] = NONE;
+        next[i] = free;
+        free = i;
+        size--;
+    }
+
+    /**
+     * Places again the events of a slot, they go to lower levels.
+     */
+    private void cascade(int slot) {
+        int i = heads[slot];
+        heads[slot] = NONE;
+        while (i != NONE) {
+            int following = next[i];
+            insert(i, 0);
+            i = following;
+        }
+    }
+}
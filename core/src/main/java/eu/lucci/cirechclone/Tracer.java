@@ -0,0 +1,230 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Low overhead tracing of the game loop phases.
+ * Sections are recorded as begin/end events in a preallocated ring buffer, the latest events
+ * overwrite the oldest. The buffer can be dumped in the Chrome trace-event JSON format, and
+ * sections can also be forwarded, e.g. to android.os.Trace for systrace, see setForwarder().
+ * When disabled, begin() only reads a flag, and end() also a counter of the forwarded sections
+ * still open.
+ */
+public final class Tracer {
+
+    // Sections
+    public static final int UPDATE = 0;
+    public static final int RENDER = 1;
+    public static final int LOCK_CANVAS = 2;
+    public static final int UNLOCK_CANVAS = 3;
+    public static final int INPUT = 4;
+
+    private static final String[] NAMES = {
+            "updateGame", "renderGame", "lockCanvas", "unlockCanvasAndPost", "input"
+    };
+
+    private static final int CAPACITY = 1 << 16;    // must be a power of two
+
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int END_FLAG = 1 << 31;
+
+    private static volatile boolean enabled;
+
+    /**
+     * Set by dump() while it copies the buffer, events are not recorded meanwhile.
+     */
+    private static volatile boolean paused;
+
+    /**
+     * Number of the next event.
+     */
+    private static final AtomicLong next = new AtomicLong();
+
+    /**
+     * Number of events completely written, the buffer is consistent when it equals next.
+     */
+    private static final AtomicLong recorded = new AtomicLong();
+
+    private static final long[] times = new long[CAPACITY];
+
+    private static final long[] threads = new long[CAPACITY];
+
+    /**
+     * Section id, with END_FLAG for end events.
+     */
+    private static final int[] events = new int[CAPACITY];
+
+    /**
+     * Also receives the sections, null if none.
+     */
+    private static volatile Forwarder forwarder;
+
+    /**
+     * Sections forwarded and not ended yet, on all the threads.
+     */
+    private static final AtomicInteger forwardedOpen = new AtomicInteger();
+
+    /**
+     * Sections forwarded and not ended yet on the current thread, by section. An end is
+     * forwarded exactly when its begin was, even if tracing was disabled in between.
+     */
+    private static final ThreadLocal<int[]> forwarded = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[NAMES.length];
+        }
+    };
+
+    private Tracer() {
+    }
+
+    /**
+     * Enables or disables tracing, recorded events are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        Tracer.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets where sections are forwarded as they begin and end. Better set before enabling
+     * tracing, a section begun before the change would not be ended.
+     *
+     * @param forwarder the forwarder, null for none.
+     */
+    public static void setForwarder(Forwarder forwarder) {
+        Tracer.forwarder = forwarder;
+    }
+
+    /**
+     * Begins a section on the current thread.
+     *
+     * @param section the section, one of the constants.
+     */
+    public static void begin(int section) {
+        if (!enabled) return;
+        record(section);
+        Forwarder f = forwarder;
+        if (f != null) {
+            forwarded.get()[section]++;
+            forwardedOpen.incrementAndGet();
+            f.begin(NAMES[section]);
+        }
+    }
+
+    /**
+     * Ends a section on the current thread.
+     *
+     * @param section the section, one of the constants.
+     */
+    public static void end(int section) {
+        if (forwardedOpen.get() > 0) {
+            int[] open = forwarded.get();
+            if (open[section] > 0) {
+                open[section]--;
+                forwardedOpen.decrementAndGet();
+                Forwarder f = forwarder;
+                if (f != null) f.end();
+            }
+        }
+        if (!enabled) return;
+        record(section | END_FLAG);
+    }
+
+    private static void record(int event) {
+        if (paused) return;
+        int i = (int) next.getAndIncrement() & MASK;
+        times[i] = System.nanoTime();
+        threads[i] = Thread.currentThread().getId();
+        events[i] = event;
+        recorded.incrementAndGet();
+    }
+
+    /**
+     * Drops every recorded event. Must be called while tracing is disabled.
+     */
+    public static void clear() {
+        next.set(0);
+        recorded.set(0);
+    }
+
+    /**
+     * Writes the recorded events as Chrome trace-event JSON, it can be opened in
+     * chrome://tracing. It can be called while tracing: recording in the buffer is paused while
+     * it is copied, and the copy is written. Forwarding goes on during the pause.
+     *
+     * @param out the writer, not closed.
+     */
+    public static synchronized void dump(Writer out) throws IOException {
+        long[] times;
+        long[] threads;
+        int[] events;
+        long start;
+        long end;
+        paused = true;
+        try {
+            // wait for the events being written, the ones after paused was read
+            while ((end = next.get()) != recorded.get()) Thread.yield();
+            times = Tracer.times.clone();
+            threads = Tracer.threads.clone();
+            events = Tracer.events.clone();
+            // a late event may have overwritten the oldest slots while copying
+            start = Math.max(0, next.get() - CAPACITY);
+        } finally {
+            paused = false;
+        }
+        out.write("{\"traceEvents\":[");
+        for (long n = start; n < end; n++) {
+            int i = (int) n & MASK;
+            int event = events[i];
+            if (n > start) out.write(",\n");
+            out.write("{\"name\":\"");
+            out.write(NAMES[event & ~END_FLAG]);
+            out.write("\",\"ph\":\"");
+            out.write((event & END_FLAG) != 0 ? 'E' : 'B');
+            out.write("\",\"ts\":");
+            out.write(Long.toString(times[i] / 1000));
+            out.write('.');
+            out.write(Long.toString(times[i] % 1000 / 100));
+            out.write(",\"pid\":1,\"tid\":");
+            out.write(Long.toString(threads[i]));
+            out.write('}');
+        }
+        out.write("]}\n");
+    }
+
+    /**
+     * Receives the sections as they begin and end, on the thread running them.
+     */
+    public interface Forwarder {
+        void begin(String name);
+
+        void end();
+    }
+}
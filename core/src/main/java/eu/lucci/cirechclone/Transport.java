@@ -0,0 +1,50 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Unreliable datagram transport between two players. Packets may be lost, duplicated or
+ * reordered, like UDP packets. Neither method blocks, so they can be called by the game loop.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Largest packet that can be sent.
+     */
+    int MAX_PACKET = 512;
+
+    /**
+     * Sends a packet to the other player.
+     *
+     * @param data   the packet.
+     * @param length the packet length, at most MAX_PACKET.
+     */
+    void send(byte[] data, int length) throws IOException;
+
+    /**
+     * Receives a packet from the other player, if one has arrived.
+     *
+     * @param buffer receives the packet, at least MAX_PACKET long.
+     * @return the packet length, or -1 if there is no packet.
+     */
+    int receive(byte[] buffer) throws IOException;
+}
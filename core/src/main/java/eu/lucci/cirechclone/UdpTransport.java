@@ -0,0 +1,104 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Transport over UDP, with a non-blocking datagram channel.
+ */
+public class UdpTransport implements Transport {
+
+    private final DatagramChannel channel;
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_PACKET);
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_PACKET);
+
+    /**
+     * Binds a local address, the transport is usable once connected.
+     *
+     * @param local the local address, port 0 for any free port.
+     */
+    public UdpTransport(InetSocketAddress local) throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().bind(local);
+    }
+
+    /**
+     * @return a transport bound to an ephemeral port of 127.0.0.1.
+     */
+    public static UdpTransport openLocal() throws IOException {
+        return new UdpTransport(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    }
+
+    /**
+     * @return the local address, to be given to the other player.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) channel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Sets the address of the other player, packets from other addresses are ignored.
+     *
+     * @param remote the other player address.
+     */
+    public void connect(SocketAddress remote) throws IOException {
+        channel.connect(remote);
+    }
+
+    @Override
+    public synchronized void send(byte[] data, int length) throws IOException {
+        sendBuffer.clear();
+        sendBuffer.put(data, 0, length);
+        sendBuffer.flip();
+        try {
+            channel.write(sendBuffer);
+        } catch (PortUnreachableException e) {
+            // the other player is not there yet, or anymore: the packet is lost
+        }
+    }
+
+    @Override
+    public synchronized int receive(byte[] data) throws IOException {
+        receiveBuffer.clear();
+        try {
+            if (channel.receive(receiveBuffer) == null) return -1;
+        } catch (PortUnreachableException e) {
+            return -1;
+        }
+        receiveBuffer.flip();
+        int n = receiveBuffer.remaining();
+        receiveBuffer.get(data, 0, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
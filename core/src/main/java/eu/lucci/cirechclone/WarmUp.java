@@ -0,0 +1,117 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+/**
+ * Plays a throwaway game headless while the menu is shown, so that the simulation, input and
+ * drawing code is compiled before the first real game and its first frames don't hitch.
+ * An Autopilot plays a private game, with rollback enabled and some of its inputs late, and
+ * every tick is drawn by an offscreen renderer. The real game is only read, to stop as soon
+ * as it leaves the menu.
+ */
+public class WarmUp extends Thread {
+
+    /**
+     * Period of the ticks, for stamping the late inputs.
+     */
+    private static final long TICK_NANOS = 1000000000L / GameThread.PREFERRED_FPS;
+
+    private final GameRenderer renderer;
+
+    private final CirechGame watched;
+
+    private final int ticks;
+
+    private volatile boolean cancelled;
+
+    // results
+    private volatile int played;
+
+    private volatile long elapsedNanos;
+
+    /**
+     * @param renderer a renderer that doesn't draw on screen, only called for games in play.
+     * @param watched  the real game, the warm-up stops when it leaves the menu. Can be null.
+     * @param ticks    the most ticks to play.
+     */
+    public WarmUp(GameRenderer renderer, CirechGame watched, int ticks) {
+        setName("warm-up");
+        setPriority(MIN_PRIORITY);
+        setDaemon(true);
+        this.renderer = renderer;
+        this.watched = watched;
+        this.ticks = ticks;
+    }
+
+    @Override
+    public void run() {
+        long begin = System.nanoTime();
+        CirechGame game = new CirechGame(true);
+        game.setRollbackEnabled(true);
+        Autopilot pilot = new Autopilot(0, 0.02f);
+        long seed = 0;
+        int inputs = 0;
+        game.reset(seed);
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        for (int i = 0; i < ticks && !cancelled; i++) {
+            if (watched != null && watched.getCurrentState() != CirechGame.MENU_STATE) break;
+            if (game.getCurrentState() != CirechGame.PLAY_STATE) {
+                game.reset(++seed);
+                game.setCurrentState(CirechGame.PLAY_STATE);
+            }
+            if (pilot.decide(game)) {
+                // one input in four arrives a tick late and is rolled back
+                long late = inputs++ % 4 == 0 ? TICK_NANOS : 0;
+                game.switchColorAt(System.nanoTime() - late);
+            }
+            game.updateGame();
+            if (game.getCurrentState() == CirechGame.PLAY_STATE) renderer.renderGame(game);
+            played = i + 1;
+        }
+        elapsedNanos = System.nanoTime() - begin;
+    }
+
+    /**
+     * Stops the warm-up at the next tick.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return ticks played so far.
+     */
+    public int getPlayed() {
+        return played;
+    }
+
+    /**
+     * @return duration of the warm-up, 0 until it ends.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "warm-up " + played + "/" + ticks + " ticks in " + elapsedNanos / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Verifies claimed scores by playing the submitted replays again.
+ * Simulations are CPU bound, so they run on a pool with one thread per core and a bounded
+ * queue: when the queue is full, new verifications are rejected instead of piling up.
+ * A replay is played with the difficulty profile it records: the default profile is known,
+ * the others have to be added with addProfile(), replays of unknown profiles are rejected.
+ */
+public class ScoreVerifier {
+
+    /**
+     * Longest replay accepted, one hour of play.
+     */
+    public static final int MAX_TICKS = GameThread.PREFERRED_FPS * 60 * 60;
+
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Known difficulty profiles, by id.
+     */
+    private final Map<Integer, DifficultyProfile> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * @param queueSize number of verifications that can wait for a thread.
+     */
+    public ScoreVerifier(int queueSize) {
+        this(Runtime.getRuntime().availableProcessors(), queueSize);
+    }
+
+    /**
+     * @param threads   number of simulation threads.
+     * @param queueSize number of verifications that can wait for a thread.
+     */
+    public ScoreVerifier(int threads, int queueSize) {
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize));
+        addProfile(DifficultyProfile.DEFAULT);
+    }
+
+    /**
+     * Makes the replays played with the profile verifiable.
+     *
+     * @param profile a difficulty profile.
+     */
+    public void addProfile(DifficultyProfile profile) {
+        profiles.put(profile.getId(), profile);
+    }
+
+    /**
+     * @param replay a replay.
+     * @return the difficulty profile the replay was played with.
+     * @throws IllegalArgumentException if the profile is not known.
+     */
+    public DifficultyProfile getProfile(Replay replay) {
+        DifficultyProfile profile = profiles.get(replay.getProfileId());
+        if (profile == null) {
+            throw new IllegalArgumentException("unknown difficulty profile "
+                    + Integer.toHexString(replay.getProfileId()));
+        }
+        return profile;
+    }
+
+    /**
+     * Plays a replay of the default profile on the calling thread.
+     *
+     * @param replay the replay to verify.
+     * @return the verified score.
+     * @throws IllegalArgumentException if the replay can't be verified.
+     */
+    public static int simulate(Replay replay) {
+        return simulate(replay, DifficultyProfile.DEFAULT);
+    }
+
+    /**
+     * Plays the replay on the calling thread.
+     *
+     * @param replay  the replay to verify.
+     * @param profile the difficulty profile of the replay.
+     * @return the verified score.
+     * @throws IllegalArgumentException if the replay can't be verified.
+     */
+    public static int simulate(Replay replay, DifficultyProfile profile) {
+        if (!replay.isFixedPoint()) {
+            throw new IllegalArgumentException("only fixed-point replays can be verified");
+        }
+        if (replay.getTicks() > MAX_TICKS) {
+            throw new IllegalArgumentException("replay too long: " + replay.getTicks());
+        }
+        return new ReplayPlayer(replay, profile).playToEnd();
+    }
+
+    /**
+     * Schedules a verification.
+     *
+     * @param replay the replay to verify.
+     * @return the future verified score.
+     * @throws RejectedExecutionException if too many verifications are pending.
+     */
+    public Future<Integer> submit(final Replay replay) {
+        return pool.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return simulate(replay, getProfile(replay));
+            }
+        });
+    }
+
+    /**
+     * Verifies a replay, waiting for the result.
+     *
+     * @param replay the replay to verify.
+     * @return the verified score.
+     * @throws RejectedExecutionException if too many verifications are pending.
+     * @throws IllegalArgumentException   if the replay can't be verified.
+     * @throws InterruptedException       if interrupted while waiting.
+     */
+    public int verify(Replay replay) throws InterruptedException {
+        try {
+            return submit(replay).get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Verifies a replay, waiting for the result at most the given time. On timeout the
+     * verification is cancelled.
+     *
+     * @param replay  the replay to verify.
+     * @param timeout the longest wait.
+     * @param unit    the unit of timeout.
+     * @return the verified score.
+     * @throws RejectedExecutionException if too many verifications are pending.
+     * @throws IllegalArgumentException   if the replay can't be verified.
+     * @throws InterruptedException       if interrupted while waiting.
+     * @throws TimeoutException           if the result was not ready in time.
+     */
+    public int verify(Replay replay, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        Future<Integer> result = submit(replay);
+        try {
+            return result.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            result.cancel(true);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Stops the simulation threads.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the VerificationServer. It records games played by an Autopilot, posts
+ * them from many concurrent clients and reports throughput and latency percentiles.
+ * Run it with: gradle :server:loadTest -Pargs="[requests] [clients] [port]", or
+ * java eu.lucci.cirechclone.VerificationLoadGenerator [requests] [clients] [port]
+ * Without a port, an in-process server is started.
+ */
+public class VerificationLoadGenerator {
+
+    /**
+     * Number of distinct games to post.
+     */
+    private static final int GAMES = 64;
+
+    /**
+     * Games are stopped after two minutes of play.
+     */
+    private static final int MAX_TICKS = GameThread.PREFERRED_FPS * 120;
+
+    private final URL url;
+
+    private final byte[][] bodies;
+
+    // results
+    private final long[] latencies;
+
+    private final AtomicInteger nextRequest = new AtomicInteger();
+
+    private final AtomicInteger verified = new AtomicInteger();
+
+    private final AtomicInteger mismatches = new AtomicInteger();
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * @param url      the verification URL.
+     * @param requests number of requests to send.
+     */
+    public VerificationLoadGenerator(URL url, int requests) throws IOException {
+        this.url = url;
+        this.latencies = new long[requests];
+        bodies = new byte[GAMES][];
+        CirechGame game = new CirechGame(true);
+        for (int i = 0; i < GAMES; i++) {
+            Replay replay = new Autopilot(i, 0.02f).play(game, i * 31L + 7, MAX_TICKS);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            replay.write(new DataOutputStream(bytes));
+            bodies[i] = bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Sends every request and prints the report.
+     *
+     * @param clients number of concurrent clients.
+     */
+    public void run(int clients) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Thread client = new Thread("client " + i) {
+                @Override
+                public void run() {
+                    int n;
+                    while ((n = nextRequest.getAndIncrement()) < latencies.length) {
+                        long begin = System.nanoTime();
+                        post(bodies[n % GAMES]);
+                        latencies[n] = System.nanoTime() - begin;
+                    }
+                    done.countDown();
+                }
+            };
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.println("requests:   " + sorted.length + " from " + clients + " clients");
+        System.out.println("verified:   " + verified + " (" + mismatches + " mismatches, "
+                + errors + " errors)");
+        System.out.printf("throughput: %.1f req/s%n", sorted.length * 1e9 / elapsed);
+        System.out.printf("latency:    p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private void post(byte[] body) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+            if (connection.getResponseCode() != 200) {
+                errors.incrementAndGet();
+                return;
+            }
+            InputStream in = connection.getInputStream();
+            String response = new String(readAll(in), "UTF-8").trim();
+            in.close();
+            if (response.endsWith(" ok")) verified.incrementAndGet();
+            else mismatches.incrementAndGet();
+        } catch (IOException e) {
+            errors.incrementAndGet();
+        } finally {
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int n;
+        while ((n = in.read(buffer)) != -1) bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param sorted sorted values.
+     * @param p      the percentile, in [0, 1].
+     * @return the nearest-rank percentile.
+     */
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        VerificationServer server = null;
+        int port;
+        if (args.length > 2) {
+            port = Integer.parseInt(args[2]);
+        } else {
+            server = VerificationServer.startLocal(new ScoreVerifier(requests));
+            port = server.getPort();
+        }
+        new VerificationLoadGenerator(new URL("http://127.0.0.1:" + port + VerificationServer.PATH),
+                requests).run(clients);
+        if (server != null) server.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A small HTTP service that verifies scores.
+ * POST /verify with a replay (see Replay.write()) as body answers with the verified score,
+ * the claimed score and whether they match, as text. One request per connection.
+ * <p>
+ * Connections are served by threads that mostly wait for the simulation pool of a
+ * ScoreVerifier, so thousands of them can be open at the same time: virtual threads when the
+ * JVM has them (Java 21+), plain threads otherwise. A connection must send its request within
+ * REQUEST_TIMEOUT_MS, and may not stall longer than READ_TIMEOUT_MS between reads, so slow
+ * clients can't hold the connection slots; the verification must also end by then.
+ * Run it with: gradle :server:run, or
+ * java eu.lucci.cirechclone.VerificationServer [port [difficulty profile files...]]
+ * Replays played with the default profile or with one of the given files are verified.
+ *
+ * @see eu.lucci.cirechclone.ScoreVerifier
+ */
+public class VerificationServer {
+
+    public static final String PATH = "/verify";
+
+    private static final int DEFAULT_PORT = 8765;
+
+    private static final int MAX_CONNECTIONS = 8192;
+
+    private static final int MAX_BODY = 1 << 20;
+
+    private static final int MAX_LINE = 8192;
+
+    /**
+     * Longest wait for any read of a request.
+     */
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    /**
+     * Longest time from accepting a connection to the verified score.
+     */
+    private static final long REQUEST_TIMEOUT_MS = 20000;
+
+    private final ScoreVerifier verifier;
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService connections;
+
+    /**
+     * Slots of the open connections.
+     */
+    private final Semaphore slots = new Semaphore(MAX_CONNECTIONS);
+
+    private final Thread acceptor;
+
+    /**
+     * Starts a server.
+     *
+     * @param verifier the verifier to use.
+     * @param address  the address to bind, null for any.
+     * @param port     the port to bind, 0 for an ephemeral one.
+     */
+    public VerificationServer(ScoreVerifier verifier, InetAddress address, int port)
+            throws IOException {
+        this.verifier = verifier;
+        serverSocket = new ServerSocket(port, 1024, address);
+        connections = newConnectionExecutor();
+        acceptor = new Thread("verification acceptor") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        acceptor.start();
+    }
+
+    /**
+     * Starts a server on the loopback interface and an ephemeral port, to be used in-process.
+     *
+     * @param verifier the verifier to use.
+     * @return the started server.
+     */
+    public static VerificationServer startLocal(ScoreVerifier verifier) throws IOException {
+        return new VerificationServer(verifier, InetAddress.getByName("127.0.0.1"), 0);
+    }
+
+    /**
+     * @return the bound port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return a virtual thread per task executor if available, else a pool of plain threads.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Class.forName("java.util.concurrent.Executors")
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            // before Java 21, the slots bound the threads
+            return new ThreadPoolExecutor(0, MAX_CONNECTIONS, 30, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>());
+        }
+    }
+
+    /**
+     * Stops accepting connections. Running requests are interrupted.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) return;
+                continue;
+            }
+            if (!slots.tryAcquire()) {
+                closeQuietly(socket);
+                continue;
+            }
+            try {
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                slots.release();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEST_TIMEOUT_MS);
+        try {
+            InputStream in = new BufferedInputStream(new DeadlineInputStream(socket, deadline));
+            OutputStream out = socket.getOutputStream();
+            String requestLine = readLine(in);
+            int contentLength = -1;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                    try {
+                        contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+                    } catch (NumberFormatException e) {
+                        contentLength = -1;
+                    }
+                }
+            }
+            if (requestLine == null || !requestLine.startsWith("POST " + PATH + " ")) {
+                respond(out, 404, "Not Found", "unknown request");
+                return;
+            }
+            if (contentLength < 0 || contentLength > MAX_BODY) {
+                respond(out, 400, "Bad Request", "missing or invalid Content-Length");
+                return;
+            }
+            byte[] body = new byte[contentLength];
+            new DataInputStream(in).readFully(body);
+            Replay replay;
+            try {
+                replay = Replay.read(new DataInputStream(new ByteArrayInputStream(body)),
+                        ScoreVerifier.MAX_TICKS, body.length);
+            } catch (IOException e) {
+                respond(out, 400, "Bad Request", "invalid replay: " + e.getMessage());
+                return;
+            }
+            int verified;
+            try {
+                verified = verifier.verify(replay, deadline - System.nanoTime(),
+                        TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                respond(out, 503, "Service Unavailable", "too many pending verifications");
+                return;
+            } catch (TimeoutException e) {
+                respond(out, 503, "Service Unavailable", "verification timed out");
+                return;
+            } catch (IllegalArgumentException e) {
+                respond(out, 422, "Unprocessable Entity", e.getMessage());
+                return;
+            }
+            respond(out, 200, "OK", "verified " + verified + " claimed " + replay.getScore()
+                    + (verified == replay.getScore() ? " ok" : " mismatch"));
+        } catch (InterruptedException | SocketException e) {
+            // server closed, or client gone
+        } catch (SocketTimeoutException e) {
+            // client too slow, the request is dropped
+        } catch (IOException e) {
+            // client sent garbage, nothing to answer
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void respond(OutputStream out, int code, String reason, String body)
+            throws IOException {
+        byte[] content = (body + "\n").getBytes("UTF-8");
+        String head = "HTTP/1.1 " + code + " " + reason + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes("US-ASCII"));
+        out.write(content);
+        out.flush();
+    }
+
+    /**
+     * Reads an ASCII line terminated by CRLF or LF.
+     *
+     * @return the line without terminator, or null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') sb.setLength(len - 1);
+                return sb.toString();
+            }
+            if (sb.length() == MAX_LINE) throw new IOException("line too long");
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * The input of a connection that times out when a read takes longer than READ_TIMEOUT_MS,
+     * or ends after the deadline.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+        private final Socket socket;
+        private final long deadline;
+
+        DeadlineInputStream(Socket socket, long deadline) throws IOException {
+            super(socket.getInputStream());
+            this.socket = socket;
+            this.deadline = deadline;
+        }
+
+        private void setTimeout() throws IOException {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) throw new SocketTimeoutException("request deadline expired");
+            socket.setSoTimeout((int) Math.min(left, READ_TIMEOUT_MS));
+        }
+
+        @Override
+        public int read() throws IOException {
+            setTimeout();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            setTimeout();
+            return super.read(b, off, len);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ScoreVerifier verifier = new ScoreVerifier(4096);
+        for (int i = 1; i < args.length; i++) {
+            try (FileReader in = new FileReader(args[i])) {
+                verifier.addProfile(DifficultyProfile.read(in));
+            }
+        }
+        VerificationServer server = new VerificationServer(verifier, null, port);
+        System.out.println("verifying scores on port " + server.getPort() + PATH);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.util.Random;
+
+/**
+ * Load test of the SessionHost: thousands of Autopilot games at the game tick rate, with
+ * sessions leaving and joining all the time, on 1, 2, 4... workers up to the number of cores.
+ * For each number of workers it reports the ticks run per second, against the demand, with
+ * the speedup over one worker, and the lateness that shows how far behind the sessions are.
+ * Whether the ticks scale with the workers is what the sweep measures, on the machine it runs
+ * on: give it more sessions than a worker can tick to see it.
+ * Run it with: gradle :tools:runArenaSimulation -Pargs="[sessions] [seconds] [lanes]"
+ */
+public class ArenaSimulation {
+
+    /**
+     * Sessions replaced per second.
+     */
+    private static final int CHURN = 1000;
+
+    private static final int BARRIERS_PER_LANE = 30;
+
+    /**
+     * A game played forever by an Autopilot.
+     */
+    static class BotGame implements GameEngine {
+
+        private final CirechGame game;
+
+        private final Autopilot pilot;
+
+        BotGame(long seed, int lanes) {
+            game = new CirechGame(true, lanes, BARRIERS_PER_LANE);
+            pilot = new Autopilot(seed, 0.01f);
+            game.reset(seed);
+            game.setCurrentState(CirechGame.PLAY_STATE);
+        }
+
+        @Override
+        public void updateGame() {
+            if (game.getCurrentState() != CirechGame.PLAY_STATE) {
+                game.reset();
+                game.setCurrentState(CirechGame.PLAY_STATE);
+            }
+            pilot.control(game);
+            game.updateGame();
+        }
+    }
+
+    /**
+     * @param single ticks per second of one worker, 0 if not known yet.
+     * @return ticks per second.
+     */
+    static long run(int threads, int sessionCount, int seconds, int lanes, long single)
+            throws InterruptedException {
+        SessionHost host = new SessionHost(threads, GameThread.PREFERRED_FPS);
+        SessionHost.Session[] sessions = new SessionHost.Session[sessionCount];
+        Random random = new Random(threads);
+        long seed = 0;
+        for (int i = 0; i < sessionCount; i++) sessions[i] = host.join(new BotGame(seed++, lanes));
+        // let the sessions settle, then measure
+        Thread.sleep(1000);
+        long ticks = host.getTicks();
+        long begin = System.nanoTime();
+        long end = begin + seconds * 1000000000L;
+        long left = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(10);
+            long due = (System.nanoTime() - begin) * CHURN / 1000000000L;
+            for (; left < due; left++) {
+                int i = random.nextInt(sessionCount);
+                sessions[i].close();
+                sessions[i] = host.join(new BotGame(seed++, lanes));
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        long done = host.getTicks() - ticks;
+        long demanded = (long) sessionCount * GameThread.PREFERRED_FPS;
+        long rate = done * 1000000000L / elapsed;
+        System.out.println(String.format("%2d threads: %8d ticks/s of %8d, speedup %.2f,"
+                        + " lateness p50/p99 %6d/%7d us, %d left/joined", threads, rate, demanded,
+                single > 0 ? (double) rate / single : 1.0, host.getLatenessQuantile(0.5f),
+                host.getLatenessQuantile(0.99f), left));
+        host.shutdown();
+        return rate;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int lanes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(sessions + " sessions of " + lanes + " lanes at "
+                + GameThread.PREFERRED_FPS + " Hz, " + cores + " cores");
+        long single = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            long rate = run(threads, sessions, seconds, lanes, single);
+            if (threads == 1) single = rate;
+        }
+        if (Integer.bitCount(cores) != 1) run(cores, sessions, seconds, lanes, single);
+    }
+}
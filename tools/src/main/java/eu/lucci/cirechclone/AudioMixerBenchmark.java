@@ -0,0 +1,134 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+/**
+ * Benchmark of the AudioMixer on the JVM. First every voice is kept busy and buffers are
+ * mixed as fast as possible; then an AudioThread runs against an output paced like a device
+ * while game threads hammer the command queue.
+ * Run it with: gradle :tools:runAudioMixerBenchmark -Pargs="[seconds of audio] [producers]"
+ */
+public class AudioMixerBenchmark {
+
+    private static final int BUFFER_FRAMES = 256;
+
+    /**
+     * Discards the buffers, sleeping for as long as they would play.
+     */
+    static class PacedOutput implements AudioOutput {
+        private long next = System.nanoTime();
+        long writes;
+
+        @Override
+        public int getBufferFrames() {
+            return BUFFER_FRAMES;
+        }
+
+        @Override
+        public void write(short[] buffer, int frames) {
+            writes++;
+            next += frames * 1000000000L / AudioMixer.SAMPLE_RATE;
+            long sleep = next - System.nanoTime();
+            if (sleep <= 0) return;
+            try {
+                Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static void mixThroughput(int seconds) {
+        AudioMixer mixer = new AudioMixer();
+        int sample = mixer.addSample(AudioMixer.tone(440, 2000, Short.MAX_VALUE / 8));
+        short[] buffer = new short[BUFFER_FRAMES];
+        int buffers = seconds * AudioMixer.SAMPLE_RATE / BUFFER_FRAMES;
+        long begin = System.nanoTime();
+        for (int b = 0; b < buffers; b++) {
+            if (b % 8 == 0) {
+                for (int v = 0; v < 8; v++) mixer.play(sample, AudioMixer.FULL_VOLUME / 2);
+            }
+            mixer.mix(buffer, BUFFER_FRAMES);
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.println(String.format("mix: %d ns/frame with %d voices, %.0fx real time",
+                elapsed / ((long) buffers * BUFFER_FRAMES), mixer.getPeakVoices(),
+                seconds * 1e9 / elapsed));
+    }
+
+    static void queue(int seconds, int producers) throws InterruptedException {
+        final AudioMixer mixer = new AudioMixer();
+        final int sample = mixer.addSample(AudioMixer.tone(880, 50, Short.MAX_VALUE / 4));
+        PacedOutput output = new PacedOutput();
+        AudioThread audio = new AudioThread(mixer, output);
+        audio.start();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        final long[] offers = new long[producers];
+        final long[] offerNanos = new long[producers];
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    // a burst of cues every tick
+                    while (System.nanoTime() < end) {
+                        for (int i = 0; i < 16; i++) {
+                            long begin = System.nanoTime();
+                            mixer.play(sample, AudioMixer.FULL_VOLUME);
+                            offerNanos[id] += System.nanoTime() - begin;
+                            offers[id]++;
+                        }
+                        try {
+                            Thread.sleep(1000 / GameThread.PREFERRED_FPS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        for (Thread t : threads) t.join();
+        audio.shutdown();
+        audio.join();
+        long total = 0, nanos = 0;
+        for (int p = 0; p < producers; p++) {
+            total += offers[p];
+            nanos += offerNanos[p];
+        }
+        System.out.println(String.format("queue: %d producers, %d requests, %d ns/request, "
+                        + "%d dropped, %d stolen voices, %d buffers of %d frames", producers,
+                total, nanos / Math.max(1, total), mixer.getDropped(), mixer.getStolenVoices(),
+                output.writes, BUFFER_FRAMES));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        for (int round = 0; round < 3; round++) mixThroughput(seconds);
+        queue(Math.max(1, seconds / 20), producers);
+    }
+}
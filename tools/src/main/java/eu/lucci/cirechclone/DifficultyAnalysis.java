@@ -0,0 +1,202 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds where the game gets hard, from an archive of recorded runs. Every run is played again
+ * and, for each score, the analysis counts the runs that reached it and the runs that died
+ * there: their ratio is the hazard, the chance of losing at that barrier. Runs whose verified
+ * score differs from the recorded one are reported and left out. Every run is played with the
+ * difficulty profile it records, runs of profiles that were not given are skipped. The archive
+ * is streamed, so the memory used does not depend on the number of runs.
+ * Run it with:
+ * gradle :tools:runDifficultyAnalysis -Pargs="archive [runs to generate [profile files...]]"
+ * With a number of runs other than 0, the archive is first filled with games played by
+ * Autopilots of different skill, with the default profile and the given ones in turn.
+ */
+public class DifficultyAnalysis implements ReplayArchive.Visitor {
+
+    /**
+     * Scores above this one are counted together.
+     */
+    private static final int MAX_SCORE = 100;
+
+    /**
+     * Generated games are stopped after two minutes of play.
+     */
+    private static final int MAX_TICKS = GameThread.PREFERRED_FPS * 120;
+
+    private final long[] reached = new long[MAX_SCORE + 1];
+
+    private final long[] deaths = new long[MAX_SCORE + 1];
+
+    private final CirechGame fixedGame = new CirechGame(true);
+
+    private final CirechGame floatGame = new CirechGame(false);
+
+    /**
+     * Known difficulty profiles, by id.
+     */
+    private final Map<Integer, DifficultyProfile> profiles = new HashMap<>();
+
+    private int runs;
+
+    private int mismatches;
+
+    private int unknownProfiles;
+
+    private int survivors;
+
+    private long ticks;
+
+    public DifficultyAnalysis() {
+        addProfile(DifficultyProfile.DEFAULT);
+    }
+
+    /**
+     * Makes the runs played with the profile part of the analysis.
+     *
+     * @param profile a difficulty profile.
+     */
+    public void addProfile(DifficultyProfile profile) {
+        profiles.put(profile.getId(), profile);
+    }
+
+    @Override
+    public boolean visit(ReplayArchive.Run run) {
+        DifficultyProfile profile = profiles.get(run.getProfileId());
+        if (profile == null) {
+            unknownProfiles++;
+            return true;
+        }
+        Replay replay = run.toReplay();
+        ReplayPlayer player = new ReplayPlayer(replay, replay.isFixedPoint() ? fixedGame : floatGame,
+                profile);
+        int score = player.playToEnd();
+        if (score != run.getScore()) {
+            mismatches++;
+            return true;
+        }
+        runs++;
+        ticks += run.getTicks();
+        int top = Math.min(score, MAX_SCORE);
+        for (int s = 0; s <= top; s++) reached[s]++;
+        if (player.getGame().getCurrentState() == CirechGame.GAME_OVER_STATE) {
+            deaths[top]++;
+        } else {
+            survivors++;
+        }
+        return true;
+    }
+
+    /**
+     * @param score a score.
+     * @return the fraction of the runs reaching the score that died there.
+     */
+    public float getHazard(int score) {
+        int s = Math.min(score, MAX_SCORE);
+        return reached[s] == 0 ? 0 : (float) deaths[s] / reached[s];
+    }
+
+    public void print() {
+        System.out.println(runs + " runs, " + mismatches + " mismatches, " + unknownProfiles
+                + " of unknown profiles, " + survivors + " survived, mean "
+                + (runs == 0 ? 0 : ticks / runs) + " ticks");
+        System.out.println("score   reached    deaths  hazard");
+        for (int s = 0; s <= MAX_SCORE && reached[s] > 0; s++) {
+            System.out.println(String.format("%5s %9d %9d  %5.1f%%",
+                    s == MAX_SCORE ? MAX_SCORE + "+" : Integer.toString(s), reached[s], deaths[s],
+                    getHazard(s) * 100));
+        }
+    }
+
+    /**
+     * Fills an archive with games played by Autopilots, one run a minute, with the profiles in
+     * turn.
+     */
+    static void generate(File path, int count, List<DifficultyProfile> profiles)
+            throws IOException {
+        CirechGame game = new CirechGame(true);
+        long date = System.currentTimeMillis() - count * 60000L;
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        DataOutputStream singleOut = new DataOutputStream(single);
+        ReplayArchive.Writer writer = new ReplayArchive.Writer(
+                new BufferedOutputStream(new FileOutputStream(path)));
+        try {
+            for (int i = 0; i < count; i++) {
+                game.setDifficulty(profiles.get(i % profiles.size()));
+                Autopilot pilot = new Autopilot(i, 0.005f + (i % 8) * 0.005f);
+                Replay replay = pilot.play(game, i * 31L + 7, MAX_TICKS);
+                writer.add(replay, date + i * 60000L);
+                replay.write(singleOut);
+            }
+        } finally {
+            writer.close();
+        }
+        System.out.println(count + " runs archived in " + path.length() + " bytes, "
+                + path.length() * 10 / Math.max(1, count) / 10f + " bytes/run ("
+                + single.size() * 10 / Math.max(1, count) / 10f + " as single replays)");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println(
+                    "usage: DifficultyAnalysis archive [runs to generate [profile files...]]");
+            System.exit(2);
+        }
+        File path = new File(args[0]);
+        List<DifficultyProfile> profiles = new ArrayList<>();
+        profiles.add(DifficultyProfile.DEFAULT);
+        for (int i = 2; i < args.length; i++) {
+            try (FileReader in = new FileReader(args[i])) {
+                profiles.add(DifficultyProfile.read(in));
+            }
+        }
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        if (count > 0) generate(path, count, profiles);
+        ReplayArchive.Reader reader = new ReplayArchive.Reader(path);
+        try {
+            DifficultyAnalysis analysis = new DifficultyAnalysis();
+            for (DifficultyProfile profile : profiles) analysis.addProfile(profile);
+            long begin = System.nanoTime();
+            reader.scan(analysis);
+            long elapsed = Math.max(1, System.nanoTime() - begin);
+            analysis.print();
+            System.out.println(reader.size() + " runs in " + reader.getSegmentCount()
+                    + " segments played in " + elapsed / 1000000 + " ms, "
+                    + reader.size() * 1000000000L / elapsed + " runs/s");
+        } finally {
+            reader.close();
+        }
+    }
+}
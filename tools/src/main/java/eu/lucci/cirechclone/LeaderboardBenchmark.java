@@ -0,0 +1,124 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark of the Leaderboard with millions of entries: the time of insertions, of rank
+ * lookups from one thread and from a reader per core, and of top and around queries.
+ * Scores mostly follow the exponential curve of real games, with a few huge ones so that the
+ * tree gets its largest size.
+ * Run it with: gradle :tools:runLeaderboardBenchmark -Pargs="[entries] [lookups]"
+ */
+public class LeaderboardBenchmark {
+
+    private static final int MEAN_SCORE = 150;
+
+    private static final String[] PLAYERS = new String[1024];
+
+    static {
+        for (int i = 0; i < PLAYERS.length; i++) PLAYERS[i] = "player" + i;
+    }
+
+    static int score(Random random) {
+        if (random.nextInt(10000) == 0) return random.nextInt(Leaderboard.MAX_SCORE + 1);
+        return (int) (-Math.log(1 - random.nextDouble()) * MEAN_SCORE);
+    }
+
+    static Leaderboard fill(int entries) {
+        Random random = new Random(1);
+        Leaderboard leaderboard = new Leaderboard();
+        long begin = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            leaderboard.insert(PLAYERS[i & (PLAYERS.length - 1)], score(random));
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.println(String.format("insert: %d ns", elapsed / entries));
+        return leaderboard;
+    }
+
+    /**
+     * @return the sum of the ranks, so that the lookups can't be left out.
+     */
+    static long lookups(Leaderboard leaderboard, int lookups, long seed) {
+        Random random = new Random(seed);
+        long sum = 0;
+        for (int i = 0; i < lookups; i++) sum += leaderboard.rankOf(score(random));
+        return sum;
+    }
+
+    static void rank(Leaderboard leaderboard, int lookups) {
+        long begin = System.nanoTime();
+        long sum = lookups(leaderboard, lookups, 2);
+        long elapsed = System.nanoTime() - begin;
+        System.out.println(String.format("rankOf, 1 reader: %d ns (%d)", elapsed / lookups,
+                sum & 0xFF));
+    }
+
+    static void concurrentRank(final Leaderboard leaderboard, final int lookups)
+            throws InterruptedException {
+        int readers = Runtime.getRuntime().availableProcessors();
+        final AtomicLong sum = new AtomicLong();
+        Thread[] threads = new Thread[readers];
+        for (int i = 0; i < readers; i++) {
+            final long seed = 3 + i;
+            threads[i] = new Thread("reader " + i) {
+                @Override
+                public void run() {
+                    sum.addAndGet(lookups(leaderboard, lookups, seed));
+                }
+            };
+        }
+        long begin = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - begin;
+        System.out.println(String.format("rankOf, %d readers: %d ns per lookup per reader, "
+                        + "%.1f M lookups/s (%d)", readers, elapsed / lookups,
+                (double) lookups * readers * 1000 / elapsed, sum.get() & 0xFF));
+    }
+
+    static void queries(Leaderboard leaderboard, int queries) {
+        Random random = new Random(4);
+        long size = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < queries; i++) size += leaderboard.top(10).size();
+        long top = System.nanoTime();
+        for (int i = 0; i < queries; i++) size += leaderboard.around(score(random), 5).size();
+        long around = System.nanoTime();
+        System.out.println(String.format("top(10): %d ns, around(5): %d ns (%d)",
+                (top - begin) / queries, (around - top) / queries, size & 0xFF));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        System.out.println(entries + " entries, " + lookups + " lookups");
+        for (int round = 0; round < 3; round++) {
+            Leaderboard leaderboard = fill(entries);
+            rank(leaderboard, lookups);
+            concurrentRank(leaderboard, lookups);
+            queries(leaderboard, lookups / 10);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.util.Arrays;
+
+/**
+ * Plays a head-to-head game between two bots on this machine, each with its own
+ * LockstepSession and game loop thread, over a simulated network. At the end it checks that
+ * each machine simulated the game of the other player exactly as the other player did, and
+ * reports the session metrics.
+ * Run it with: gradle :tools:runLockstepSimulation
+ * -Pargs="[loopback|udp] [latency ms] [jitter ms] [loss] [input delay]"
+ */
+public class LockstepSimulation {
+
+    private static final long TICK_NANOS = 1000000000L / GameThread.PREFERRED_FPS;
+
+    /**
+     * Games are stopped after two minutes.
+     */
+    private static final int MAX_TICKS = GameThread.PREFERRED_FPS * 120;
+
+    private final LockstepSession[] sessions = new LockstepSession[2];
+
+    private final Transport[] transports;
+
+    /**
+     * @param transports connected transports of the two players.
+     * @param seed       the seed of the game.
+     * @param inputDelay the input delay of both players.
+     */
+    public LockstepSimulation(Transport[] transports, long seed, int inputDelay) {
+        this.transports = transports;
+        for (int i = 0; i < 2; i++) {
+            sessions[i] = new LockstepSession(transports[i], seed, true, inputDelay);
+        }
+    }
+
+    /**
+     * Plays until both sessions are finished.
+     *
+     * @return true if both players agree on both games.
+     */
+    public boolean run() throws Exception {
+        Thread[] loops = new Thread[2];
+        final Exception[] errors = new Exception[2];
+        for (int i = 0; i < 2; i++) {
+            final int player = i;
+            loops[i] = new Thread("player " + i) {
+                @Override
+                public void run() {
+                    try {
+                        play(player);
+                    } catch (Exception e) {
+                        errors[player] = e;
+                    }
+                }
+            };
+            loops[i].start();
+        }
+        for (Thread loop : loops) loop.join();
+        for (Exception e : errors) if (e != null) throw e;
+        for (Transport t : transports) t.close();
+        boolean agree = true;
+        for (int i = 0; i < 2; i++) {
+            if (sessions[i].getState() != LockstepSession.RUNNING_STATE) {
+                System.out.println("player " + i + ": session ended early");
+                agree = false;
+            }
+            Replay mine = sessions[i].getLocalGame().getReplay();
+            Replay seen = sessions[1 - i].getRemoteGame().getReplay();
+            boolean same = mine.getScore() == seen.getScore() && mine.getTicks() == seen.getTicks()
+                    && Arrays.equals(mine.getInputs(), seen.getInputs());
+            System.out.println("player " + i + ": score " + mine.getScore() + " in "
+                    + mine.getTicks() + " ticks, seen by the other player: score "
+                    + seen.getScore() + " in " + seen.getTicks() + " ticks, "
+                    + (same ? "same inputs" : "DIFFERENT"));
+            System.out.println("  " + sessions[i]);
+            agree &= same;
+        }
+        return agree;
+    }
+
+    /**
+     * Game loop of a player, on a fixed schedule.
+     */
+    private void play(int player) throws InterruptedException {
+        LockstepSession session = sessions[player];
+        Autopilot bot = new Autopilot(player, 0.01f);
+        long next = System.nanoTime();
+        while (!(sessions[0].isFinished() && sessions[1].isFinished())) {
+            CirechGame game = session.getLocalGame();
+            if (game.getCurrentState() == CirechGame.PLAY_STATE) {
+                if (game.getTick() >= MAX_TICKS) game.setCurrentState(CirechGame.GAME_OVER_STATE);
+                else if (bot.decide(game)) session.switchColor();
+            }
+            session.updateGame();
+            next += TICK_NANOS;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "loopback";
+        long latency = (args.length > 1 ? Long.parseLong(args[1]) : 40) * 1000000L;
+        long jitter = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1000000L;
+        float loss = args.length > 3 ? Float.parseFloat(args[3]) : 0.05f;
+        int delay = args.length > 4 ? Integer.parseInt(args[4])
+                : LockstepSession.DEFAULT_INPUT_DELAY;
+        Transport[] transports;
+        if (mode.equals("udp")) {
+            UdpTransport a = UdpTransport.openLocal();
+            UdpTransport b = UdpTransport.openLocal();
+            a.connect(b.getLocalAddress());
+            b.connect(a.getLocalAddress());
+            transports = new Transport[]{a, b};
+        } else {
+            LoopbackTransport[] pair = LoopbackTransport.pair();
+            transports = new Transport[]{pair[0], pair[1]};
+        }
+        // each direction gets its own delays
+        for (int i = 0; i < 2; i++) {
+            transports[i] = new DelayedTransport(transports[i], latency / 2, jitter, loss, i);
+        }
+        boolean agree = new LockstepSimulation(transports, 42, delay).run();
+        System.out.println(agree ? "players agree" : "players DISAGREE");
+        System.exit(agree ? 0 : 1);
+    }
+}
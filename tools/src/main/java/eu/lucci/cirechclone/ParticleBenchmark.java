@@ -0,0 +1,96 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+/**
+ * Headless benchmark of the ParticleSystem. For growing budgets, bursts are emitted every
+ * tick at several times the rate the budget can hold, and the emission, the update and the
+ * preparation of the point batches are timed. Then multi-lane games are played with and
+ * without particles.
+ * Run it with: gradle :tools:runParticleBenchmark -Pargs="[ticks]"
+ */
+public class ParticleBenchmark {
+
+    private static final int[] BUDGETS = {1024, 4096, 16384, 65536};
+
+    private static final int BURST = 24;
+
+    private static final int LIFE = 30;
+
+    static void run(int budget, int ticks) {
+        ParticleSystem particles = new ParticleSystem(budget);
+        float[] points = new float[budget * 2];
+        // bursts per tick to ask for four times the budget over a life
+        int bursts = Math.max(1, budget * 4 / LIFE / BURST);
+        long emitNanos = 0, updateNanos = 0, drawNanos = 0, live = 0;
+        for (int t = 0; t < ticks; t++) {
+            long begin = System.nanoTime();
+            for (int b = 0; b < bursts; b++) {
+                particles.emit((b + 0.5f) / bursts, 1, BURST, (b & 1) == 0, 0.01f, LIFE);
+            }
+            long emitted = System.nanoTime();
+            particles.update();
+            long updated = System.nanoTime();
+            particles.fillPoints(false, points, 480, 700);
+            particles.fillPoints(true, points, 480, 700);
+            long drawn = System.nanoTime();
+            emitNanos += emitted - begin;
+            updateNanos += updated - emitted;
+            drawNanos += drawn - updated;
+            live += particles.getCount();
+        }
+        long meanLive = Math.max(1, live / ticks);
+        System.out.println(String.format("budget %6d: %6d live, emit %6d ns, update %6d ns "
+                        + "(%.1f ns/particle), points %6d ns, %4.1f%% dropped", budget, meanLive,
+                emitNanos / ticks, updateNanos / ticks, (float) updateNanos / ticks / meanLive,
+                drawNanos / ticks, 100f * particles.getDropped()
+                        / (particles.getDropped() + particles.getEmitted())));
+    }
+
+    /**
+     * @return mean tick of a 16 lane game, in nanoseconds.
+     */
+    static long game(boolean withParticles, int ticks) {
+        CirechGame game = new CirechGame(true, 16, 30);
+        if (withParticles) game.setParticles(new ParticleSystem(2048));
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        long begin = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            if (game.getCurrentState() != CirechGame.PLAY_STATE) {
+                game.reset();
+                game.setCurrentState(CirechGame.PLAY_STATE);
+            }
+            // keep playing, colors are ignored by this benchmark
+            game.currentColor = game.barriers[game.barrierIndex(0, 0)].color;
+            game.updateGame();
+        }
+        return (System.nanoTime() - begin) / ticks;
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        for (int round = 0; round < 2; round++) {
+            for (int budget : BUDGETS) run(budget, ticks);
+            System.out.println("16 lane game tick: " + game(false, ticks) + " ns, with particles "
+                    + game(true, ticks) + " ns");
+        }
+    }
+}
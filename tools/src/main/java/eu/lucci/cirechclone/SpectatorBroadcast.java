@@ -0,0 +1,111 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+package eu.lucci.cirechclone;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Broadcasts a game played by a bot to many spectators in this process. Each spectator thread
+ * decodes the stream and renders it with a SoftwareRenderer. The stream rate and what each
+ * spectator received are reported.
+ * Run it with: gradle :tools:runSpectatorBroadcast -Pargs="[spectators] [seconds] [fast]"
+ * With "fast" the game is not paced at PREFERRED_FPS, to find when spectators fall behind.
+ */
+public class SpectatorBroadcast {
+
+    private static final long TICK_NANOS = 1000000000L / GameThread.PREFERRED_FPS;
+
+    public static void main(String[] args) throws Exception {
+        int spectators = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        boolean fast = args.length > 2 && args[2].equals("fast");
+
+        final CirechGame game = new CirechGame(true);
+        final SpectatorStream stream = new SpectatorStream(game.getLanes(),
+                game.getBarriersPerLane());
+        final SpectatorStream.Subscriber[] subscribers =
+                new SpectatorStream.Subscriber[spectators];
+        final int[] decoded = new int[spectators];
+        final int[] rendered = new int[spectators];
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] threads = new Thread[spectators];
+        for (int i = 0; i < spectators; i++) {
+            final int s = i;
+            subscribers[i] = stream.subscribe();
+            threads[i] = new Thread("spectator " + i) {
+                @Override
+                public void run() {
+                    SpectatorDecoder decoder = new SpectatorDecoder();
+                    SoftwareRenderer renderer = new SoftwareRenderer(240, 400, 0xFF000000,
+                            0xFFFF0000, 0xFF0000FF);
+                    byte[] buffer = new byte[stream.getMaxFrameSize()];
+                    while (running.get()) {
+                        decoded[s] += decoder.poll(subscribers[s], buffer);
+                        if (decoder.getGame() != null) {
+                            renderer.renderGame(decoder.getGame());
+                            rendered[s]++;
+                        }
+                        try {
+                            Thread.sleep(TICK_NANOS / 1000000);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        Autopilot bot = new Autopilot(0, 0.01f);
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        long end = System.nanoTime() + seconds * 1000000000L;
+        long next = System.nanoTime();
+        long publishNanos = 0;
+        while (System.nanoTime() < end) {
+            if (game.getCurrentState() != CirechGame.PLAY_STATE) {
+                game.reset();
+                game.setCurrentState(CirechGame.PLAY_STATE);
+                stream.requestKeyframe();
+            }
+            bot.control(game);
+            game.updateGame();
+            long begin = System.nanoTime();
+            stream.publish(game);
+            publishNanos += System.nanoTime() - begin;
+            if (!fast) {
+                next += TICK_NANOS;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+            }
+        }
+        running.set(false);
+        for (Thread t : threads) t.join();
+
+        System.out.printf("stream: %d frames (%d keyframes), %d bytes, %.0f B/s, %.1f B/frame,"
+                        + " publish %d ns/frame%n", stream.getFrames(), stream.getKeyframes(),
+                stream.getBytes(), stream.getBytesPerSecond(),
+                stream.getBytes() / (double) stream.getFrames(),
+                publishNanos / stream.getFrames());
+        for (int i = 0; i < spectators; i++) {
+            System.out.println("spectator " + i + ": " + decoded[i] + " frames, "
+                    + subscribers[i].getBytesRead() + " bytes, " + subscribers[i].getSkips()
+                    + " skips, " + rendered[i] + " renders");
+        }
+    }
+}
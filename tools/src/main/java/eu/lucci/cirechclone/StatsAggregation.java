@@ -0,0 +1,139 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the GameStats of a replay archive on every core: each thread reads the next free
+ * segment into its own stats, which are merged at the end. The score quantiles are checked
+ * against an exact histogram and the size of the saved stats is reported.
+ * Run it with: gradle :tools:runStatsAggregation -Pargs="archive [threads]"
+ */
+public class StatsAggregation {
+
+    private static final float[] QUANTILES = {0.1f, 0.5f, 0.9f, 0.99f};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: StatsAggregation archive [threads]");
+            System.exit(2);
+        }
+        final File path = new File(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger nextSegment = new AtomicInteger();
+        final GameStats[] stats = new GameStats[threads];
+        final long[][] histograms = new long[threads][];
+        final IOException[] errors = new IOException[threads];
+        Thread[] workers = new Thread[threads];
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            stats[t] = new GameStats();
+            workers[t] = new Thread("stats-" + t) {
+                @Override
+                public void run() {
+                    final GameStats own = stats[id];
+                    final long[][] histogram = {new long[256]};
+                    try {
+                        ReplayArchive.Reader reader = new ReplayArchive.Reader(path);
+                        try {
+                            ReplayArchive.Visitor visitor = new ReplayArchive.Visitor() {
+                                @Override
+                                public boolean visit(ReplayArchive.Run run) {
+                                    own.record(run.getScore(), run.getTicks());
+                                    int score = run.getScore();
+                                    if (score >= histogram[0].length) {
+                                        histogram[0] = Arrays.copyOf(histogram[0], score * 2);
+                                    }
+                                    histogram[0][score]++;
+                                    return true;
+                                }
+                            };
+                            for (int s = nextSegment.getAndIncrement(); s < reader.getSegmentCount();
+                                 s = nextSegment.getAndIncrement()) {
+                                reader.scanSegment(s, visitor);
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                    } catch (IOException e) {
+                        errors[id] = e;
+                    }
+                    histograms[id] = histogram[0];
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        long scanned = System.nanoTime();
+        for (IOException e : errors) if (e != null) throw e;
+        GameStats total = new GameStats();
+        for (GameStats s : stats) total.merge(s);
+        long merged = System.nanoTime();
+        System.out.println(total);
+        System.out.println(threads + " threads: scan " + (scanned - begin) / 1000000 + " ms, merge "
+                + (merged - scanned) / 1000 + " us");
+
+        long[] exact = new long[0];
+        for (long[] h : histograms) {
+            if (h.length > exact.length) exact = Arrays.copyOf(exact, h.length);
+            for (int i = 0; i < h.length; i++) exact[i] += h[i];
+        }
+        for (float q : QUANTILES) {
+            int estimate = total.getScoreQuantile(q);
+            System.out.println(String.format("score q%.2f: sketch %d, exact %d, rank error %.2f%%",
+                    q, estimate, exactQuantile(exact, q, total.getGames()),
+                    rankError(exact, estimate, q, total.getGames()) * 100));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        total.write(new DataOutputStream(bytes));
+        System.out.println("saved stats: " + bytes.size() + " bytes");
+    }
+
+    private static int exactQuantile(long[] histogram, float q, long count) {
+        long target = (long) (q * count);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > target) return i;
+        }
+        return histogram.length - 1;
+    }
+
+    /**
+     * @return how far q is from the ranks covered by the item, 0 if the item is a right answer.
+     */
+    private static float rankError(long[] histogram, int item, float q, long count) {
+        long below = 0;
+        for (int i = 0; i < item && i < histogram.length; i++) below += histogram[i];
+        long at = item < histogram.length ? histogram[item] : 0;
+        float low = (float) below / count;
+        float high = (float) (below + at) / count;
+        return q < low ? low - q : q > high ? q - high : 0;
+    }
+}
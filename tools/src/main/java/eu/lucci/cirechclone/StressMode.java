@@ -0,0 +1,81 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+package eu.lucci.cirechclone;
+
+/**
+ * Load generator for the engine and the software renderer. Games with more and more lanes and
+ * barriers are played headless, a frame is rendered every tick, and the mean update and render
+ * times are reported, to find where they stop scaling.
+ * Run it with: gradle :tools:runStressMode -Pargs="[ticks]"
+ */
+public class StressMode {
+
+    private static final int[] LANES = {1, 4, 16, 64};
+
+    private static final int[] BARRIERS_PER_LANE = {3, 30, 300};
+
+    private static final int WIDTH = 480;
+
+    private static final int HEIGHT = 800;
+
+    /**
+     * @param lanes           number of lanes.
+     * @param barriersPerLane barriers in each lane.
+     * @param ticks           ticks to run, after as many warm-up ticks.
+     */
+    static void run(int lanes, int barriersPerLane, int ticks) {
+        CirechGame game = new CirechGame(false, lanes, barriersPerLane);
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT, 0xFF000000, 0xFFFFFFFF,
+                0xFF808080);
+        long updateNanos = 0;
+        long renderNanos = 0;
+        int games = 0;
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        for (int i = -ticks; i < ticks; i++) {
+            long begin = System.nanoTime();
+            game.updateGame();
+            long updated = System.nanoTime();
+            renderer.renderGame(game);
+            long rendered = System.nanoTime();
+            if (i >= 0) {
+                updateNanos += updated - begin;
+                renderNanos += rendered - updated;
+            }
+            if (game.getCurrentState() != CirechGame.PLAY_STATE) {
+                // keep the load constant
+                games++;
+                game.reset();
+                game.setCurrentState(CirechGame.PLAY_STATE);
+            }
+        }
+        System.out.printf("%3d lanes x %3d barriers: update %8d ns/tick, render %8d ns/frame"
+                        + " (%d games)%n", lanes, barriersPerLane, updateNanos / ticks,
+                renderNanos / ticks, games);
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        for (int lanes : LANES) {
+            for (int barriersPerLane : BARRIERS_PER_LANE) {
+                run(lanes, barriersPerLane, ticks);
+            }
+        }
+    }
+}
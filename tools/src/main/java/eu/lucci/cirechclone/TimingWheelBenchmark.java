@@ -0,0 +1,141 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the TimingWheel against a plain list checked every tick, with tens of
+ * thousands of pending events: events are scheduled up to a minute ahead, a quarter of them
+ * is cancelled, and each one fired is replaced by a new one. Then a game with timed events
+ * and rollback is played, to see what they add to a tick.
+ * Run it with: gradle :tools:runTimingWheelBenchmark -Pargs="[pending events]"
+ */
+public class TimingWheelBenchmark {
+
+    private static final int HORIZON = GameThread.PREFERRED_FPS * 60;
+
+    private static final int TICKS = HORIZON * 2;
+
+    /**
+     * Counts the fired events and schedules new ones.
+     */
+    static class Refill implements TimingWheel.Listener {
+        TimingWheel wheel;
+        Random random = new Random(1);
+        int now;
+        long fired;
+
+        @Override
+        public void onEvent(int tick, int type, int data) {
+            fired++;
+            wheel.schedule(now + 1 + random.nextInt(HORIZON), type, data);
+        }
+    }
+
+    static void wheel(int pending) {
+        TimingWheel wheel = new TimingWheel(pending, 0);
+        Refill refill = new Refill();
+        refill.wheel = wheel;
+        int[] handles = new int[pending];
+        long begin = System.nanoTime();
+        for (int i = 0; i < pending; i++) {
+            handles[i] = wheel.schedule(1 + refill.random.nextInt(HORIZON), i, 0);
+        }
+        long scheduled = System.nanoTime();
+        for (int i = 0; i < pending; i += 4) wheel.cancel(handles[i]);
+        long cancelled = System.nanoTime();
+        for (int t = 1; t <= TICKS; t++) {
+            refill.now = t;
+            wheel.advance(t, refill);
+        }
+        long advanced = System.nanoTime();
+        System.out.println(String.format("wheel: schedule %d ns, cancel %d ns, tick %d ns, "
+                        + "%d fired", (scheduled - begin) / pending,
+                (cancelled - scheduled) / (pending / 4), (advanced - cancelled) / TICKS,
+                refill.fired));
+    }
+
+    /**
+     * The same load on arrays of events checked every tick.
+     */
+    static void list(int pending) {
+        Random random = new Random(1);
+        int[] ticks = new int[pending];
+        boolean[] live = new boolean[pending];
+        for (int i = 0; i < pending; i++) {
+            ticks[i] = 1 + random.nextInt(HORIZON);
+            live[i] = true;
+        }
+        for (int i = 0; i < pending; i += 4) live[i] = false;
+        long fired = 0;
+        long begin = System.nanoTime();
+        for (int t = 1; t <= TICKS; t++) {
+            for (int i = 0; i < pending; i++) {
+                if (live[i] && ticks[i] <= t) {
+                    fired++;
+                    ticks[i] = t + 1 + random.nextInt(HORIZON);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.println(String.format("list: tick %d ns, %d fired", elapsed / TICKS, fired));
+    }
+
+    /**
+     * @return mean duration of a tick, in nanoseconds.
+     */
+    static long game(boolean timedEvents) {
+        CirechGame game = new CirechGame(true);
+        game.setRollbackEnabled(true);
+        game.setTimedEventsEnabled(timedEvents);
+        Autopilot pilot = new Autopilot(1, 0);
+        game.reset(1);
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        int ticks = TICKS * 10;
+        long begin = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            if (game.getCurrentState() != CirechGame.PLAY_STATE) {
+                game.reset(i);
+                game.setCurrentState(CirechGame.PLAY_STATE);
+            }
+            if (timedEvents && game.getTick() % 300 == 0) {
+                game.scheduleEvent(60, i % 2 == 0 ? CirechGame.SLOW_MOTION_EVENT
+                        : CirechGame.SPEED_BURST_EVENT, 120);
+            }
+            pilot.control(game);
+            game.updateGame();
+        }
+        return (System.nanoTime() - begin) / ticks;
+    }
+
+    public static void main(String[] args) {
+        int pending = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        System.out.println(pending + " pending events, " + TICKS + " ticks");
+        for (int round = 0; round < 3; round++) {
+            wheel(pending);
+            list(pending);
+            long without = game(false);
+            long with = game(true);
+            System.out.println("game tick: " + without + " ns, with timed events " + with + " ns");
+        }
+    }
+}
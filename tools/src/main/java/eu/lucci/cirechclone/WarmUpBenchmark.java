@@ -0,0 +1,70 @@
+/*
+ * This file is part of cirech-clone.
+ *
+ * cirech-clone is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * cirech-clone is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with cirech-clone.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) 2016.
+ */
+
+
+package eu.lucci.cirechclone;
+
+/**
+ * Measures the frames of the first game after a WarmUp, or without one. The JIT can't be
+ * reset, so compare two runs of a fresh JVM: with 0 warm-up ticks and with some.
+ * The game is played by an Autopilot and drawn by the SoftwareRenderer at the tick rate.
+ * Run it with: gradle :tools:runWarmUpBenchmark -Pargs="[warm-up ticks]"
+ */
+public class WarmUpBenchmark {
+
+    private static final long TICK_NANOS = 1000000000L / GameThread.PREFERRED_FPS;
+
+    private static final int WIDTH = 480;
+
+    private static final int HEIGHT = 800;
+
+    public static void main(String[] args) throws InterruptedException {
+        int warmUpTicks = args.length > 0 ? Integer.parseInt(args[0]) : 1200;
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT, 0xFF000000, 0xFFFFFFFF,
+                0xFF808080);
+        CirechGame game = new CirechGame(true);
+        game.setRollbackEnabled(true);
+        if (warmUpTicks > 0) {
+            WarmUp warmUp = new WarmUp(new SoftwareRenderer(WIDTH, HEIGHT, 0xFF000000,
+                    0xFFFFFFFF, 0xFF808080), game, warmUpTicks);
+            warmUp.start();
+            warmUp.join();
+            System.out.println(warmUp);
+        }
+        FrameGovernor governor = new FrameGovernor(TICK_NANOS);
+        governor.startCapture();
+        Autopilot pilot = new Autopilot(1, 0);
+        game.reset(1);
+        game.setCurrentState(CirechGame.PLAY_STATE);
+        long nextTick = System.nanoTime();
+        while (!governor.isCaptureDone() && game.getCurrentState() == CirechGame.PLAY_STATE) {
+            long begin = System.nanoTime();
+            if (pilot.decide(game)) game.switchColorAt(begin);
+            game.updateGame();
+            renderer.renderGame(game);
+            governor.recordFrame(System.nanoTime() - begin);
+            nextTick += TICK_NANOS;
+            long sleep = nextTick - System.nanoTime();
+            if (sleep > 0) Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+        }
+        System.out.println("first game frames p50/p90/max " + governor.getCaptureP50() / 1000
+                + "/" + governor.getCaptureP90() / 1000 + "/" + governor.getCaptureMax() / 1000
+                + " us");
+    }
+}